@@ -0,0 +1,330 @@
+/*
+ * Copyright 2013 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tss.dfm;
+
+import ec.tstoolkit.algorithm.CompositeResults;
+import ec.tstoolkit.algorithm.IProcessingHook;
+import ec.tstoolkit.algorithm.IProcessingNode;
+import ec.tstoolkit.dfm.DfmSpec;
+import ec.tstoolkit.dfm.DynamicFactorModel;
+import ec.tstoolkit.timeseries.simplets.TsData;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refresh of a set of documents (typically all the dynamic factor models of a
+ * workspace). The data of the documents are refreshed and the documents are
+ * processed concurrently, on a bounded pool of threads.
+ *
+ * The memory used by the concurrent processings is limited: each document
+ * takes a part of a memory budget (see estimatedMemory) before its
+ * processing, so that large models are processed with fewer concurrent
+ * documents. A document larger than the budget is processed alone.
+ *
+ * The processors are shared by the concurrent documents: each document uses
+ * at most availableProcessors / (number of concurrent documents) threads in
+ * its estimation (DfmProcessingFactory.setThreadsCount).
+ *
+ * The progress of each document is reported through the hooks of its
+ * processing factory (DfmProcessingFactory.processHooks). The refresh can
+ * be cancelled at any time: the pending documents are skipped and the
+ * running estimations are stopped at their next hook.
+ */
+public class DfmBatchRefresh {
+
+    public static enum Status {
+
+        /**
+         * The document has been processed
+         */
+        Done,
+        /**
+         * The processing of the document failed
+         */
+        Failed,
+        /**
+         * The refresh has been cancelled before the end of the processing of
+         * the document
+         */
+        Cancelled
+    }
+
+    /**
+     * Listener of a batch refresh. The methods are called from the threads
+     * of the pool.
+     */
+    public static interface IListener {
+
+        /**
+         * Progress of the estimation of a document
+         *
+         * @param doc The document
+         * @param info The information sent by its processing factory
+         */
+        void progress(VersionedDfmDocument doc, IProcessingHook.HookInformation<IProcessingNode, DfmProcessingFactory.EstimationInfo> info);
+
+        /**
+         * End of the processing of a document
+         *
+         * @param doc The document
+         * @param status The status of the processing
+         */
+        void done(VersionedDfmDocument doc, Status status);
+    }
+
+    private static final int MB = 1 << 20;
+
+    private final int nthreads;
+    private final int budget; // in MB
+    private volatile IListener listener;
+    private volatile boolean cancelled;
+    private volatile Semaphore memory;
+
+    /**
+     * Creates a batch refresh that uses all the processors and half of the
+     * maximum memory of the JVM
+     */
+    public DfmBatchRefresh() {
+        this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() / 2);
+    }
+
+    /**
+     *
+     * @param nthreads The maximum number of documents processed concurrently
+     * @param memory The memory (in bytes) that can be used by the concurrent
+     * processings
+     */
+    public DfmBatchRefresh(int nthreads, long memory) {
+        this.nthreads = Math.max(1, nthreads);
+        this.budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memory / MB));
+    }
+
+    public IListener getListener() {
+        return listener;
+    }
+
+    public void setListener(IListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Refreshes and processes the documents. The method returns when all the
+     * documents have been processed or skipped. If the calling thread is
+     * interrupted, the refresh is cancelled and the method returns when the
+     * running processings are stopped (the interrupted status is kept).
+     *
+     * @param docs The documents
+     * @return The status of each document (in the order of the documents)
+     */
+    public Map<VersionedDfmDocument, Status> refresh(List<VersionedDfmDocument> docs) {
+        final Semaphore mem = new Semaphore(budget, true);
+        int npool = Math.min(nthreads, Math.max(1, docs.size()));
+        final int nprocs = Math.max(1, Runtime.getRuntime().availableProcessors() / npool);
+        List<Future<Status>> tasks = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(npool);
+        cancelled = false;
+        memory = mem;
+        for (final VersionedDfmDocument doc : docs) {
+            tasks.add(executor.submit(new Callable<Status>() {
+                @Override
+                public Status call() throws Exception {
+                    return process(doc, mem, nprocs);
+                }
+            }));
+        }
+        executor.shutdown();
+        Map<VersionedDfmDocument, Status> rslts = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < docs.size(); ++i) {
+                rslts.put(docs.get(i), status(tasks.get(i)));
+            }
+        } catch (InterruptedException ex) {
+            cancel();
+            executor.shutdownNow();
+            awaitTermination(executor);
+            for (int i = rslts.size(); i < docs.size(); ++i) {
+                Future<Status> task = tasks.get(i);
+                Status status = Status.Cancelled;
+                if (task.isDone()) {
+                    status = status(task);
+                } else {
+                    // removed from the queue by shutdownNow
+                    IListener l = listener;
+                    if (l != null) {
+                        l.done(docs.get(i), status);
+                    }
+                }
+                rslts.put(docs.get(i), status);
+            }
+            Thread.currentThread().interrupt();
+        }
+        return rslts;
+    }
+
+    private static Status status(Future<Status> task) throws InterruptedException {
+        try {
+            return task.get();
+        } catch (ExecutionException ex) {
+            return Status.Failed;
+        }
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Cancels the current refresh. The documents that are not yet started are
+     * skipped and the running estimations are stopped at their next hook.
+     * The listener is called for all the documents.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return The memory (in MB) that is not used by the current processings
+     */
+    int getAvailableMemory() {
+        Semaphore mem = memory;
+        return mem == null ? budget : mem.availablePermits();
+    }
+
+    private Status process(final VersionedDfmDocument doc, Semaphore memory, int nprocs) {
+        Status status = Status.Cancelled;
+        try {
+            if (cancelled) {
+                return status;
+            }
+            DfmDocument current = doc.getCurrent();
+            if (current.isTsFrozen()) {
+                doc.refreshData();
+            }
+            current = doc.getCurrent();
+            int size = (int) Math.min(budget, Math.max(1, estimatedMemory(current) / MB));
+            memory.acquire(size);
+            try {
+                if (cancelled) {
+                    return status;
+                }
+                status = compute(doc, current, nprocs);
+            } finally {
+                memory.release(size);
+            }
+            return status;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return status;
+        } catch (RuntimeException | Error ex) {
+            // the processing of the other documents goes on
+            status = Status.Failed;
+            return status;
+        } finally {
+            IListener l = listener;
+            if (l != null) {
+                l.done(doc, status);
+            }
+        }
+    }
+
+    private Status compute(final VersionedDfmDocument doc, DfmDocument current, int nprocs) {
+        DfmProcessingFactory processor = (DfmProcessingFactory) current.getProcessor();
+        int oldnprocs = processor.getThreadsCount();
+        IProcessingHook<IProcessingNode, DfmProcessingFactory.EstimationInfo> hook
+                = new IProcessingHook<IProcessingNode, DfmProcessingFactory.EstimationInfo>() {
+
+                    @Override
+                    public void process(IProcessingHook.HookInformation<IProcessingNode, DfmProcessingFactory.EstimationInfo> info, boolean cancancel) {
+                        if (cancelled) {
+                            info.cancel = true;
+                        }
+                        IListener l = listener;
+                        if (l != null) {
+                            l.progress(doc, info);
+                        }
+                    }
+                };
+        processor.register(hook);
+        processor.setThreadsCount(nprocs);
+        try {
+            if (current.getSpecification().getModelSpec().isSpecified()) {
+                if (!current.update()) {
+                    return cancelled ? Status.Cancelled : Status.Failed;
+                }
+            }
+            CompositeResults rslts = current.getResults();
+            if (cancelled) {
+                return Status.Cancelled;
+            }
+            return rslts != null && current.getDfmResults() != null ? Status.Done : Status.Failed;
+        } finally {
+            processor.setThreadsCount(oldnprocs);
+            processor.unregister(hook);
+        }
+    }
+
+    /**
+     * Rough estimation of the memory used by the processing of a document:
+     * the filtering results of the model (variances of the states and of the
+     * predictions) and the smoothed states, for each period.
+     *
+     * @param doc The document
+     * @return The estimated memory, in bytes
+     */
+    public static long estimatedMemory(DfmDocument doc) {
+        DfmSpec spec = doc.getSpecification();
+        DynamicFactorModel model = spec.getModelSpec().build();
+        long n = model.getFactorsCount() * model.getBlockLength();
+        long nv = model.getMeasurementsCount();
+        TsData[] data = doc.getData();
+        long nt = 0;
+        if (data != null) {
+            for (int i = 0; i < data.length; ++i) {
+                if (data[i] != null) {
+                    nt = Math.max(nt, data[i].getLength());
+                }
+            }
+        }
+        int fh = spec.getModelSpec().getForecastHorizon();
+        // negative horizons are in years (monthly data at most)
+        nt += fh < 0 ? -12 * fh : fh;
+        return 8 * nt * (2 * n * n + nv * nv + 2 * nv * n + 2 * n);
+    }
+}
@@ -17,9 +17,7 @@
 package ec.tss.dfm;
 
 import ec.satoolkit.DecompositionMode;
-import ec.satoolkit.GenericSaProcessingFactory;
 import ec.satoolkit.ISaSpecification;
-import ec.tss.sa.SaManager;
 import ec.tstoolkit.algorithm.AlgorithmDescriptor;
 import ec.tstoolkit.algorithm.CompositeResults;
 import ec.tstoolkit.algorithm.IProcResults;
@@ -52,8 +50,6 @@ import ec.tstoolkit.maths.realfunctions.ISsqFunctionInstance;
 import ec.tstoolkit.maths.realfunctions.ProxyMinimizer;
 import ec.tstoolkit.maths.realfunctions.levmar.LevenbergMarquardtMethod;
 import ec.tstoolkit.maths.realfunctions.riso.LbfgsMinimizer;
-import ec.tstoolkit.modelling.ModellingDictionary;
-import ec.tstoolkit.modelling.SeriesInfo;
 import ec.tstoolkit.modelling.arima.PreprocessingModel;
 import ec.tstoolkit.mssf2.MSsfFunctionInstance;
 import ec.tstoolkit.timeseries.Day;
@@ -95,6 +91,42 @@ public class DfmProcessingFactory extends ProcessingHookProvider<IProcessingNode
     public static final AlgorithmDescriptor DESCRIPTOR = new AlgorithmDescriptor("Nowcasting", "DynamicFactorModel", "1.0");
     public static final DfmProcessingFactory instance = new DfmProcessingFactory();
 
+    private volatile int nthreads_ = Runtime.getRuntime().availableProcessors();
+    private volatile DfmResults previous_;
+
+    public int getThreadsCount() {
+        return nthreads_;
+    }
+
+    /**
+     * Sets the number of threads that a processing can use when the
+     * specification asks for parallel computations (loadings of the EM,
+     * numerical derivatives). By default, the number of processors
+     *
+     * @param n
+     */
+    public void setThreadsCount(int n) {
+        nthreads_ = Math.max(1, n);
+    }
+
+    public DfmResults getPreviousResults() {
+        return previous_;
+    }
+
+    /**
+     * Sets the results of a previous vintage of the data. When the model is
+     * specified (no estimation), the results of the next processing are
+     * derived from them (see DfmResults.update): the smoothing is resumed at
+     * the first modified period if the model is unchanged. The smoothing
+     * results are moved from the previous results to the new ones.
+     *
+     * @param rslts The previous results. Null to process the data from scratch
+     * (default)
+     */
+    public void setPreviousResults(DfmResults rslts) {
+        previous_ = rslts;
+    }
+
     @Override
     public void dispose() {
     }
@@ -274,7 +306,13 @@ public class DfmProcessingFactory extends ProcessingHookProvider<IProcessingNode
                     Day lastday = last.lastday();
                     dinfo = dinfo.extendTo(lastday);
                 }
-                DfmResults start = new DfmResults(spec.getModelSpec().build(), dinfo);
+                DfmResults previous = previous_;
+                DfmResults start;
+                if (previous != null && spec.getModelSpec().isSpecified()) {
+                    start = previous.update(spec.getModelSpec().build(), dinfo);
+                } else {
+                    start = new DfmResults(spec.getModelSpec().build(), dinfo);
+                }
                 start.setDescriptions(desc);
                 if (!spec.getModelSpec().isDefined()) {
                     new DefaultInitializer().initialize(start.getModel(), start.getInput());
@@ -407,6 +445,10 @@ public class DfmProcessingFactory extends ProcessingHookProvider<IProcessingNode
                 em.setMaxIter(spec.getMaxIter());
                 em.setCorrectingInitialVariance(end);
                 em.setEpsilon(spec.getPrecision());
+                if (spec.isParallel()) {
+                    em.setThreadsCount(nthreads_);
+                }
+                em.setAccelerated(spec.isAccelerated());
                 initializer = em;
                 if (DfmProcessingFactory.this.hasHooks()) {
                     hook = new IProcessingHook<DfmEM2, DynamicFactorModel>() {
@@ -513,6 +555,11 @@ public class DfmProcessingFactory extends ProcessingHookProvider<IProcessingNode
             estimator.setMaxInitialIter(spec.getMaxInitialIter());
             estimator.setMaxIntermediateIter(spec.getMaxIntermediateIter());
             estimator.setMixedMethod(spec.isMixedEstimation());
+            estimator.setCollapsedFiltering(spec.isCollapsedFiltering());
+            estimator.setAnalyticalGradient(spec.isAnalyticalGradient());
+            if (spec.isParallelDerivatives()) {
+                estimator.setThreadsCount(nthreads_);
+            }
             estimator.setIndependentVarShocks(spec.isIndependentVarShocks());
             estimator.setUsingBlockIterations(spec.isBlockIterations());
             estimator.setPrecision(spec.getPrecision());
@@ -568,15 +615,14 @@ public class DfmProcessingFactory extends ProcessingHookProvider<IProcessingNode
             case DiffY:
                 return s.delta(s.getFrequency().intValue());
             case Sa:
-                CompositeResults sarslts = SaManager.instance.process(spec, s);
-                if (sarslts == null) {
+                SaResultsCache.SaComponents sarslts = SaResultsCache.instance.process(spec, s, false);
+                if (!sarslts.valid) {
                     return null;
                 }
-                TsData sa = sarslts.getData(ModellingDictionary.SA_CMP, TsData.class);
-                if (sa == null) {
+                if (sarslts.sa == null) {
                     return s.clone();
                 } else {
-                    return sa;
+                    return sarslts.sa.clone();
                 }
         }
         return null;
@@ -658,16 +704,16 @@ public class DfmProcessingFactory extends ProcessingHookProvider<IProcessingNode
                 return orig.clone();
             }
         }
-        CompositeResults sarslts = SaManager.instance.process(spec, orig);
-        if (sarslts == null) {
+        SaResultsCache.SaComponents sarslts = SaResultsCache.instance.process(spec, orig, true);
+        if (!sarslts.valid) {
             return cur;
         }
-        TsData seas = sarslts.getData(ModellingDictionary.S_CMP, TsData.class);
-        DecompositionMode mode = sarslts.getData(ModellingDictionary.MODE, DecompositionMode.class);
+        TsData seas = sarslts.s;
+        DecompositionMode mode = sarslts.mode;
         if (seas == null) {
             return cur;
         }
-        TsData fseas = sarslts.getData(ModellingDictionary.S_CMP + SeriesInfo.F_SUFFIX, TsData.class);
+        TsData fseas = sarslts.fs;
         if (fseas != null) {
             seas = seas.update(fseas);
         }
@@ -698,7 +744,7 @@ public class DfmProcessingFactory extends ProcessingHookProvider<IProcessingNode
             rextract.rextract(0, n - end).copyTo(sc, end);
         }
 
-        PreprocessingModel mdl = sarslts.get(GenericSaProcessingFactory.PREPROCESSING, PreprocessingModel.class);
+        PreprocessingModel mdl = sarslts.preprocessing;
         if (mdl != null) {
             TsData re = mdl.regressionEffect(seasc.getDomain());
             mdl.backTransform(re, true, true);
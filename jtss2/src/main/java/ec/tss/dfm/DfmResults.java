@@ -22,6 +22,7 @@ import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.data.DataBlockStorage;
 import ec.tstoolkit.data.DescriptiveStatistics;
 import ec.tstoolkit.dfm.DfmProcessor;
+import ec.tstoolkit.dfm.DfmScore;
 import ec.tstoolkit.dfm.DynamicFactorModel;
 import ec.tstoolkit.eco.Likelihood;
 import ec.tstoolkit.information.InformationMapper;
@@ -37,6 +38,7 @@ import ec.tstoolkit.timeseries.information.TsInformationSet;
 import ec.tstoolkit.timeseries.simplets.TsData;
 import ec.tstoolkit.timeseries.simplets.TsDomain;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -59,11 +61,14 @@ public class DfmResults implements IProcResults {
     // smoothing/filtering
     private MSmoothingResults smoothing;
     private MFilteringResults filtering;
+    private DfmProcessor processor; // kept for incremental updates
+    private int checkpointPeriod = -1; // 0 = full storage of the filtering results, -1 = automatic
     private TsData[] smoothedShocks; // one Ts for each shock
     private TsData[] smoothedNoise;  // one Ts for each observable
     private TsData[] theData; // one Ts for each observable,  incorporates stdev but NOT MEAN
     private TsData[] smoothedSignal;  // one Ts for each observable (demeaned),incorporates stdev but not mean
     private TsData[][] shockDecomposition; //incorporates stdev
+    private double[] shockStates; // propagated shocks, by component, period and state
     private Matrix varianceDecompositionShock;  // variables x horizons (for a give shock),incorporates stdev
     private Matrix varianceDecompositionIdx;     // shocks x horizon (for a given variable),incorporates stdev
     private Matrix irfIdx;   // shocks x horizon (for a given variable) , incorporates stdev
@@ -72,6 +77,7 @@ public class DfmResults implements IProcResults {
     private TsData[] smoothedSignalUncertainty; // incorporates stdev
     private DfmSeriesDescriptor[] description;
     private TsData[] smoothedSignalProjection; // incorporates mean and stdev
+    private Responses responses; // IRF and variance decomposition, by lag
 
     private final List<ProcessingInformation> infos = new ArrayList<>();
 
@@ -84,7 +90,7 @@ public class DfmResults implements IProcResults {
         return model;
     }
 
-    public void clear() {
+    public synchronized void clear() {
         if (filtering != null) {
             filtering.clear();
         }
@@ -97,16 +103,40 @@ public class DfmResults implements IProcResults {
         }
         input = null;
         mssf = null;
+        responses = null;
+        clearOutputs();
+        processor = null;
         if (likelihood != null) {
             likelihood.clear();
         }
     }
 
+    /**
+     * Removes the derived outputs. They are computed lazily (and only once)
+     * by their getters, which use the following dependencies:
+     * smoothed states -> signal, shocks, signal uncertainty;
+     * signal -> noise, signal projections; noise -> idiosyncratic
+     * correlations; shocks -> propagated shocks; propagated shocks, noise ->
+     * shocks decomposition. The data and all
+     * the derived series depend on the descriptions of the series.
+     */
+    private void clearOutputs() {
+        theData = null;
+        smoothedSignal = null;
+        smoothedNoise = null;
+        smoothedShocks = null;
+        shockStates = null;
+        shockDecomposition = null;
+        smoothedSignalProjection = null;
+        smoothedSignalUncertainty = null;
+        idiosyncraticCorr = null;
+    }
+
     public TsInformationSet getInput() {
         return input;
     }
 
-    public IMSsf getSsf() {
+    public synchronized IMSsf getSsf() {
         if (mssf == null) {
             mssf = model.ssfRepresentation();
         }
@@ -117,7 +147,7 @@ public class DfmResults implements IProcResults {
         return description == null ? new DfmSeriesDescriptor(idx) : description[idx];
     }
 
-    public DfmSeriesDescriptor[] getDescriptions() {
+    public synchronized DfmSeriesDescriptor[] getDescriptions() {
         if (description != null) {
             return description;
         }
@@ -149,77 +179,76 @@ public class DfmResults implements IProcResults {
         score = s;
     }
 
-    public void setDescriptions(DfmSeriesDescriptor[] desc) {
+    public synchronized void setDescriptions(DfmSeriesDescriptor[] desc) {
         description = desc;
+        clearOutputs();
     }
 
     public void setLikelihood(Likelihood ll) {
         likelihood = ll;
     }
 
+    /**
+     * Size (in bytes) of the full filtering results above which checkpoints
+     * are used by default
+     */
+    public static final long CHECKPOINT_THRESHOLD = MFilteringResults.CHECKPOINT_THRESHOLD;
+
+    public int getCheckpointPeriod() {
+        return checkpointPeriod;
+    }
+
+    /**
+     * Sets the number of periods between two checkpoints of the filtering
+     * results (0 for a full storage). Checkpoints reduce the memory used by
+     * the results of large models, but they prevent the incremental updates
+     * (see update). By default (-1), checkpoints are used when the full
+     * filtering results would exceed CHECKPOINT_THRESHOLD. Should be set
+     * before the computation of the smoothed states.
+     *
+     * @param period
+     */
+    public void setCheckpointPeriod(int period) {
+        checkpointPeriod = period;
+    }
+
     /**
      * Matrix containing the correlation (+/-) between measurement errors
      * Pervasive correlation patterns may indicate the need to incorporate more
      * factors. The diagonal elements are, naturally, equal to one.
      */
-    public Matrix getIdiosyncratic() {
+    public synchronized Matrix getIdiosyncratic() {
         if (idiosyncraticCorr == null) {
             calcIdiosyncratic();
         }
         return idiosyncraticCorr;
     }
 
-    public void calcIdiosyncratic() {
+    public synchronized void calcIdiosyncratic() {
 
-        TsData[] error = getNoise();
-        TsData ei;
-        TsData ej;
-        TsData eij;
-        DescriptiveStatistics eiDesStat;
-        DescriptiveStatistics ejDesStat;
-        DescriptiveStatistics eijDesStat;
-
-        idiosyncraticCorr = new Matrix(error.length, error.length);// N series 
+        // the (shared) noise is not modified: the centered series are copies
+        TsData[] noise = getNoise();
+        int N = noise.length;
+        TsData[] error = new TsData[N];
+        double[] std = new double[N];
+        for (int i = 0; i < N; i++) {
+            error[i] = noise[i].clone();
+            error[i].removeMean();
+            std[i] = new DescriptiveStatistics(error[i]).getStdev();
+        }
 
-        double corrcoef;
-        double stdi;
-        double stdj;
-      // double test ; 
+        idiosyncraticCorr = new Matrix(N, N);// N series 
 
         //idiosyncratic = nancorr(E)
         //idiosyncratic = nancorr(errors)
-        for (int i = 0; i < error.length; i++) {
-
-            for (int j = 0; j < error.length; j++) {
-
-                ei = error[i];
-                ej = error[j];
-
-                if (i == j) {
-                    corrcoef = 1.0;
-                } else {
-
-                    //     corrcoef = 1.0;  
-                    double sum = 0;
-                    ei.removeMean();
-                    ej.removeMean();
-                    eij = ei.times(ej);
-
-                    eiDesStat = new DescriptiveStatistics(ei);
-                    ejDesStat = new DescriptiveStatistics(ej);
-                    eijDesStat = new DescriptiveStatistics(eij);
-
-                    stdi = eiDesStat.getStdev();
-                    stdj = ejDesStat.getStdev();
-                    // test = eijDesStat.getAverage();
-                    corrcoef = eijDesStat.getAverage() / (stdi * stdj);
-
-                }
-
+        for (int i = 0; i < N; i++) {
+            idiosyncraticCorr.set(i, i, 1.0);
+            for (int j = 0; j < i; j++) {
+                TsData eij = error[i].times(error[j]);
+                double corrcoef = new DescriptiveStatistics(eij).getAverage() / (std[i] * std[j]);
                 idiosyncraticCorr.set(i, j, corrcoef);
-
+                idiosyncraticCorr.set(j, i, corrcoef);
             }
-
         }
 
     }
@@ -231,7 +260,7 @@ public class DfmResults implements IProcResults {
      * @param idx
      * @return
      */
-    public TsData getFactor(int idx) {
+    public synchronized TsData getFactor(int idx) {
         if (smoothing == null) {
             calcSmoothedStates();
         }
@@ -246,17 +275,17 @@ public class DfmResults implements IProcResults {
      * @param idx
      * @return
      */
-    public TsData getFactor_Filtered(int idx) {
+    public synchronized TsData getFactor_Filtered(int idx) {
         if (filtering == null) {
             calcSmoothedStates();
         }
         TsDomain currentDomain = input.getCurrentDomain();
 
         //   filtering.getFilteredData().component(idx);
-        return new TsData(currentDomain.getStart(), filtering.getFilteredData().component(idx * model.getBlockLength()), true);
+        return new TsData(currentDomain.getStart(), filtering.component(idx * model.getBlockLength()), true);
     }
 
-    public TsData getFactorStdev(int idx) {
+    public synchronized TsData getFactorStdev(int idx) {
         if (smoothing == null) {
             calcSmoothedStates();
         }
@@ -265,15 +294,73 @@ public class DfmResults implements IProcResults {
     }
 
     private void calcSmoothedStates() {
-        DfmProcessor processor = new DfmProcessor();
+        processor = new DfmProcessor();
         processor.setCalcVariance(true);
+        processor.setCheckpointPeriod(checkpointPeriod());
         processor.process(model, input);
         smoothing = processor.getSmoothingResults();
         filtering = processor.getFilteringResults();
 
     }
 
-    public TsData[] getTheData() {
+    private int checkpointPeriod() {
+        if (checkpointPeriod >= 0) {
+            return checkpointPeriod;
+        }
+        return MFilteringResults.checkpointPeriod(model.getFactorsCount() * model.getBlockLength(),
+                model.getMeasurementsCount(), input.getCurrentDomain().getLength());
+    }
+
+    /**
+     * Creates the results of the current model for a new information set
+     * (typically a new vintage of the data). See update(DynamicFactorModel,
+     * TsInformationSet)
+     *
+     * @param ninput The new information set
+     * @return The new results
+     */
+    public DfmResults update(TsInformationSet ninput) {
+        return update(model, ninput);
+    }
+
+    /**
+     * Creates the results of a model for a new information set (typically a
+     * new vintage of the data). When the smoothed states of the current
+     * results are available, the new ones are computed incrementally: the
+     * filter is resumed at the first modified period (see
+     * DfmProcessor.update). If the model differs from the current one, the
+     * new information set is fully processed. The likelihood, the score and
+     * the information matrix are not transferred.
+     *
+     * The smoothing and filtering results are moved to the new results: the
+     * current results no longer reference them (they are computed again if
+     * they are needed), so that clearing the current results doesn't modify
+     * the new ones.
+     *
+     * @param nmodel The model of the new results
+     * @param ninput The new information set
+     * @return The new results
+     */
+    public synchronized DfmResults update(DynamicFactorModel nmodel, TsInformationSet ninput) {
+        DfmResults nrslts = new DfmResults(nmodel, ninput);
+        nrslts.checkpointPeriod = checkpointPeriod;
+        nrslts.description = description;
+        if (nmodel == model) {
+            nrslts.mssf = mssf;
+        }
+        if (processor != null && processor.update(nmodel, ninput)) {
+            nrslts.processor = processor;
+            nrslts.smoothing = processor.getSmoothingResults();
+            nrslts.filtering = processor.getFilteringResults();
+        }
+        // the processor is moved (or discarded if the update failed)
+        processor = null;
+        smoothing = null;
+        filtering = null;
+        return nrslts;
+    }
+
+    public synchronized TsData[] getTheData() {
         if (input == null) {
             throw new Error("There is no data");
         }
@@ -285,16 +372,14 @@ public class DfmResults implements IProcResults {
         return theData;
     }
 
-    public void pleaseGetTheData() {
+    public synchronized void pleaseGetTheData() {
 
         theData = new TsData[input.getSeriesCount()];
 
-        if (description == null) {
-            throw new Error("missing description of the data transformations, mean and standard deviation  (object of the class DfmSeriesDescriptor[] has not been defined)");
-        }
+        DfmSeriesDescriptor[] desc = getDescriptions();
 
         for (int i = 0; i < input.getSeriesCount(); i++) {
-            theData[i] = input.series(i).times(description[i].stdev);//.plus(description[i].mean);
+            theData[i] = input.series(i).times(desc[i].stdev);//.plus(desc[i].mean);
         }
 
     }
@@ -304,7 +389,7 @@ public class DfmResults implements IProcResults {
      * all observables. The nowcasting model decomposes all observables into a
      * signal plus an idiosyncratic noise (or measurement error) component.
      */
-    public TsData[] getSignal() {
+    public synchronized TsData[] getSignal() {
         if (smoothedSignal == null) {
             calcSmoothedSignal(); // It is not well calculated because the signal becomes the same for all variables
         }
@@ -316,14 +401,14 @@ public class DfmResults implements IProcResults {
      * observables. The nowcasting model decomposes all observables into a
      * signal plus an idiosyncratic noise (or measurement error) component.
      */
-    public TsData[] getNoise() {
+    public synchronized TsData[] getNoise() {
         if (smoothedNoise == null) {
             calcSmoothedNoise();
         }
         return smoothedNoise;
     }
 
-    public void calcSmoothedSignal() {
+    public synchronized void calcSmoothedSignal() {
 
         if (smoothing == null) {
             calcSmoothedStates();
@@ -365,71 +450,32 @@ public class DfmResults implements IProcResults {
             smoothedSignal_[v] = new TsData(currentDomain.getStart(), signal[v], false);
         }
 
-        if (description == null) {
-            throw new Error("missing description of the data transformations, mean and standard deviation  (object of the class DfmSeriesDescriptor[] has not been defined)");
-        }
+        DfmSeriesDescriptor[] desc = getDescriptions();
 
         smoothedSignal = new TsData[N];
         for (int v = 0; v < N; v++) {
-            smoothedSignal[v] = smoothedSignal_[v].times(description[v].stdev);//.plus(description[v].mean);
+            smoothedSignal[v] = smoothedSignal_[v].times(desc[v].stdev);//.plus(desc[v].mean);
         }
 
     }
 
-    public void calcSmoothedNoise() {
-
-        if (smoothing == null) {
-            calcSmoothedStates();
-        }
-
-        DataBlockStorage m_a = smoothing.getSmoothedStates();
-
-        if (m_a == null) {
-            throw new Error("smoothed states are null");
-        }
-
-        int m_used = m_a.getCurrentSize();
-        int r = model.getFactorsCount();
-        int c_ = model.getBlockLength();
-        int nlags = model.getTransition().nlags;
-        // arrange the factors in a notation compatible with the state-space 
-        // representation
-        Matrix Z = new Matrix(r * c_, m_used);
-        for (int i = 0; i < r * c_; i++) {
-            Z.row(i).copy(m_a.item(i));
-        }
+    public synchronized void calcSmoothedNoise() {
 
-        IMSsf ssf = getSsf();
-        int N = ssf.getVarsCount();
-
-        // List<DynamicFactorModel.MeasurementDescriptor> measurements = model.getMeasurements();
-        double[][] signal = new double[N][m_used];
-        double[][] noise = new double[N][m_used];
+        // noise = data - signal, the signal being shared with getSignal()
+        TsData[] signal = getSignal();
+        DfmSeriesDescriptor[] desc = getDescriptions();
         Matrix m = input.generateMatrix(null);
 
-        for (int v = 0; v < N; v++) {
-
-            for (int t = 0; t < m_used; t++) {
-                DataBlock temp = Z.column(t).deepClone();
-
-                signal[v][t] = ssf.ZX(0, v, temp);
-                noise[v][t] = m.get(t, v) - signal[v][t];
-            }
-        }
-
-        TsDomain currentDomain = input.getCurrentDomain();
-        TsData[] smoothedNoise_ = new TsData[N];
-        for (int v = 0; v < N; v++) {
-            smoothedNoise_[v] = new TsData(currentDomain.getStart(), noise[v], false);
-        }
-
-        if (description == null) {
-            throw new Error("missing description of the data transformations, mean and standard deviation  (object of the class DfmSeriesDescriptor[] has not been defined)");
-        }
-
+        int N = signal.length;
         smoothedNoise = new TsData[N];
         for (int v = 0; v < N; v++) {
-            smoothedNoise[v] = smoothedNoise_[v].times(description[v].stdev);
+            double[] s = signal[v].getValues().internalStorage();
+            double[] noise = new double[s.length];
+            double stdev = desc[v].stdev;
+            for (int t = 0; t < noise.length; t++) {
+                noise[t] = m.get(t, v) * stdev - s[t];
+            }
+            smoothedNoise[v] = new TsData(signal[v].getStart(), noise, false);
         }
 
     }
@@ -441,14 +487,14 @@ public class DfmResults implements IProcResults {
      * driven the shocks we extract with this fuction, plus an idiosyncratic
      * noise (or measurement error) component.
      */
-    public TsData[] getShocks() {
+    public synchronized TsData[] getShocks() {
         if (smoothedShocks == null) {
             calcSmoothedShocks();
         }
         return smoothedShocks;
     }
 
-    public void calcSmoothedShocks() {
+    public synchronized void calcSmoothedShocks() {
 
         if (smoothing == null) {
             calcSmoothedStates();
@@ -503,32 +549,21 @@ public class DfmResults implements IProcResults {
      * the first raw (position 0), should correspond with a forecast horizon
      * larger than or equal to one.
      */
-    public Matrix getVarianceDecompositionIdx(int[] horizon, int v) {
+    public synchronized Matrix getVarianceDecompositionIdx(int[] horizon, int v) {
 
         int r = model.getFactorsCount();
+        Responses responses = getResponses(horizon);
         varianceDecompositionIdx = new Matrix(r + 1, horizon.length);
-        Matrix varDec;
-
-        for (int shock = 0; shock < r + 1; shock++) {
-
-            if (shock < r) {
-
-                varDec = getVarianceDecompositionShock(horizon, shock).clone();
-
-                for (int h = 0; h < horizon.length; h++) {
-
-                    varianceDecompositionIdx.set(shock, h, varDec.get(v, h));
-                }
-
-            } else {
-                double var = description[v].stdev * description[v].stdev;
-                for (int h = 0; h < horizon.length; h++) {
-
-                    varianceDecompositionIdx.set(shock, h, model.getMeasurements().get(v).var * var);
-                }
+        DfmSeriesDescriptor[] desc = getDescriptions();
+        double var = desc[v].stdev * desc[v].stdev;
 
+        for (int shock = 0; shock < r; shock++) {
+            for (int h = 0; h < horizon.length; h++) {
+                varianceDecompositionIdx.set(shock, h, responses.variance(shock, v, horizon[h]) * var);
             }
-
+        }
+        for (int h = 0; h < horizon.length; h++) {
+            varianceDecompositionIdx.set(r, h, model.getMeasurements().get(v).var * var);
         }
 
         return varianceDecompositionIdx;
@@ -543,82 +578,17 @@ public class DfmResults implements IProcResults {
      * (position 0), should correspond with a forecast horizon larger than or
      * equal to one.
      */
-    public Matrix getVarianceDecompositionShock(int[] horizon, int shock) {
+    public synchronized Matrix getVarianceDecompositionShock(int[] horizon, int shock) {
 
-        IMSsf ssf = getSsf();
-        int r = model.getFactorsCount();
         int N = model.getMeasurementsCount();
-
-        int c_ = model.getBlockLength();
-        Matrix Q = model.getTransition().covar.clone();
-        Matrix C = Q.clone();
-
+        Responses responses = getResponses(horizon);
         varianceDecompositionShock = new Matrix(N, horizon.length);
-
-        double[] angles = new double[r * (r - 1) / 2]; // initialized at zero, si the rotation
-
-        SymmetricMatrix.lcholesky(C);
-        Rotation rot = new Rotation(angles);
-        Matrix R = rot.getRotation();
-        Matrix B = C.times(R);
-        Matrix TQT;
-        Matrix Bss = new Matrix(r * c_, r * c_); // compatible with SS
-        for (int i = 0; i < r; i++) {
-            for (int j = 0; j < r; j++) {
-                Bss.set(i * c_, j * c_, B.get(i, j));
-            }
-        }
-
-        Matrix Q_ = new Matrix(Bss.subMatrix(0, r * c_, shock * c_, shock * c_ + 1));
-           //        System.out.println("whats going on");                  
-        //        System.out.println(Q_);
-        //        System.out.print("  for shock");    
-        //        System.out.println(shock);
-
-        //Matrix[] ZVZt = null;
-        if (description == null) {
-            throw new Error("missing description of the data transformations, mean and standard deviation  (object of the class DfmSeriesDescriptor[] has not been defined)");
-        }
+        DfmSeriesDescriptor[] desc = getDescriptions();
 
         for (int h = 0; h < horizon.length; h++) {
-
-            if (horizon[h] == 0) {
-                System.err.println("The smallest forecast horizon is one period ahead, not zero");
-            }
-
-            Matrix Sigmax;
-
-            if (horizon[h] == 1) {
-
-                //  TQT = new Matrix(ssf.getStateDim(),ssf.getStateDim());    
-                Sigmax = new Matrix(r * c_, r * c_);
-                TQT = Q_.times(Q_.transpose());
-                Sigmax.add(TQT);
-                //     for (int i=0;i<r;i++){
-                //         TQT.set(i*c_, i*c_, Q.subMatrix().get(i,i));
-                //      }
-
-            } else {
-                //  TQT = new Matrix(ssf.getStateDim(),ssf.getStateDim());                 
-
-                // bugg found 09/05/2014    Sigmax = new Matrix(r * c_, r * c_);
-                TQT = Q_.times(Q_.transpose());
-                Sigmax = new Matrix(TQT.all());
-                for (int i = 0; i < horizon[h]; i++) {           // ????    
-                    ssf.TVT(0, TQT.all());
-                    Sigmax.add(TQT);
-
-                }
-
-            }
-            Matrix zvz = new Matrix(ssf.getVarsCount(), ssf.getVarsCount());
-            ssf.ZVZ(0, Sigmax.all(), zvz.all());
-
             for (int v = 0; v < N; v++) {
-
-                varianceDecompositionShock.set(v, h, zvz.get(v, v) * description[v].stdev * description[v].stdev);
+                varianceDecompositionShock.set(v, h, responses.variance(shock, v, horizon[h]) * desc[v].stdev * desc[v].stdev);
             }
-
         }
 
         return varianceDecompositionShock;
@@ -635,15 +605,15 @@ public class DfmResults implements IProcResults {
      * Note that the first raw (position 0), should correspond with a forecast
      * horizon larger than or equal to one.
      */
-    public Matrix getIrfIdx(int[] horizon, int v) {
+    public synchronized Matrix getIrfIdx(int[] horizon, int v) {
 
         int r = model.getFactorsCount();
+        Responses responses = getResponses(horizon);
         irfIdx = new Matrix(r, horizon.length);
-        Matrix irf;
+        DfmSeriesDescriptor[] desc = getDescriptions();
         for (int shock = 0; shock < r; shock++) {
-            irf = getIrfShock(horizon, shock).clone();
             for (int h = 0; h < horizon.length; h++) {
-                irfIdx.set(shock, h, irf.get(v, h));
+                irfIdx.set(shock, h, responses.irf(shock, v, horizon[h]) * desc[v].stdev);
             }
         }
         return irfIdx;
@@ -659,107 +629,222 @@ public class DfmResults implements IProcResults {
      * col (position 0), should correspond with a forecast horizon larger than
      * or equal to one.
      */
-    public Matrix getIrfShock(int[] horizon, int shock) {
+    public synchronized Matrix getIrfShock(int[] horizon, int shock) {
 
-        IMSsf ssf = getSsf();
-        int r = model.getFactorsCount();
         int N = model.getMeasurementsCount();
-
-        int c_ = model.getBlockLength();
-        Matrix Q = model.getTransition().covar.clone();
-        Matrix C = Q.clone();
-
+        Responses responses = getResponses(horizon);
         irfShock = new Matrix(N, horizon.length);
+        DfmSeriesDescriptor[] desc = getDescriptions();
 
-        double[] angles = new double[r * (r - 1) / 2]; // initialized at zero, si the rotation
-
-        SymmetricMatrix.lcholesky(C);
-        Rotation rot = new Rotation(angles);
-        Matrix R = rot.getRotation();
-        Matrix B = C.times(R);
-        DataBlock ts;
-
-        // Matrix TQT;
-        Matrix Bss = new Matrix(r * c_, r * c_); // compatible with SS
-
-        for (int i = 0; i < r; i++) {
-            for (int j = 0; j < r; j++) {
-                Bss.set(i * c_, j * c_, B.get(i, j));
+        for (int h = 0; h < horizon.length; h++) {
+            for (int v = 0; v < N; v++) {
+                irfShock.set(v, h, responses.irf(shock, v, horizon[h]) * desc[v].stdev);
             }
         }
 
-        Matrix Q_ = new Matrix(Bss.subMatrix(0, r * c_, shock * c_, shock * c_ + 1));
+        return irfShock;
 
-        if (description == null) {
-            throw new Error("missing description of the data transformations, mean and standard deviation  (object of the class DfmSeriesDescriptor[] has not been defined)");
-        }
+    }
 
+    /**
+     * Gets the responses of the model, computed at least up to the largest
+     * horizon. The responses are computed again when the parameters of the
+     * model have changed.
+     */
+    private synchronized Responses getResponses(int[] horizon) {
+        int hmax = 0;
         for (int h = 0; h < horizon.length; h++) {
-
             if (horizon[h] == 0) {
                 System.err.println("The smallest forecast horizon is one period ahead, not zero");
             }
+            hmax = Math.max(hmax, Responses.lag(horizon[h]));
+        }
+        if (responses != null && !responses.isValid(model)) {
+            // the model has been modified
+            mssf = null;
+            responses = null;
+        }
+        if (responses == null) {
+            responses = new Responses(model, getSsf());
+        }
+        responses.extend(hmax);
+        return responses;
+    }
 
-//   -->         Matrix Sigmax; 
-            if (horizon[h] == 1) {
-
-                //  TQT = new Matrix(ssf.getStateDim(),ssf.getStateDim());    
-                //    Sigmax= new Matrix(r*c_, r*c_);
-                //--->  TQT = Q_.times(Q_.transpose()); // not correct
-                ts = Q_.column(0);
-
-                //     Sigmax.add(TQT);
-                //     for (int i=0;i<r;i++){
-                //         TQT.set(i*c_, i*c_, Q.subMatrix().get(i,i));
-                //      }
-            } else {
-                //  TQT = new Matrix(ssf.getStateDim(),ssf.getStateDim());                 
-                //    Sigmax= new Matrix(r*c_, r*c_);
-                //--->  TQT = Q_.times(Q_.transpose()); // not correct
-
-                // [h=2]  i=0-->Q ; i=1-->TQT'; 
-                // [h=3]  i=0-->Q ; i=1-->TQT'; i=2-->T(TQT')T';
-                ts = Q_.column(0);
-                for (int i = 0; i < horizon[h]; i++) { //      horizon[0] is always bigger than  2 (hor = 0 is nonsense and hor=1 is in the if statement ) 
-                    //--->       ssf.TVT(0, TQT.subMatrix());// not correct
-
-                    ssf.TX(0, ts);
-
-                    //           Sigmax.add(TQT);
+    /**
+     * Responses of the (standardized) measurements to the orthogonalized
+     * shocks of the factors: y(v, l) = Z(v)*T^l*b, where b is the column of
+     * the Cholesky factor of Q (in the state space) that corresponds to a
+     * given shock, and their cumulative squares sum(y(v, i)^2, i=0..l), which
+     * are the diagonal elements of Z*(sum(T^i*b*b'*T'^i))*Z'. A horizon h
+     * corresponds to the lag h (0 for h &lt; 2).
+     */
+    private static final class Responses {
+
+        private final double[] params;
+        private final int blockLength;
+        private final DynamicFactorModel.IMeasurement[] types;
+        private final IMSsf ssf;
+        private final int nvars;
+        private final DataBlock[] states; // T^lmax*b, by shock
+        private final double[][] irf, cumvar; // by shock, lags x variables
+        private int lmax;
+
+        private Responses(DynamicFactorModel model, IMSsf ssf) {
+            this.params = DfmScore.parameters(model);
+            this.blockLength = model.getBlockLength();
+            this.types = types(model);
+            this.ssf = ssf;
+            int r = model.getFactorsCount(), c = blockLength, N = model.getMeasurementsCount();
+            this.nvars = N;
+            Matrix C = model.getTransition().covar.clone();
+            SymmetricMatrix.lcholesky(C);
+            Rotation rot = new Rotation(new double[r * (r - 1) / 2]);
+            Matrix B = C.times(rot.getRotation());
+            states = new DataBlock[r];
+            irf = new double[r][N];
+            cumvar = new double[r][N];
+            for (int shock = 0; shock < r; ++shock) {
+                DataBlock b = new DataBlock(r * c);
+                for (int i = 0; i < r; ++i) {
+                    b.set(i * c, B.get(i, shock));
                 }
+                states[shock] = b;
+                for (int v = 0; v < N; ++v) {
+                    double y = ssf.ZX(0, v, b);
+                    irf[shock][v] = y;
+                    cumvar[shock][v] = y * y;
+                }
+            }
+        }
 
+        private static DynamicFactorModel.IMeasurement[] types(DynamicFactorModel model) {
+            List<DynamicFactorModel.MeasurementDescriptor> mdesc = model.getMeasurements();
+            DynamicFactorModel.IMeasurement[] t = new DynamicFactorModel.IMeasurement[mdesc.size()];
+            for (int i = 0; i < t.length; ++i) {
+                t[i] = mdesc.get(i).type;
             }
+            return t;
+        }
 
-    //        Matrix    zvz = new Matrix(ssf.getVarsCount(), ssf.getVarsCount());
-            //--> ssf.ZVZ(0, Sigmax.subMatrix(), zvz.subMatrix());
-            for (int v = 0; v < N; v++) {
+        private static int lag(int horizon) {
+            return horizon < 2 ? 0 : horizon;
+        }
 
-                //--->          irfShock.set(v, h, zvz.get(v, v) * description[v].stdev);
-                irfShock.set(v, h, ssf.ZX(0, v, ts) * description[v].stdev);
-            }
+        private boolean isValid(DynamicFactorModel model) {
+            return model.getBlockLength() == blockLength
+                    && Arrays.equals(types, types(model))
+                    && Arrays.equals(params, DfmScore.parameters(model));
+        }
 
+        private void extend(int l) {
+            if (l <= lmax) {
+                return;
+            }
+            int nl = Math.max(l, 2 * lmax);
+            int r = states.length, N = nvars;
+            for (int shock = 0; shock < r; ++shock) {
+                double[] nirf = Arrays.copyOf(irf[shock], (nl + 1) * N);
+                double[] ncumvar = Arrays.copyOf(cumvar[shock], (nl + 1) * N);
+                DataBlock x = states[shock];
+                for (int i = lmax + 1, j = i * N; i <= nl; ++i) {
+                    ssf.TX(0, x);
+                    for (int v = 0; v < N; ++v, ++j) {
+                        double y = ssf.ZX(0, v, x);
+                        nirf[j] = y;
+                        ncumvar[j] = ncumvar[j - N] + y * y;
+                    }
+                }
+                irf[shock] = nirf;
+                cumvar[shock] = ncumvar;
+            }
+            lmax = nl;
         }
 
-        return irfShock;
+        private double irf(int shock, int v, int horizon) {
+            return irf[shock][lag(horizon) * nvars + v];
+        }
 
+        private double variance(int shock, int v, int horizon) {
+            return cumvar[shock][lag(horizon) * nvars + v];
+        }
     }
 
-    public TsData[][] getShocksDecomposition() {
+    public synchronized TsData[][] getShocksDecomposition() {
         if (shockDecomposition == null) {
             calcShocksDecomposition();
         }
         return shockDecomposition;
     }
 
-    public void calcShocksDecomposition() {
+    public synchronized void calcShocksDecomposition() {
 
-        IMSsf ssf = getSsf();
         int r = model.getFactorsCount();
         int N = model.getMeasurementsCount();
 
-        getShocks();
-        int T = smoothedShocks[0].getLength();
+        shockDecomposition = new TsData[r + 2][N];// +2 because I want to incorporate initial factor and measurement errors
+        for (int v = 0; v < N; v++) {
+            TsData[] sd = getShocksDecomposition(v);
+            for (int i = 0; i < r + 2; i++) {
+                shockDecomposition[i][v] = sd[i];
+            }
+        }
+    }
+
+    /**
+     * Historical shock decomposition of a given variable. The components are
+     * the contributions of the r orthogonalized shocks, of the initial factors
+     * and the noise (which has already been de-normalized). Only the
+     * requested variable is projected on the propagated states (see
+     * calcShockStates).
+     *
+     * @param v The variable
+     * @return An array of r+2 series
+     */
+    public synchronized TsData[] getShocksDecomposition(int v) {
+        if (shockStates == null) {
+            calcShockStates();
+        }
+        IMSsf ssf = getSsf();
+        int r = model.getFactorsCount();
+        int n = r * model.getBlockLength();
+        int T = shockStates.length / ((r + 1) * n);
+        double stdev = getDescription(v).stdev;
+        TsDomain currentDomain = input.getCurrentDomain();
+
+        TsData[] sd = new TsData[r + 2];
+        DataBlock x = new DataBlock(n);
+        for (int i = 0, pos = 0; i <= r; i++) {
+            double[] y = new double[T];
+            for (int t = 0; t < T; t++, pos += n) {
+                x.copyFrom(shockStates, pos);
+                y[t] = ssf.ZX(0, v, x) * stdev;
+            }
+            sd[i] = new TsData(currentDomain.getStart(), y, false);
+        }
+        sd[r + 1] = getNoise()[v];
+        return sd;
+    }
+
+    /**
+     * Propagates the orthogonalized shocks (and the initial state) through
+     * the transition equation. The states are stored in a single buffer
+     * (components x periods x states), the component r being the initial
+     * state. For each shock i, with e(t) = B*u*(t) its impact at t, the
+     * states are s(0) = e(0), s(1) = e(1) and s(t) = T*s(t-1) + e(t) for t &gt;
+     * 1, which is e(t) + T*e(t-1) + ... + T^(t-1)*e(1): the effect of the
+     * first shock is left in the initial component. The contribution of the
+     * initial state is T^(t+1)*a(0).
+     */
+    private void calcShockStates() {
+
+        IMSsf ssf = getSsf();
+        int r = model.getFactorsCount();
         int c_ = model.getBlockLength();
+        int n = r * c_;
+
+        TsData[] shocks = getShocks();
+        int T = shocks[0].getLength();
 
         double[] angles = new double[r * (r - 1) / 2]; // initialized at zero, si the rotation
 
@@ -767,10 +852,9 @@ public class DfmResults implements IProcResults {
         // not have any effect for the moment
         // convert the TsData[] array Smoothedshocks into a matrix
         Matrix U = new Matrix(r, T);
-        Matrix Ustar = new Matrix(r, T);
 
         for (int i = 0; i < r; i++) {
-            U.row(i).copy(smoothedShocks[i]);
+            U.row(i).copy(shocks[i]);
         }
 
         // Use Cholesky to orthogonalize and a rotation to pick up one of the
@@ -783,29 +867,35 @@ public class DfmResults implements IProcResults {
 
         SymmetricMatrix.lcholesky(C);
         Matrix B;
-        Matrix R;
         if (angles.length == 0) {
             B = C.clone();
         } else {
             Rotation rot = new Rotation(angles);
-            R = rot.getRotation();
-            B = C.times(R);
+            B = C.times(rot.getRotation());
         }
 
-        Matrix Bss = new Matrix(r * c_, r * c_); // compatible with SS
-        for (int i = 0; i < r; i++) {
-            for (int j = 0; j < r; j++) {
-                Bss.set(i * c_, j * c_, B.get(i, j));
-            }
-        }
-
-        //   System.out.println(R);
         // Orthogonalize and rotate errors
         CroutDoolittle er = new CroutDoolittle();
         er.decompose(B);
-        Ustar = er.solve(U);
+        Matrix Ustar = er.solve(U);
+
+        double[] buffer = new double[(r + 1) * T * n];
+        DataBlock x = new DataBlock(n);
+        for (int i = 0, pos = 0; i < r; i++) {
+            for (int t = 0; t < T; t++, pos += n) {
+                if (t > 1) {
+                    ssf.TX(0, x);
+                } else {
+                    x.set(0);
+                }
+                double u = Ustar.get(i, t);
+                for (int j = 0; j < r; j++) {
+                    x.set(j * c_, x.get(j * c_) + B.get(j, i) * u);
+                }
+                x.copyTo(buffer, pos);
+            }
+        }
 
-        ////////////////////////////////////////////////
         // EXTRACTING THE INITIAL STATE
         if (smoothing == null) {
             calcSmoothedStates();
@@ -817,169 +907,43 @@ public class DfmResults implements IProcResults {
             throw new Error("smoothed states are null");
         }
 
-        Matrix f0 = new Matrix(r * c_, 1);
-
-        for (int i = 0; i < r * c_; i++) {
-
-            f0.row(i).copy(m_a.item(i).range(0, 1));
-            // + 1 because I want the first lag of the first t, 
-            // which correponds to the initial state
-        }
-
-        // compute the role of initial states here, it only depends on 
-        // the time
-        double[][] initial = new double[N][T];
-        DataBlock tempf = f0.column(0);
-        for (int pos = 0; pos < T; pos++) {
-            // converts the r*nlags x 1 matrix into a datablock
-            ssf.TX(0, tempf);
-
-            DataBlock tempy = tempf.clone(); // A^(pos+1) 
-            for (int v = 0; v < N; v++) {
-                initial[v][pos] = ssf.ZX(0, v, tempy);  // Lambda(v)* A^(pos+1)
-            }
-
-        }
-
-        //    Matrix TEST       = Ustar.times(Ustar.transpose()); // why this is not identity
-        //    Matrix TESTUstar  = (B.times(Ustar)).times((B.times(Ustar)).transpose()).times(1.0/T);
-        //    Matrix TESTU      = U.times(U.transpose()).times(1.0/T);
-        //   Matrix CCtransp   = C.times(C.transpose());
-        //   Matrix Qtest      = model.getTransition().covar;
-        //  Historical shock decomposition for each variable v here
-        //  do the same trick I used for the initial state, but sequentiall adding to get the cumsum right  
-        DataBlock tempy;
-        DataBlock tempx;
-        DataBlock tempCurrent;
-        double[][][] shockDec = new double[r][N][T];    // N = number of variables
-        // r shocks 
-
-        for (int i = 0; i < r; i++) {
-
-            Matrix Ustar_i = new Matrix(c_ * r, T);
-            Ustar_i.row(i * c_).copy(Ustar.row(i)); // isolate shock i 
-            Matrix BUstar_i = Bss.times(Ustar_i);
-
-            for (int pos = 0; pos < T; pos++) {
-
-                if (pos == 0) {
-
-                    tempCurrent = BUstar_i.column(pos).deepClone();
-                    for (int v = 0; v < N; v++) {
-                        shockDec[i][v][pos] = ssf.ZX(0, v, tempCurrent);
-                    }
-
-                } else {
-
-                    tempCurrent = BUstar_i.column(pos).deepClone();
-
-                    // this look computes A e(pos-1) + ... + A^{pos-1}e(1)
-                    //  and ads it to tempCurrent = e(pos)
-                    //  for (int h = pos - 1; h >-1; h--) {  // h =0 is also computed
-                    // ANOTHER OPTION IS TO SEPARATE THE EFFECT OF THE FIRST SHOCK
-                    // THIS IS IMPORTANT BECAUSE THE EFFECT DEPENDS ON THE INITIALIZATION STRATEGY
-                    // AND FOR MODELS WITH LONG MEMORY THIS EFFECT DISAPPEARS VERY SLOWLY  
-                    for (int h = pos - 1; h > 0; h--) {
-                        tempx = BUstar_i.column(h).deepClone();
-
-                        // this loop computes A^{k+1}
-                        for (int k = 0; k < pos - h; k++) {
-                            ssf.TX(0, tempx);
-                        }
-
-                        tempCurrent.add(tempx);
-
-                    }
-
-                    tempy = tempCurrent.deepClone();
-
-                    for (int v = 0; v < N; v++) {
-
-                        shockDec[i][v][pos] = ssf.ZX(0, v, tempy);
-                    }
-
-                }
-
-            }
-        }
-
-        //////////////////////////////////////////////////
-        getNoise();
-        TsDomain currentDomain = input.getCurrentDomain();
-
-        // TsData ts = new TsData(currentDomain.getStart(), shockDec[1][1], false);
-        shockDecomposition = new TsData[r + 2][N];// +2 because I want to incorporate initial factor and measurement errors
-
-        if (description == null) {
-            throw new Error("missing description of the data transformations, mean and standard deviation  (object of the class DfmSeriesDescriptor[] has not been defined)");
-        }
-
-        //  DataBlock db = new DataBlock(shockDecomposition[0][0]);
-        //  db.cumul();
-        TsData[][] shockDecomposition_ = new TsData[r + 2][N];
-
-        for (int i = 0; i < r + 2; i++) {
-
-            for (int v = 0; v < N; v++) {
-
-                if (i < r) {
-                    DataBlock sd = new DataBlock(shockDec[i][v]);
-                    //  sd.cumul();
-                    shockDecomposition_[i][v] = new TsData(currentDomain.getStart(), sd);
-                } else if (i == r) {  // i==r+1 refers to the initial factors' inertia   
-                    shockDecomposition_[i][v] = new TsData(currentDomain.getStart(), initial[v], false);
-                } else { // the last i==r+2 refers to the noise for variable v
-                    shockDecomposition_[i][v] = smoothedNoise[v];
-
-                }
-
-            }
+        for (int k = 0; k < n; k++) {
+            x.set(k, m_a.item(k).get(0));
         }
-
-        for (int i = 0; i < r + 2; i++) {
-
-            for (int v = 0; v < N; v++) {
-
-                if (i == r) {
-                    shockDecomposition[i][v] = shockDecomposition_[i][v].times(description[v].stdev);//.plus(description[v].mean)  ;  // include mean
-                } else if (i < r) {
-                    shockDecomposition[i][v] = shockDecomposition_[i][v].times(description[v].stdev);
-                } else {
-                    shockDecomposition[i][v] = shockDecomposition_[i][v]; // the noise has already been de-normalized
-                }
-            }
+        for (int t = 0, pos = r * T * n; t < T; t++, pos += n) {
+            ssf.TX(0, x);
+            x.copyTo(buffer, pos);
         }
+        shockStates = buffer;
     }
 
-    public TsData[] getSignalProjections() {
+    public synchronized TsData[] getSignalProjections() {
         if (smoothedSignalProjection == null) {
             calcSignalProjections(); // It is not well calculated because the signal becomes the same for all variables
         }
         return smoothedSignalProjection;
     }
 
-    public void calcSignalProjections() {
+    public synchronized void calcSignalProjections() {
 
-        IMSsf ssf = getSsf();
-        if (smoothedSignal == null) {
-            calcSmoothedSignal();
-        }
+        TsData[] signal = getSignal();
+        DfmSeriesDescriptor[] desc = getDescriptions();
 
-        int N = ssf.getVarsCount();
+        int N = signal.length;
         smoothedSignalProjection = new TsData[N];
         for (int v = 0; v < N; v++) {
-            smoothedSignalProjection[v] = smoothedSignal[v].clone().plus(description[v].mean);
+            smoothedSignalProjection[v] = signal[v].plus(desc[v].mean);
         }
     }
 
-    public TsData[] getSignalUncertainty() {
+    public synchronized TsData[] getSignalUncertainty() {
         if (smoothedSignalUncertainty == null) {
             calcSmoothedSignalUncertainty(); // It is not well calculated because the signal becomes the same for all variables
         }
         return smoothedSignalUncertainty;
     }
 
-    public void calcSmoothedSignalUncertainty() {
+    public synchronized void calcSmoothedSignalUncertainty() {
 
         IMSsf ssf = getSsf();
         if (smoothing == null) {
@@ -1003,25 +967,20 @@ public class DfmResults implements IProcResults {
         // }
         int N = ssf.getVarsCount();
 
-        if (description == null) {
-            throw new Error("missing description of the data transformations, mean and standard deviation  (object of the class DfmSeriesDescriptor[] has not been defined)");
-        }
+        DfmSeriesDescriptor[] desc = getDescriptions();
 
         double[][] signalUncertainty = new double[N][m_used];
 
+        double[] var = new double[N];
+        for (int v = 0; v < N; v++) {
+            var[v] = desc[v].stdev * desc[v].stdev;
+        }
+        // diagonal of Z*P(t)*Z', for all the series at once
+        DataBlock zvz = new DataBlock(N);
         for (int t = 0; t < m_used; t++) {
-//            DataBlock temp = Z.column(t).deepClone();
-            Matrix temp = new Matrix(smoothing.P(t));
-
+            ssf.diagZVZ(t, smoothing.P(t), zvz);
             for (int v = 0; v < N; v++) {
-                //-- replaced 
-                //Matrix zvz = new Matrix(r * c_, r * c_);
-                Matrix zvz = new Matrix(N, N);
-
-                ssf.ZVZ(0, temp.all(), zvz.all());
-
-                signalUncertainty[v][t] = zvz.get(v, v) * description[v].stdev * description[v].stdev;
-                // System.out.println(signalUncertainty[v][t]);
+                signalUncertainty[v][t] = zvz.get(v) * var[v];
             }
         }
 
@@ -1032,7 +991,7 @@ public class DfmResults implements IProcResults {
         }
     }
 
-    public TsData getSmoothedSeries(int pos) {
+    public synchronized TsData getSmoothedSeries(int pos) {
         IMSsf ssf = getSsf();
         if (smoothing == null) {
             calcSmoothedStates();
@@ -1064,7 +1023,7 @@ public class DfmResults implements IProcResults {
         return sdata;
     }
 
-    public TsData getSmoothedSeriesStdev(int pos) {
+    public synchronized TsData getSmoothedSeriesStdev(int pos) {
         if (smoothing == null) {
             calcSmoothedStates();
         }
@@ -34,6 +34,11 @@ import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -49,6 +54,8 @@ public class DfmSimulation {
     private final List<DfmSeriesDescriptor> descriptions;
     private final List<Boolean> watched;
 
+    private int nthreads_ = 1;
+
     private final PropertyChangeSupport changeSupport;
     public final static String CALENDAR_RESULTS = "CALENDAR_RESULTS";
 
@@ -82,6 +89,31 @@ public class DfmSimulation {
         return watched;
     }
 
+    /**
+     * Gets the maximum number of vintages processed concurrently
+     *
+     * @return The number of worker threads. 1 (default) means sequential
+     * processing
+     */
+    public int getThreadsCount() {
+        return nthreads_;
+    }
+
+    /**
+     * Sets the maximum number of vintages processed concurrently. Vintages
+     * that require a re-estimation of the model are barriers: all the
+     * previous vintages are completed before they are processed and the
+     * following ones use the newly estimated specification.
+     *
+     * @param n The number of worker threads (at least 1)
+     */
+    public void setThreadsCount(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Number of threads should be positive");
+        }
+        nthreads_ = n;
+    }
+
     /**
      * Processes the simulation of the the given document
      *
@@ -101,55 +133,152 @@ public class DfmSimulation {
             watched.add(ms.isWatched());
         }
 
-        DfmDocument doc;
-        for (int i = 0; i < ed.length; ++i) {
-            changeSupport.firePropertyChange(CALENDAR_RESULTS, null, ed[i]);
-            doc = new DfmDocument();
-            // current information
-            TsInformationSet cinfo = info.generateInformation(spec.getModelSpec().getPublicationDelays(), ed[i]);
-            Ts[] curinput = new Ts[input.length];
-            for (int j = 0; j < input.length; ++j) {
-                curinput[j] = TsFactory.instance.createTs(input[j].getRawName(), null, cinfo.series(j));
-            }
-            doc.setInput(curinput);
-            // update the specification
-            DfmSpec curspec;
-            if (mustBeEstimated(ed[i], estimationDays)) {
-                curspec = spec.cloneDefinition();
-            } else {
-                curspec = spec.clone();
-            }
-            // update the time horizon
-            TsPeriod last = cinfo.getCurrentDomain().getLast();
-            TsPeriod end = last.clone();
-            end.set(horizon_);
-            curspec.getModelSpec().setForecastHorizon(end.minus(last));
-            doc.setSpecification(curspec);
-            doc.getResults();
-            spec = doc.getSpecification();
-
-            if (doc.getResults() != null) {
-                Node n = doc.getResults().getNode(DfmProcessingFactory.FINALC);
-                if (n != null && n.results != null) {
-                    SimulationResultsDocument rslts = new SimulationResultsDocument(n.results);
-                    rslts.setSmoothedSeriesStdev(doc.getDfmResults() == null ? null : doc.getDfmResults().getSmoothedSeriesStdev());
-                    rslts_.put(ed[i], rslts);
-                } else {
-                    rslts_.put(ed[i], null);
+        if (nthreads_ <= 1) {
+            // the results of a vintage are updated incrementally from the
+            // results of the previous one (see DfmResults.update)
+            DfmResults previous = null;
+            try {
+                for (int i = 0; i < ed.length; ++i) {
+                    changeSupport.firePropertyChange(CALENDAR_RESULTS, null, ed[i]);
+                    DfmDocument doc = createDocument(spec, info, input, ed[i], mustBeEstimated(ed[i], estimationDays));
+                    ((DfmProcessingFactory) doc.getProcessor()).setPreviousResults(previous);
+                    doc.getResults();
+                    spec = doc.getSpecification();
+                    if (previous != null) {
+                        previous.clear();
+                    }
+                    previous = doc.getDfmResults();
+                    rslts_.put(ed[i], compute(doc, previous == null));
+                }
+            } finally {
+                if (previous != null) {
+                    previous.clear();
                 }
+            }
+            return true;
+        }
 
-                if (doc.getDfmResults() != null) {
-                    doc.getDfmResults().clear();
+        SimulationResultsDocument[] rslts = new SimulationResultsDocument[ed.length];
+        ExecutorService executor = Executors.newFixedThreadPool(nthreads_);
+        List<Future<?>> pending = new ArrayList<>();
+        try {
+            for (int i = 0; i < ed.length; ++i) {
+                // at most nthreads_ vintages are created and not yet processed
+                while (pending.size() >= nthreads_) {
+                    waitFor(pending.remove(0));
+                }
+                final int pos = i;
+                final Day day = ed[i];
+                final DfmDocument doc = createDocument(spec, info, input, day, mustBeEstimated(day, estimationDays));
+                if (doc.getSpecification().getModelSpec().isSpecified()) {
+                    // the specification is not modified by the processing.
+                    // The events are fired by this thread, in the order of
+                    // the calendar
+                    changeSupport.firePropertyChange(CALENDAR_RESULTS, null, day);
+                    pending.add(executor.submit(() -> {
+                        rslts[pos] = compute(doc, true);
+                    }));
+                } else {
+                    // (re-)estimation: the following vintages depend on its results
+                    waitFor(pending);
+                    changeSupport.firePropertyChange(CALENDAR_RESULTS, null, day);
+                    doc.getResults();
+                    spec = doc.getSpecification();
+                    rslts[pos] = compute(doc, true);
                 }
-                doc.clear();
-            } else {
-                rslts_.put(ed[i], null);
             }
+            waitFor(pending);
+        } finally {
+            executor.shutdownNow();
         }
 
+        for (int i = 0; i < ed.length; ++i) {
+            rslts_.put(ed[i], rslts[i]);
+        }
         return true;
     }
 
+    /**
+     * Creates the document corresponding to the information available at a
+     * given publication day
+     */
+    private DfmDocument createDocument(DfmSpec spec, TsInformationSet info, Ts[] input, Day day, boolean estimation) {
+        DfmDocument doc = new DfmDocument();
+        // current information
+        TsInformationSet cinfo = info.generateInformation(spec.getModelSpec().getPublicationDelays(), day);
+        Ts[] curinput = new Ts[input.length];
+        for (int j = 0; j < input.length; ++j) {
+            curinput[j] = TsFactory.instance.createTs(input[j].getRawName(), null, cinfo.series(j));
+        }
+        doc.setInput(curinput);
+        // update the specification
+        DfmSpec curspec;
+        if (estimation) {
+            curspec = spec.cloneDefinition();
+        } else {
+            curspec = spec.clone();
+        }
+        // update the time horizon
+        TsPeriod last = cinfo.getCurrentDomain().getLast();
+        TsPeriod end = last.clone();
+        end.set(horizon_);
+        curspec.getModelSpec().setForecastHorizon(end.minus(last));
+        doc.setSpecification(curspec);
+        return doc;
+    }
+
+    /**
+     * Processes the given document and extracts the simulation results. The
+     * document is cleared afterwards (except its specification)
+     *
+     * @param clear True if the dfm results of the document are cleared too.
+     * They are kept when they are used by the next vintage
+     */
+    private static SimulationResultsDocument compute(DfmDocument doc, boolean clear) {
+        SimulationResultsDocument rslts = null;
+        if (doc.getResults() != null) {
+            Node n = doc.getResults().getNode(DfmProcessingFactory.FINALC);
+            if (n != null && n.results != null) {
+                rslts = new SimulationResultsDocument(n.results);
+                rslts.setSmoothedSeriesStdev(doc.getDfmResults() == null ? null : doc.getDfmResults().getSmoothedSeriesStdev());
+            }
+
+            if (clear && doc.getDfmResults() != null) {
+                doc.getDfmResults().clear();
+            }
+            doc.clear();
+        }
+        return rslts;
+    }
+
+    private static void waitFor(List<Future<?>> pending) {
+        try {
+            for (Future<?> f : pending) {
+                waitFor(f);
+            }
+        } finally {
+            pending.clear();
+        }
+    }
+
+    private static void waitFor(Future<?> f) {
+        try {
+            f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Simulation interrupted");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
     private boolean mustBeEstimated(Day day, List<Day> estimationDays) {
         if (estimationDays == null || estimationDays.isEmpty()) {
             return false;
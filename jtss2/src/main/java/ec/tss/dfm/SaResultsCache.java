@@ -0,0 +1,358 @@
+/*
+ * Copyright 2013-2014 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tss.dfm;
+
+import ec.satoolkit.DecompositionMode;
+import ec.satoolkit.GenericSaProcessingFactory;
+import ec.satoolkit.ISaSpecification;
+import ec.tss.sa.SaManager;
+import ec.tstoolkit.algorithm.CompositeResults;
+import ec.tstoolkit.information.Information;
+import ec.tstoolkit.information.InformationSet;
+import ec.tstoolkit.modelling.ModellingDictionary;
+import ec.tstoolkit.modelling.SeriesInfo;
+import ec.tstoolkit.modelling.arima.PreprocessingModel;
+import ec.tstoolkit.timeseries.simplets.TsData;
+import ec.tstoolkit.timeseries.simplets.TsFrequency;
+import ec.tstoolkit.timeseries.simplets.TsPeriod;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the seasonal adjustments used in the transformations of the
+ * series of the dynamic factor models. Only the components used by the
+ * transformations are kept (seasonally adjusted series, seasonal component
+ * and its forecasts, decomposition mode, pre-processing model).
+ *
+ * The results are identified by the specification (equals) and by the
+ * content of the series. The least recently used results are removed first.
+ * When a directory is set, the results are also saved on disk. The files
+ * contain a text form of the specification (its class and its information
+ * set) and the series, which are both checked when they are read. Values of
+ * the specification without a stable text form only prevent the reuse of the
+ * files. The pre-processing model is not saved on disk: when it is required,
+ * a result read from disk that had such a model is computed again.
+ */
+public class SaResultsCache {
+
+    public static final int DEF_CAPACITY = 256;
+    public static final SaResultsCache instance = new SaResultsCache(DEF_CAPACITY);
+
+    /**
+     * Components of a seasonal adjustment
+     */
+    public static final class SaComponents {
+
+        /**
+         * False if the seasonal adjustment failed
+         */
+        public final boolean valid;
+        public final TsData sa, s, fs;
+        public final DecompositionMode mode;
+        /**
+         * The pre-processing model. Null if there is no pre-processing or if
+         * the components have been read from disk (see hasPreprocessing)
+         */
+        public final PreprocessingModel preprocessing;
+        /**
+         * True if the seasonal adjustment used a pre-processing model
+         */
+        public final boolean hasPreprocessing;
+
+        SaComponents(boolean valid, TsData sa, TsData s, TsData fs, DecompositionMode mode,
+                PreprocessingModel preprocessing, boolean hasPreprocessing) {
+            this.valid = valid;
+            this.sa = sa;
+            this.s = s;
+            this.fs = fs;
+            this.mode = mode;
+            this.preprocessing = preprocessing;
+            this.hasPreprocessing = hasPreprocessing;
+        }
+
+        private boolean isComplete() {
+            return !hasPreprocessing || preprocessing != null;
+        }
+    }
+
+    static final SaComponents FAILED = new SaComponents(false, null, null, null, null, null, false);
+    private static final int MAGIC = 0x53414333;
+
+    private final Map<Key, SaComponents> cache_;
+    private File dir_;
+
+    public SaResultsCache(final int capacity) {
+        cache_ = new LinkedHashMap<Key, SaComponents>(capacity, .75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, SaComponents> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Sets the directory of the on-disk cache
+     *
+     * @param dir The directory. Null to disable the on-disk cache (default)
+     */
+    public synchronized void setDirectory(File dir) {
+        dir_ = dir;
+    }
+
+    public synchronized File getDirectory() {
+        return dir_;
+    }
+
+    public synchronized void clear() {
+        cache_.clear();
+    }
+
+    /**
+     * Gets the seasonal adjustment of a series, which is computed if it is
+     * not in the cache. The returned components are shared: they should not
+     * be modified.
+     *
+     * @param spec The specification
+     * @param s The series
+     * @param preprocessing True if the pre-processing model is required
+     * @return The components (never null)
+     */
+    public SaComponents process(ISaSpecification spec, TsData s, boolean preprocessing) {
+        Key key = new Key(spec, s);
+        File dir;
+        synchronized (this) {
+            SaComponents cmps = cache_.get(key);
+            if (cmps != null && (!preprocessing || cmps.isComplete())) {
+                return cmps;
+            }
+            dir = dir_;
+        }
+        SaComponents cmps = null;
+        String text = null;
+        if (dir != null) {
+            text = text(spec);
+            cmps = read(dir, text, key);
+            if (cmps != null && preprocessing && !cmps.isComplete()) {
+                cmps = null;
+            }
+        }
+        if (cmps == null) {
+            cmps = compute(spec, s);
+            if (dir != null) {
+                write(dir, text, key, cmps);
+            }
+        }
+        synchronized (this) {
+            // the specification and the series may be modified by the caller
+            cache_.put(new Key(spec.clone(), s.clone()), cmps);
+        }
+        return cmps;
+    }
+
+    /**
+     * Computes the seasonal adjustment of a series (through the SaManager)
+     *
+     * @param spec The specification
+     * @param s The series
+     * @return The components (FAILED if the processing failed)
+     */
+    SaComponents compute(ISaSpecification spec, TsData s) {
+        CompositeResults sarslts = SaManager.instance.process(spec, s);
+        if (sarslts == null) {
+            return FAILED;
+        }
+        PreprocessingModel mdl = sarslts.get(GenericSaProcessingFactory.PREPROCESSING, PreprocessingModel.class);
+        return new SaComponents(true,
+                sarslts.getData(ModellingDictionary.SA_CMP, TsData.class),
+                sarslts.getData(ModellingDictionary.S_CMP, TsData.class),
+                sarslts.getData(ModellingDictionary.S_CMP + SeriesInfo.F_SUFFIX, TsData.class),
+                sarslts.getData(ModellingDictionary.MODE, DecompositionMode.class),
+                mdl, mdl != null);
+    }
+
+    /**
+     * Text form of a specification: its class followed by the items of its
+     * (verbose) information set, sorted by name
+     *
+     * @param spec
+     * @return
+     */
+    static String text(ISaSpecification spec) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(spec.getClass().getName()).append('\n');
+        InformationSet info = spec.write(true);
+        if (info != null) {
+            text(builder, "", info);
+        }
+        return builder.toString();
+    }
+
+    private static void text(StringBuilder builder, String prefix, InformationSet info) {
+        List<Information<Object>> items = new ArrayList<>(info.select("*", Object.class));
+        Collections.sort(items, new Comparator<Information<Object>>() {
+            @Override
+            public int compare(Information<Object> o1, Information<Object> o2) {
+                return o1.name.compareTo(o2.name);
+            }
+        });
+        for (Information<Object> item : items) {
+            if (item.value instanceof InformationSet) {
+                text(builder, prefix + item.name + '.', (InformationSet) item.value);
+            } else {
+                builder.append(prefix).append(item.name).append('=');
+                if (item.value != null && item.value.getClass().isArray()) {
+                    builder.append(Arrays.deepToString(new Object[]{item.value}));
+                } else {
+                    builder.append(item.value);
+                }
+                builder.append('\n');
+            }
+        }
+    }
+
+    private static File file(File dir, String text, Key key) {
+        return new File(dir, String.format("sa_%08x_%08x.bin", text.hashCode(), key.hash));
+    }
+
+    private static SaComponents read(File dir, String text, Key key) {
+        File file = file(dir, text, key);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            if (!text.equals(new String(bytes, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            TsData s = readData(in);
+            if (s == null || !s.getStart().equals(key.start) || !Arrays.equals(s.getValues().internalStorage(), key.values)) {
+                return null;
+            }
+            if (!in.readBoolean()) {
+                return FAILED;
+            }
+            int mode = in.readInt();
+            boolean hasPreprocessing = in.readBoolean();
+            TsData sa = readData(in), seas = readData(in), fseas = readData(in);
+            return new SaComponents(true, sa, seas, fseas, mode < 0 ? null : DecompositionMode.values()[mode],
+                    null, hasPreprocessing);
+        } catch (IOException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    private static void write(File dir, String text, Key key, SaComponents cmps) {
+        File file = file(dir, text, key);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            writeData(out, new TsData(key.start, key.values, false));
+            out.writeBoolean(cmps.valid);
+            if (cmps.valid) {
+                out.writeInt(cmps.mode == null ? -1 : cmps.mode.ordinal());
+                out.writeBoolean(cmps.hasPreprocessing);
+                writeData(out, cmps.sa);
+                writeData(out, cmps.s);
+                writeData(out, cmps.fs);
+            }
+        } catch (IOException ex) {
+            file.delete();
+        }
+    }
+
+    private static void writeData(DataOutputStream out, TsData s) throws IOException {
+        if (s == null) {
+            out.writeInt(0);
+            return;
+        }
+        TsPeriod start = s.getStart();
+        out.writeInt(start.getFrequency().intValue());
+        out.writeInt(start.getYear());
+        out.writeInt(start.getPosition());
+        double[] values = s.getValues().internalStorage();
+        out.writeInt(values.length);
+        for (int i = 0; i < values.length; ++i) {
+            out.writeDouble(values[i]);
+        }
+    }
+
+    private static TsData readData(DataInputStream in) throws IOException {
+        int freq = in.readInt();
+        if (freq == 0) {
+            return null;
+        }
+        TsPeriod start = new TsPeriod(TsFrequency.valueOf(freq), in.readInt(), in.readInt());
+        double[] values = new double[in.readInt()];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = in.readDouble();
+        }
+        return new TsData(start, values, false);
+    }
+
+    private static final class Key {
+
+        private final ISaSpecification spec;
+        private final TsPeriod start;
+        private final double[] values;
+        private final int hash;
+
+        Key(ISaSpecification spec, TsData s) {
+            this.spec = spec;
+            this.start = s.getStart();
+            this.values = s.getValues().internalStorage();
+            this.hash = 31 * start.hashCode() + Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && start.equals(other.start)
+                    && Arrays.equals(values, other.values) && spec.equals(other.spec);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * spec.hashCode() + hash;
+        }
+    }
+}
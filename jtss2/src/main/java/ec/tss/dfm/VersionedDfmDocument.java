@@ -22,6 +22,7 @@ import ec.tstoolkit.MetaData;
 import ec.tstoolkit.ParameterType;
 import ec.tstoolkit.algorithm.CompositeResults;
 import ec.tstoolkit.dfm.DfmNews;
+import ec.tstoolkit.dfm.DfmSmoothingCache;
 import ec.tstoolkit.dfm.DfmSpec;
 import ec.tstoolkit.timeseries.information.TsInformationSet;
 import java.util.Date;
@@ -33,6 +34,12 @@ import java.util.Date;
 public class VersionedDfmDocument extends VersionedDocument<DfmSpec, Ts[], CompositeResults, DfmDocument>
         implements Cloneable {
 
+    // smoothing passes shared by the different news computations. The cache
+    // is cleared when the current document is re-processed or archived
+    private DfmSmoothingCache smoothingCache = new DfmSmoothingCache();
+    // results of the current document when the cache was last used
+    private DfmResults cachedResults;
+
     public VersionedDfmDocument() {
         super(new DfmDocument());
     }
@@ -41,6 +48,8 @@ public class VersionedDfmDocument extends VersionedDocument<DfmSpec, Ts[], Compo
     public VersionedDfmDocument clone() {
         try {
             VersionedDfmDocument doc = (VersionedDfmDocument) super.clone();
+            doc.smoothingCache = new DfmSmoothingCache();
+            doc.cachedResults = null;
             doc.setCurrent(getCurrent().clone());
             doc.clearVersions(0);
             for (int i = 0; i < getVersionCount(); ++i) {
@@ -76,6 +85,7 @@ public class VersionedDfmDocument extends VersionedDocument<DfmSpec, Ts[], Compo
 
     @Override
     protected DfmDocument archive(DfmDocument document) {
+        clearSmoothingCache();
         document.freezeTs();
         document.getMetaData().put(MetaData.DATE, new Date().toString());
         document.setLocked(true);
@@ -110,7 +120,7 @@ public class VersionedDfmDocument extends VersionedDocument<DfmSpec, Ts[], Compo
         TsInformationSet previnfo = prev.getInput();
         TsInformationSet revinfo = previnfo.revisedData(curinfo);
         DfmNews news=new DfmNews(cur.getModel());
-        
+        news.setSmoothingCache(smoothingCache(cur));
         if (! news.process(previnfo, revinfo))
             return null;
         return news;
@@ -130,7 +140,7 @@ public class VersionedDfmDocument extends VersionedDocument<DfmSpec, Ts[], Compo
         TsInformationSet previnfo = prev.getInput();
         TsInformationSet revinfo = previnfo.revisedData(curinfo);
         DfmNews news=new DfmNews(cur.getModel());
-        
+        news.setSmoothingCache(smoothingCache(cur));
         if (! news.process(revinfo, curinfo))
             return null;
         return news;
@@ -148,12 +158,26 @@ public class VersionedDfmDocument extends VersionedDocument<DfmSpec, Ts[], Compo
                 prev=refdoc.getDfmResults();
         TsInformationSet curinfo=cur.getInput(), previnfo=prev.getInput();
         DfmNews news=new DfmNews(cur.getModel());
-        
+        news.setSmoothingCache(smoothingCache(cur));
         if (! news.process(previnfo, curinfo))
             return null;
         return news;
     }
     
+    private synchronized DfmSmoothingCache smoothingCache(DfmResults cur) {
+        if (cur != cachedResults) {
+            // the current document has been re-processed
+            smoothingCache.clear();
+            cachedResults = cur;
+        }
+        return smoothingCache;
+    }
+
+    private synchronized void clearSmoothingCache() {
+        smoothingCache.clear();
+        cachedResults = null;
+    }
+
     public void unlockModel() {
         DfmDocument current = getCurrent();
         if (current != null) {
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 National Bank of Belgium
+ * 
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved 
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * http://ec.europa.eu/idabc/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and 
+ * limitations under the Licence.
+ */
+package ec.tss.dfm;
+
+import ec.tss.Ts;
+import ec.tss.TsFactory;
+import ec.tstoolkit.algorithm.IProcessingHook;
+import ec.tstoolkit.algorithm.IProcessingNode;
+import ec.tstoolkit.dfm.DfmSpec;
+import ec.tstoolkit.timeseries.simplets.TsData;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DfmBatchRefreshTest {
+
+    private static final int MB = 1 << 20;
+
+    public DfmBatchRefreshTest() {
+    }
+
+    private static VersionedDfmDocument document(boolean valid) {
+        DfmSpec spec = DfmProcessingFactoryTest.spec.clone();
+        spec.getEstimationSpec().getPreEmSpec().setMaxIter(5);
+        spec.getEstimationSpec().getNumericalProcessingSpec().setEnabled(false);
+        List<TsData> vars = DfmProcessingFactoryTest.vars;
+        Ts[] input = new Ts[vars.size()];
+        for (int i = 0; i < input.length; ++i) {
+            // the second series of an invalid document has no data
+            TsData data = valid || i != 1 ? vars.get(i) : null;
+            input[i] = TsFactory.instance.createTs("var" + (i + 1), null, data);
+        }
+        VersionedDfmDocument doc = new VersionedDfmDocument();
+        DfmDocument current = doc.getCurrent();
+        current.setSpecification(spec);
+        current.setInput(input);
+        ((DfmProcessingFactory) current.getProcessor()).setThreadsCount(1);
+        return doc;
+    }
+
+    @Test
+    public void testRefresh() {
+        VersionedDfmDocument failed = document(false), done = document(true), cancelled = document(true);
+        List<VersionedDfmDocument> docs = Arrays.asList(failed, done, cancelled);
+        // one document at a time: the refresh is cancelled at the end of the
+        // second document, before the start of the third one
+        final DfmBatchRefresh refresh = new DfmBatchRefresh(1, 10 * MB);
+        final int nprocs = Runtime.getRuntime().availableProcessors();
+        final AtomicInteger progress = new AtomicInteger(), errors = new AtomicInteger(), ndone = new AtomicInteger();
+        refresh.setListener(new DfmBatchRefresh.IListener() {
+
+            @Override
+            public void progress(VersionedDfmDocument doc, IProcessingHook.HookInformation<IProcessingNode, DfmProcessingFactory.EstimationInfo> info) {
+                progress.incrementAndGet();
+                // a small document takes 1 MB of the budget
+                if (refresh.getAvailableMemory() != 9) {
+                    errors.incrementAndGet();
+                }
+                // the document uses all the processors (one document at a time)
+                if (((DfmProcessingFactory) doc.getCurrent().getProcessor()).getThreadsCount() != nprocs) {
+                    errors.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void done(VersionedDfmDocument doc, DfmBatchRefresh.Status status) {
+                ndone.incrementAndGet();
+                if (status == DfmBatchRefresh.Status.Done) {
+                    refresh.cancel();
+                }
+            }
+        });
+        Map<VersionedDfmDocument, DfmBatchRefresh.Status> rslts = refresh.refresh(docs);
+        assertEquals(DfmBatchRefresh.Status.Failed, rslts.get(failed));
+        assertEquals(DfmBatchRefresh.Status.Done, rslts.get(done));
+        assertEquals(DfmBatchRefresh.Status.Cancelled, rslts.get(cancelled));
+        assertEquals(3, ndone.get());
+        assertTrue(progress.get() > 0);
+        assertEquals(0, errors.get());
+        // all the permits are released and the thread budgets are restored
+        assertEquals(10, refresh.getAvailableMemory());
+        assertEquals(1, ((DfmProcessingFactory) done.getCurrent().getProcessor()).getThreadsCount());
+        assertNotNull(done.getCurrent().getDfmResults());
+    }
+
+    @Test
+    public void testInterruptedRefresh() {
+        List<VersionedDfmDocument> docs = Arrays.asList(document(true), document(true), document(true));
+        DfmBatchRefresh refresh = new DfmBatchRefresh(2, 10 * MB);
+        final AtomicInteger ndone = new AtomicInteger();
+        refresh.setListener(new DfmBatchRefresh.IListener() {
+
+            @Override
+            public void progress(VersionedDfmDocument doc, IProcessingHook.HookInformation<IProcessingNode, DfmProcessingFactory.EstimationInfo> info) {
+            }
+
+            @Override
+            public void done(VersionedDfmDocument doc, DfmBatchRefresh.Status status) {
+                ndone.incrementAndGet();
+            }
+        });
+        Thread.currentThread().interrupt();
+        Map<VersionedDfmDocument, DfmBatchRefresh.Status> rslts = refresh.refresh(docs);
+        // the interrupted status is kept
+        assertTrue(Thread.interrupted());
+        assertTrue(refresh.isCancelled());
+        assertEquals(3, rslts.size());
+        // the refresh returns when all the processings are stopped
+        assertEquals(3, ndone.get());
+        assertEquals(10, refresh.getAvailableMemory());
+    }
+}
@@ -16,6 +16,7 @@
  */
 package ec.tss.dfm;
 
+import ec.satoolkit.ISaSpecification;
 import ec.satoolkit.tramoseats.TramoSeatsSpecification;
 import ec.tss.sa.SaManager;
 import ec.tss.sa.processors.TramoSeatsProcessor;
@@ -42,8 +43,13 @@ import ec.tstoolkit.timeseries.simplets.TsData;
 import ec.tstoolkit.timeseries.simplets.TsDataTable;
 import ec.tstoolkit.timeseries.simplets.TsFrequency;
 import ec.tstoolkit.var.VarSpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -156,4 +162,114 @@ public class DfmProcessingFactoryTest {
         assertTrue(s.distance(untransform[0]) < 1e-9);
     }
 
+    /**
+     * Cache that counts the calls to the SaManager, by series
+     */
+    private static class CountingCache extends SaResultsCache {
+
+        private final Map<TsData, Integer> calls = new IdentityHashMap<>();
+        private boolean failing;
+
+        CountingCache(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        SaComponents compute(ISaSpecification spec, TsData s) {
+            synchronized (calls) {
+                calls.put(s, count(s) + 1);
+            }
+            return failing ? FAILED : super.compute(spec, s);
+        }
+
+        int count(TsData s) {
+            synchronized (calls) {
+                Integer n = calls.get(s);
+                return n == null ? 0 : n;
+            }
+        }
+    }
+
+    @Test
+    public void testSaCache() {
+        CountingCache cache = new CountingCache(2);
+        TsData a = data.Data.P, b = data.Data.M1, c = data.Data.M2;
+        TramoSeatsSpecification rsa = TramoSeatsSpecification.RSA0;
+        SaResultsCache.SaComponents ca = cache.process(rsa, a, false);
+        assertTrue(ca.valid);
+        // identified by the content of the series
+        assertSame(ca, cache.process(rsa, a.clone(), false));
+        assertSame(ca, cache.process(rsa, a, true));
+        cache.process(rsa, b, false);
+        // a becomes the most recently used
+        cache.process(rsa, a, false);
+        // b is removed
+        cache.process(rsa, c, false);
+        assertEquals(1, cache.count(a));
+        assertEquals(1, cache.count(b));
+        assertEquals(1, cache.count(c));
+        assertSame(ca, cache.process(rsa, a, false));
+        cache.process(rsa, b, false);
+        assertEquals(2, cache.count(b));
+        // another specification
+        cache.process(TramoSeatsSpecification.RSAfull, b, false);
+        assertEquals(3, cache.count(b));
+    }
+
+    @Test
+    public void testSaCacheFailures() {
+        CountingCache cache = new CountingCache(10);
+        cache.failing = true;
+        TsData s = data.Data.P;
+        assertFalse(cache.process(TramoSeatsSpecification.RSA0, s, false).valid);
+        assertFalse(cache.process(TramoSeatsSpecification.RSA0, s, true).valid);
+        assertEquals(1, cache.count(s));
+    }
+
+    @Test
+    public void testSaCacheDirectory() throws IOException {
+        File dir = Files.createTempDirectory("sacache").toFile();
+        try {
+            TsData s = data.Data.P;
+            CountingCache cache = new CountingCache(10);
+            cache.setDirectory(dir);
+            SaResultsCache.SaComponents c0 = cache.process(TramoSeatsSpecification.RSA0, s, false);
+            assertEquals(1, cache.count(s));
+            CountingCache ncache = new CountingCache(10);
+            ncache.setDirectory(dir);
+            SaResultsCache.SaComponents c1 = ncache.process(TramoSeatsSpecification.RSA0, s, false);
+            assertEquals(0, ncache.count(s));
+            assertTrue(c0.sa.distance(c1.sa) == 0);
+            assertTrue(c0.s.distance(c1.s) == 0);
+            assertEquals(c0.mode, c1.mode);
+            // the pre-processing model is not saved
+            assertNotNull(ncache.process(TramoSeatsSpecification.RSA0, s, true).preprocessing);
+            assertEquals(1, ncache.count(s));
+            // the specification is checked
+            ncache.process(TramoSeatsSpecification.RSA5, s, false);
+            assertEquals(2, ncache.count(s));
+            assertFalse(SaResultsCache.text(TramoSeatsSpecification.RSA0).equals(SaResultsCache.text(TramoSeatsSpecification.RSA5)));
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testSaSharing() {
+        TsData s = data.Data.P;
+        Transformation[] D = new Transformation[]{Transformation.Sa, Transformation.Log};
+        SaResultsCache.instance.clear();
+        TsData[] transform = DfmProcessingFactory.transform(s, D, TramoSeatsSpecification.RSAfull);
+        SaResultsCache.SaComponents cmps = SaResultsCache.instance.process(TramoSeatsSpecification.RSAfull, s, false);
+        // forecasts: the seasonal component is required
+        TsData f = transform[D.length].fittoDomain(s.getDomain().extend(0, 12));
+        TsData[] untransform = DfmProcessingFactory.untransform(s, f, D, TramoSeatsSpecification.RSAfull);
+        assertNotNull(untransform[0]);
+        // transform and untransform use the same seasonal adjustment
+        assertSame(cmps, SaResultsCache.instance.process(TramoSeatsSpecification.RSAfull, s, true));
+    }
+
 }
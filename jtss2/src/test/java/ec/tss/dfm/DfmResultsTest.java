@@ -10,18 +10,24 @@ import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.data.DescriptiveStatistics;
 import ec.tstoolkit.dfm.DfmEM;
 import ec.tstoolkit.dfm.DfmEM2;
+import ec.tstoolkit.dfm.DfmProcessor;
 import ec.tstoolkit.timeseries.information.TsInformationSet;
 import ec.tstoolkit.dfm.DynamicFactorModel;
 import ec.tstoolkit.dfm.IDfmEstimator;
 import ec.tstoolkit.dfm.PcInitializer;
 import ec.tstoolkit.eco.Likelihood;
 import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit.mssf2.IMSsf;
 import ec.tstoolkit.ssf2.ResidualsCumulator;
 import ec.tstoolkit.timeseries.simplets.TsData;
 import ec.tstoolkit.timeseries.simplets.TsDataTable;
 import ec.tstoolkit.timeseries.simplets.TsFrequency;
 import ec.tstoolkit.timeseries.simplets.TsPeriod;
 import ec.tstoolkit.var.VarSpec;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
 /**
@@ -360,6 +366,151 @@ public class DfmResultsTest {
     
      
             
+    @Test
+    public void testResponses() {
+        DynamicFactorModel model = dmodel.clone();
+        DfmResults rslts = new DfmResults(model, dfmdata);
+        int N = model.getMeasurementsCount();
+        DfmSeriesDescriptor[] desc = new DfmSeriesDescriptor[N];
+        for (int i = 0; i < N; ++i) {
+            desc[i] = new DfmSeriesDescriptor(i);
+        }
+        rslts.setDescriptions(desc);
+        int[] hor = new int[]{1, 2, 5, 3, 12};
+        int shock = 1;
+        Matrix var = rslts.getVarianceDecompositionShock(hor, shock).clone();
+        Matrix irf = rslts.getIrfShock(hor, shock).clone();
+
+        // direct computation
+        IMSsf ssf = model.ssfRepresentation();
+        int r = model.getFactorsCount(), c = model.getBlockLength(), n = ssf.getStateDim();
+        Matrix C = model.getTransition().covar.clone();
+        SymmetricMatrix.lcholesky(C);
+        DataBlock b = new DataBlock(n);
+        for (int i = 0; i < r; ++i) {
+            b.set(i * c, C.get(i, shock));
+        }
+        for (int h = 0; h < hor.length; ++h) {
+            Matrix V = new Matrix(n, n);
+            V.addXaXt(1, b);
+            Matrix S = V.clone();
+            DataBlock x = b.deepClone();
+            for (int i = 0; hor[h] > 1 && i < hor[h]; ++i) {
+                ssf.TVT(0, V.subMatrix());
+                S.add(V);
+                ssf.TX(0, x);
+            }
+            Matrix zvz = new Matrix(N, N);
+            ssf.ZVZ(0, S.subMatrix(), zvz.subMatrix());
+            for (int v = 0; v < N; ++v) {
+                assertEquals(zvz.get(v, v), var.get(v, h), 1e-9 * (1 + Math.abs(zvz.get(v, v))));
+                assertEquals(ssf.ZX(0, v, x), irf.get(v, h), 1e-9);
+            }
+        }
+
+        // the responses are computed again when the model changes
+        model.getTransition().covar.mul(4);
+        Matrix var2 = rslts.getVarianceDecompositionShock(hor, shock);
+        var.mul(4);
+        assertTrue(var2.minus(var).nrm2() < 1e-9 * var2.nrm2());
+    }
+
+    /**
+     * Checks the shocks decomposition of a series against the direct sums:
+     * e(t) + T*e(t-1) + ... + T^(t-1)*e(1) for each orthogonalized shock
+     * (e(0) for t = 0) and T^(t+1)*a(0) for the initial state
+     */
+    private static void checkShocksDecomposition(DfmResults rslts, int v) {
+        DynamicFactorModel model = rslts.getModel();
+        IMSsf ssf = rslts.getSsf();
+        int r = model.getFactorsCount(), c = model.getBlockLength(), n = ssf.getStateDim();
+        TsData[] shocks = rslts.getShocks();
+        int T = shocks[0].getLength();
+        Matrix B = model.getTransition().covar.clone();
+        SymmetricMatrix.lcholesky(B);
+        // orthogonalized shocks: B*ustar(t) = u(t), with B lower triangular
+        double[][] ustar = new double[r][T];
+        for (int t = 0; t < T; ++t) {
+            for (int i = 0; i < r; ++i) {
+                double s = shocks[i].get(t);
+                for (int j = 0; j < i; ++j) {
+                    s -= B.get(i, j) * ustar[j][t];
+                }
+                ustar[i][t] = s / B.get(i, i);
+            }
+        }
+        DfmProcessor processor = new DfmProcessor();
+        assertTrue(processor.process(model, rslts.getInput()));
+        DataBlock a0 = processor.getSmoothingResults().A(0);
+        double stdev = rslts.getDescription(v).stdev;
+        TsData[] sd = rslts.getShocksDecomposition(v);
+        int[] periods = new int[]{0, 1, 2, T / 2, T - 1};
+        for (int t : periods) {
+            for (int i = 0; i < r; ++i) {
+                DataBlock x = new DataBlock(n);
+                for (int h = t == 0 ? 0 : 1; h <= t; ++h) {
+                    DataBlock e = new DataBlock(n);
+                    for (int j = 0; j < r; ++j) {
+                        e.set(j * c, B.get(j, i) * ustar[i][h]);
+                    }
+                    for (int k = h; k < t; ++k) {
+                        ssf.TX(0, e);
+                    }
+                    x.add(e);
+                }
+                double y = ssf.ZX(0, v, x) * stdev;
+                assertEquals(y, sd[i].get(t), 1e-9 * Math.max(1, Math.abs(y)));
+            }
+            DataBlock x = a0.deepClone();
+            for (int k = 0; k <= t; ++k) {
+                ssf.TX(0, x);
+            }
+            double y = ssf.ZX(0, v, x) * stdev;
+            assertEquals(y, sd[r].get(t), 1e-9 * Math.max(1, Math.abs(y)));
+        }
+    }
+
+    @Test
+    public void testOutputs() {
+        DfmResults rslts = new DfmResults(dmodel.clone(), dfmdata);
+        TsData[] noise = rslts.getNoise();
+        TsData n0 = noise[0].clone();
+        // the outputs are computed once
+        assertSame(noise, rslts.getNoise());
+        assertSame(rslts.getSignal(), rslts.getSignal());
+        // the idiosyncratic correlations don't modify the noise
+        rslts.getIdiosyncratic();
+        for (int i = 0; i < n0.getLength(); ++i) {
+            assertEquals(n0.get(i), rslts.getNoise()[0].get(i), 0);
+        }
+        // noise = data - signal
+        TsData d = rslts.getTheData()[0], s = rslts.getSignal()[0];
+        for (int i = 0; i < d.getLength(); ++i) {
+            if (!d.isMissing(i)) {
+                assertEquals(d.get(i) - s.get(i), noise[0].get(i), 1e-9);
+            }
+        }
+        // shocks decomposition, by series or for all the series
+        TsData[][] sd = rslts.getShocksDecomposition();
+        TsData[] sd1 = rslts.getShocksDecomposition(1);
+        assertEquals(sd.length, sd1.length);
+        for (int i = 0; i < sd.length; ++i) {
+            assertEquals(sd[i][1].getLength(), sd1[i].getLength());
+            for (int j = 0; j < sd1[i].getLength(); ++j) {
+                assertEquals(sd[i][1].get(j), sd1[i].get(j), 0);
+            }
+        }
+        checkShocksDecomposition(rslts, 1);
+        // new descriptions
+        int N = dfmdata.getSeriesCount();
+        DfmSeriesDescriptor[] desc = new DfmSeriesDescriptor[N];
+        for (int i = 0; i < N; ++i) {
+            desc[i] = new DfmSeriesDescriptor("s" + i, null, 0, 2);
+        }
+        rslts.setDescriptions(desc);
+        assertEquals(2 * noise[0].get(0), rslts.getNoise()[0].get(0), 1e-9);
+    }
+
 }
 
    
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 National Bank of Belgium
+ * 
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved 
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * http://ec.europa.eu/idabc/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and 
+ * limitations under the Licence.
+ */
+package ec.tss.dfm;
+
+import ec.tss.Ts;
+import ec.tss.TsFactory;
+import ec.tstoolkit.dfm.DfmSpec;
+import ec.tstoolkit.timeseries.Day;
+import ec.tstoolkit.timeseries.information.TsInformationSet;
+import ec.tstoolkit.timeseries.simplets.TsData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class DfmSimulationTest {
+
+    public DfmSimulationTest() {
+    }
+
+    private static DfmDocument document() {
+        DfmSpec spec = DfmProcessingFactoryTest.spec.clone();
+        spec.getEstimationSpec().getPreEmSpec().setMaxIter(5);
+        spec.getEstimationSpec().getNumericalProcessingSpec().setEnabled(false);
+        List<TsData> vars = DfmProcessingFactoryTest.vars;
+        Ts[] input = new Ts[vars.size()];
+        for (int i = 0; i < input.length; ++i) {
+            input[i] = TsFactory.instance.createTs("var" + (i + 1), null, vars.get(i));
+        }
+        DfmDocument doc = new DfmDocument();
+        doc.setSpecification(spec);
+        doc.setInput(input);
+        assertNotNull(doc.getDfmResults());
+        return doc;
+    }
+
+    private static Map<Day, SimulationResultsDocument> simulate(DfmDocument refdoc, Day[] cal, Day estimation, int nthreads) {
+        DfmSimulation simulation = new DfmSimulation(cal[cal.length - 1]);
+        simulation.setThreadsCount(nthreads);
+        // the events are fired by the calling thread, in the order of the
+        // calendar
+        final Thread caller = Thread.currentThread();
+        final List<Object> events = Collections.synchronizedList(new ArrayList<>());
+        simulation.addPropertyChangeListener(evt -> {
+            if (DfmSimulation.CALENDAR_RESULTS.equals(evt.getPropertyName())) {
+                events.add(Thread.currentThread() == caller ? evt.getNewValue() : null);
+            }
+        });
+        List<Day> estimationDays = new ArrayList<>();
+        estimationDays.add(estimation);
+        assertTrue(simulation.process(refdoc, cal, estimationDays));
+        assertEquals(Arrays.asList((Object[]) cal), events);
+        return simulation.getResults();
+    }
+
+    @Test
+    public void testParallelSimulation() {
+        DfmDocument refdoc = document();
+        // one vintage by month, for the last 8 months, with a re-estimation
+        // in the middle
+        TsInformationSet info = new TsInformationSet(refdoc.getData());
+        Day last = info.getCurrentDomain().getEnd().firstday();
+        Day[] cal = new Day[8];
+        for (int i = 0; i < cal.length; ++i) {
+            GregorianCalendar c = last.toCalendar();
+            c.add(GregorianCalendar.MONTH, i - cal.length);
+            cal[i] = new Day(c.getTime());
+        }
+        Map<Day, SimulationResultsDocument> seq = simulate(refdoc, cal, cal[4], 1);
+        Map<Day, SimulationResultsDocument> par = simulate(refdoc, cal, cal[4], 4);
+        assertEquals(cal.length, seq.size());
+        assertEquals(seq.keySet(), par.keySet());
+        for (Day day : cal) {
+            SimulationResultsDocument s = seq.get(day), p = par.get(day);
+            assertNotNull(s);
+            assertNotNull(p);
+            assertNotNull(p.getSimulationResults());
+            TsData[] ss = s.getSmoothedSeriesStdev(), ps = p.getSmoothedSeriesStdev();
+            assertNotNull(ss);
+            assertEquals(ss.length, ps.length);
+            for (int i = 0; i < ss.length; ++i) {
+                assertEquals(ss[i].getStart(), ps[i].getStart());
+                assertArrayEquals(ss[i].getValues().internalStorage(), ps[i].getValues().internalStorage(), 1e-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit.dfm;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.IReadDataBlock;
+import ec.tstoolkit.eco.Likelihood;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit.maths.realfunctions.IFunctionDerivatives;
+import ec.tstoolkit.mssf2.IMSsf;
+import ec.tstoolkit.mssf2.MSsfFunction;
+import ec.tstoolkit.mssf2.MSsfFunctionInstance;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Derivatives of the opposite of the log-likelihood of a dynamic factor model
+ * (function minimized by the estimation), based on the exact score (see
+ * DfmScore). The derivatives of the model items with respect to the
+ * parameters of the mapping are computed by central differences on the
+ * mapping only (no filtering); they are exact for the usual mappings, which
+ * are at most quadratic in their parameters.
+ *
+ * The hessian is computed by forward differences of the analytical gradient.
+ */
+public class DfmAnalyticalDerivatives implements IFunctionDerivatives {
+
+    private static final double EPS = 1e-3;
+
+    private final MSsfFunction<IMSsf> fn;
+    private final MSsfFunctionInstance<IMSsf> point;
+    private double[] grad;
+
+    public DfmAnalyticalDerivatives(MSsfFunction<IMSsf> fn, MSsfFunctionInstance<IMSsf> point) {
+        this.fn = fn;
+        this.point = point;
+    }
+
+    public MSsfFunction<IMSsf> getFunction() {
+        return fn;
+    }
+
+    @Override
+    public IReadDataBlock getGradient() {
+        if (grad == null) {
+            grad = gradient(fn, point);
+        }
+        return new DataBlock(grad);
+    }
+
+    @Override
+    public void getHessian(SubMatrix hessian) {
+        if (grad == null) {
+            grad = gradient(fn, point);
+        }
+        IReadDataBlock x = point.getParameters();
+        int n = grad.length;
+        double[] eps = new double[n];
+        List<DataBlock> points = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            eps[i] = fn.mapper.epsilon(x, i);
+            DataBlock p = new DataBlock(x);
+            p.add(i, eps[i]);
+            points.add(p);
+        }
+        List<MSsfFunctionInstance<IMSsf>> fx = fn.evaluate(points);
+        for (int i = 0; i < n; ++i) {
+            double[] gi = gradient(fn, fx.get(i));
+            for (int j = 0; j < n; ++j) {
+                hessian.set(j, i, (gi[j] - grad[j]) / eps[i]);
+            }
+        }
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < i; ++j) {
+                double h = .5 * (hessian.get(i, j) + hessian.get(j, i));
+                hessian.set(i, j, h);
+                hessian.set(j, i, h);
+            }
+        }
+    }
+
+    /**
+     * Gradient of the opposite of the log-likelihood at the given point
+     *
+     * @param fn
+     * @param pt
+     * @return
+     */
+    public static double[] gradient(MSsfFunction<IMSsf> fn, MSsfFunctionInstance<IMSsf> pt) {
+        IReadDataBlock p = pt.getParameters();
+        int np = p.getLength();
+        double[] g = new double[np];
+        Likelihood ll = pt.getLikelihood();
+        double[] score = ll == null ? null
+                : new DfmScore(model(pt.ssf)).compute(fn.data, ll.getSigma());
+        if (score == null) {
+            for (int i = 0; i < np; ++i) {
+                g[i] = Double.NaN;
+            }
+            return g;
+        }
+        DataBlock cur = new DataBlock(p);
+        for (int i = 0; i < np; ++i) {
+            double pi = p.get(i), h = EPS * Math.max(1, Math.abs(pi));
+            cur.set(i, pi + h);
+            double[] tp = DfmScore.parameters(model(fn.mapper.map(cur)));
+            cur.set(i, pi - h);
+            double[] tm = DfmScore.parameters(model(fn.mapper.map(cur)));
+            cur.set(i, pi);
+            double s = 0;
+            for (int j = 0; j < score.length; ++j) {
+                double dj = tp[j] - tm[j];
+                if (dj != 0) {
+                    s += score[j] * dj;
+                }
+            }
+            g[i] = -s / (2 * h);
+        }
+        return g;
+    }
+
+    private static DynamicFactorModel model(IMSsf ssf) {
+        return ((DynamicFactorModel.Ssf) ssf).getModel();
+    }
+}
@@ -60,6 +60,7 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
     //loglikelihood increase
     private boolean conv;// TRUE if convergence has been achieved (in terms of
     // either "maxiter" or "eps"
+    private boolean verbose; // prints the likelihood at each iteration
 
     private DynamicFactorModel dfm;
     private DfmProcessor dfmproc;
@@ -127,6 +128,7 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
     int N;    // number of time series
     Matrix data_m; // transformed data in matrix form nobs x N (NaN when values are missing)
     Matrix y;      // transformed data in matrix form nobs x N (with zeros instead of NaN)
+    private double[] ezzw; // workspace for E[z(t)z(t)'], reused for each period
 
     // Arrays needed to selects variables with the unique "types" of loading structure 
     // The selection is done separately for each CLASS of variables (i.e. YoY, QoQ, MoM)
@@ -173,6 +175,7 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
 
         c_ = dfm.getBlockLength();
         nlags = dfm.getTransition().nlags;
+        ezzw = new double[c_ * nf_ * c_ * nf_];
 
         LoadingsMarianoMurasawa();
         LoadingsCumSum();
@@ -308,11 +311,13 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
         double oldLn = 0;
 
         while (iter < maxiter) {
-            System.out.println(Ln);
+            if (verbose) {
+                System.out.println(Ln);
+            }
             iter++;
             oldLn = Ln;
             Ln = emstep(dfm, data); // Given the parameters of dfm, get moments
-            convergence(Ln, oldLn, iter, false);
+            convergence(Ln, oldLn, iter, verbose);
         }
     }
 
@@ -342,15 +347,13 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
         } else {
             if (print) {
                 System.out.print("   The likelihood is decreasing! ");
-            }
-            try {
-                IEigenSystem es = EigenSystem.create(A, false);
-                Complex[] ev = es.getEigenValues(1);
-                System.out.println(ev[0].abs());
-                //     System.out.println(ev[1].abs());
-                //     System.out.println(ev[2].abs());
-            } catch (MatrixException err) {
-                System.out.println(A);
+                try {
+                    IEigenSystem es = EigenSystem.create(A, false);
+                    Complex[] ev = es.getEigenValues(1);
+                    System.out.println(ev[0].abs());
+                } catch (MatrixException err) {
+                    System.out.println(A);
+                }
             }
             return false;
         }
@@ -530,39 +533,12 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
         //     int nQi = idx_Q.length;
             //     int nYi = idx_Y.length;
             Matrix denom = new Matrix(nMi * rsi, nMi * rsi);
-            Matrix denom_interm = new Matrix(nMi * rsi, nMi * rsi);
             Matrix nom = new Matrix(nMi, rsi);
-            Matrix nom_interm = new Matrix(nMi, rsi);
+            int[] sel_M = indexes(logic_idx_iM.get(type));
 
             // ATTENTION if i=1; I will be ignoring the first observation (because we do not include the initial state in the state vector)
- //           for (int i = 1; i < nobs; i++) {  // we will be ignoring the first observation (because we do not include the initial state in the state vector)
              for (int i = 0; i < nobs; i++) {  
-                boolean[] logic_i = new boolean[nobs];
-                logic_i[i] = true;
-
-                // this is messy
-                double[] buffer = new double[N];
-                data_m.row(i).copyTo(buffer, 0); //subMatrix(i, i+1, 0, N)
-
-                double[] temp = new double[idx_M.length];
-                for (int j = 0; j < idx_M.length; j++) {
-                    if (!Double.isNaN(buffer[idx_M[j]])) {
-                        temp[j] = 1;
-                    }
-                }
-
-                Matrix nanYt = Matrix.diagonal(temp);
-
-                DataBlock bloque = DataBlock.select(srslts_.A(i).deepClone(), logic_idx_iM.get(type));
-                Matrix ztemp = new Matrix(bloque.getData(), sum(logic_idx_iM.get(type)), 1); //idx_iM.row(type).sum()   sumAll(logic_idx_iM.get(type))                   
-
-                Matrix ezztemp = ztemp.times(ztemp.transpose()).plus(Matrix.select(srslts_.P(i), logic_idx_iM.get(type), logic_idx_iM.get(type)));
-                denom_interm.subMatrix().kronecker(ezztemp.subMatrix(), nanYt.subMatrix());
-                denom.add(denom_interm);
-
-                nom_interm.subMatrix().product(Matrix.select(y.subMatrix(), logic_i, logic_idx_M).subMatrix().transpose(), ztemp.subMatrix().transpose());
-                nom.add(nom_interm);
-
+                addMoments(srslts_, i, idx_M, sel_M, denom, nom);
             }
 
             Matrix vec_C = new Matrix(nom.internalStorage(), nom.getColumnsCount() * nom.getRowsCount(), 1);
@@ -594,6 +570,7 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
             int nQi = idx_Q.length;
 
             boolean[] logic_idx_Q = logic(idx_Q, N);          // integer[] with positions for variables of the given type
+            int[] sel_Q = indexes(logic_idx_iQ.get(type));
 
             Matrix R_con_cd_i = Matrix.selectColumns(R_con_cd.subMatrix(), logic_idx_iQ.get(type));
             Matrix q_con_cd_i = q_con_cd.clone();
@@ -617,39 +594,11 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
                 boolean[] logic_idx_Q_i = logic(idx_Q[i], N);          // integer[] with positions for variables of the given type
 
                 denom = new Matrix(rpsi, rpsi);
-                denom_interm = new Matrix(rpsi, rpsi);
                 nom = new Matrix(1, rpsi);
-                nom_interm = new Matrix(1, rpsi);
+                int[] var_i = new int[]{idx_Q[i]};
 
-                // here the for loop
-       //       for (int t = 1; t < nobs; t++) {
                 for (int t = 0; t < nobs; t++) {
-                    boolean[] logic_t = new boolean[nobs];
-                    logic_t[t] = true;
-
-                    // this is messy
-                    double[] buffer = new double[N];
-                    data_m.row(t).copyTo(buffer, 0); //subMatrix(i, i+1, 0, N)
-
-                    double temp = 0;
-
-                    if (!Double.isNaN(buffer[idx_Q[i]])) {
-                        temp = 1;
-                    }
-
-                    Matrix nanYt = new Matrix(1, 1);
-                    nanYt.set(temp);
-
-                    DataBlock bloque = DataBlock.select(srslts_.A(t).deepClone(), logic_idx_iQ.get(type));
-                    Matrix ztemp = new Matrix(bloque.getData(), sum(logic_idx_iQ.get(type)), 1); //idx_iM.row(type).sum()   sumAll(logic_idx_iM.get(type))                   
-
-                    Matrix ezztemp = ztemp.times(ztemp.transpose()).plus(Matrix.select(srslts_.P(t), logic_idx_iQ.get(type), logic_idx_iQ.get(type)));
-                    denom_interm.subMatrix().kronecker(ezztemp.subMatrix(), nanYt.subMatrix());
-                    denom.add(denom_interm);
-
-                    nom_interm.subMatrix().product(Matrix.select(y.subMatrix(), logic_t, logic_idx_Q_i).subMatrix().transpose(), ztemp.subMatrix().transpose());
-                    nom.add(nom_interm);
-
+                    addMoments(srslts_, t, var_i, sel_Q, denom, nom);
                 }  // closing loop for each time (nobs)
 
                 vec_C = new Matrix(nom.internalStorage(), nom.getColumnsCount() * nom.getRowsCount(), 1);
@@ -663,8 +612,7 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
                 Matrix temp2 = R_con_cd_i.times(temp);
                 Matrix temp3 = temp.clone();
 
-                Matrix Ctype_i = new Matrix(nom.getColumnsCount() * nom.getRowsCount(), 1);
-                Ctype_i = vec_C.minus(Matrix.lsolve(temp2.subMatrix(), temp3.subMatrix()).times((R_con_cd_i.times(vec_C)).minus(q_con_cd_i)));
+                Matrix Ctype_i = vec_C.minus(Matrix.lsolve(temp2.subMatrix(), temp3.subMatrix()).times((R_con_cd_i.times(vec_C)).minus(q_con_cd_i)));
 
                 // upload Jean's new function 
                 C_new.subMatrix().copy(Ctype_i.subMatrix().transpose(), logic_idx_Q_i, logic_idx_iQ.get(type));
@@ -693,6 +641,7 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
             int nYi = idx_Y.length;
 
             boolean[] logic_idx_Y = logic(idx_Y, N);          // integer[] with positions for variables of the given type
+            int[] sel_Y = indexes(logic_idx_iY.get(type));
 
             Matrix R_con_c_i = Matrix.selectColumns(R_con_c.subMatrix(), logic_idx_iY.get(type));
             Matrix q_con_c_i = q_con_c.clone();
@@ -715,40 +664,12 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
                 boolean[] logic_idx_Y_i = logic(idx_Y[i], N);          // integer[] with positions for variables of the given type
 
                 denom = new Matrix(rpsi, rpsi);
-                denom_interm = new Matrix(rpsi, rpsi);
                 nom = new Matrix(1, rpsi);
-                nom_interm = new Matrix(1, rpsi);
+                int[] var_i = new int[]{idx_Y[i]};
 
                 // here the for loop taking into account FULL SAMPLE
-             //   for (int t = 1; t < nobs; t++) {
-                  for (int t = 0; t < nobs; t++) {
-
-                    boolean[] logic_t = new boolean[nobs];
-                    logic_t[t] = true;
-
-                    // this is messy
-                    double[] buffer = new double[N];
-                    data_m.row(t).copyTo(buffer, 0); //subMatrix(i, i+1, 0, N)
-
-                    double temp = 0;
-
-                    if (!Double.isNaN(buffer[idx_Y[i]])) {
-                        temp = 1;
-                    }
-
-                    Matrix nanYt = new Matrix(1, 1);
-                    nanYt.set(temp);
-
-                    DataBlock bloque = DataBlock.select(srslts_.A(t).deepClone(), logic_idx_iY.get(type));
-                    Matrix ztemp = new Matrix(bloque.getData(), sum(logic_idx_iY.get(type)), 1); //idx_iM.row(type).sum()   sumAll(logic_idx_iM.get(type))                   
-
-                    Matrix ezztemp = ztemp.times(ztemp.transpose()).plus(Matrix.select(srslts_.P(t), logic_idx_iY.get(type), logic_idx_iY.get(type)));
-                    denom_interm.subMatrix().kronecker(ezztemp.subMatrix(), nanYt.subMatrix());
-                    denom.add(denom_interm);
-
-                    nom_interm.subMatrix().product(Matrix.select(y.subMatrix(), logic_t, logic_idx_Y_i).subMatrix().transpose(), ztemp.subMatrix().transpose());
-                    nom.add(nom_interm);
-
+                for (int t = 0; t < nobs; t++) {
+                    addMoments(srslts_, t, var_i, sel_Y, denom, nom);
                 }  // closing loop for each time (nobs)
 
                 vec_C = new Matrix(nom.internalStorage(), nom.getColumnsCount() * nom.getRowsCount(), 1);
@@ -762,8 +683,7 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
                 Matrix temp2 = R_con_c_i.times(temp);
                 Matrix temp3 = temp.clone();
 
-                Matrix Ctype_i = new Matrix(nom.getColumnsCount() * nom.getRowsCount(), 1);
-                Ctype_i = vec_C.minus(Matrix.lsolve(temp2.subMatrix(), temp3.subMatrix()).times((R_con_c_i.times(vec_C)).minus(q_con_c_i)));
+                Matrix Ctype_i = vec_C.minus(Matrix.lsolve(temp2.subMatrix(), temp3.subMatrix()).times((R_con_c_i.times(vec_C)).minus(q_con_c_i)));
 
                  C_new.subMatrix().copy(Ctype_i.subMatrix().transpose(), logic_idx_Y_i, logic_idx_iY.get(type));
 
@@ -795,52 +715,20 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
         
               // NOW CALCULATE m step for IDIOSYNCRATIC COMPONENT
 
-        Matrix R = new Matrix(N, N);  // replace by the R obtained in previous iteration
+        // only the diagonal of R_new is used: for each variable, E[e(t)^2] if
+        // it is observed, the previous variance otherwise
         List<MeasurementDescriptor> measurements = dfm.getMeasurements();
+        double[] R = new double[N];
         int counting = 0;
         for (MeasurementDescriptor desc : measurements) {
-            R.set(counting, counting, desc.var);
-            counting++;
-        }
-
-        Matrix R_new = new Matrix(N, N);
-        //for (int i = 1; i < nobs; i++) { 
-        for   (int i = 0; i < nobs; i++) {  // take into  account  FULL SAMPLE
-        
-            boolean[] logic_i = new boolean[nobs];
-            logic_i[i] = true;
-            double[] buffer = new double[N];
-            data_m.row(i).copyTo(buffer, 0); //subMatrix(i, i+1, 0, N)
-            double[] temp = new double[N];
-            for (int j = 0; j < N; j++) {
-                if (!Double.isNaN(buffer[j])) {
-                    temp[j] = 1;
-                }
-            }
-
-            Matrix nanYt = Matrix.diagonal(temp);
-            DataBlock bloque = srslts_.A(i).deepClone();
-            Matrix ztemp = new Matrix(bloque.getData(), bloque.getLength(), 1); //idx_iM.row(type).sum()   sumAll(logic_idx_iM.get(type))                   
-            Matrix V = new Matrix(srslts_.P(i));
-
-            Matrix res1, res2, res3, res4;
-            res1 = Matrix.selectRows(y.subMatrix(), logic_i).transpose().minus(nanYt.times(C_new).times(ztemp));
-            res2 = res1.clone();
-            res3 = nanYt.times(C_new).times(V).times(C_new.transpose()).times(nanYt);
-            res4 = (Matrix.identity(N).minus(nanYt)).times(R).times(Matrix.identity(N).minus(nanYt));
-
-            Matrix R_temp = res1.times(res2.transpose()).plus(res3).plus(res4);
-
-            R_new = R_new.plus(R_temp);
-
+            R[counting++] = desc.var;
         }
+        double[] R_new = idiosyncraticMoments(srslts_, C_new, R);
 
         double scale = 1.0 / (nobs);
-        R_new.mul(scale);
-
         counting = 0;
         for (MeasurementDescriptor desc : measurements) {
-            desc.var = R_new.get(counting, counting);
+            desc.var = R_new[counting] * scale;
             counting++;
         }        
       
@@ -1015,18 +903,34 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
     }
 
      
+    /**
+     * Estimates the model. The estimated parameters are copied in the given
+     * model (as the other initializers do)
+     *
+     * @param dfm0
+     * @param data
+     * @return
+     */
     @Override
     public boolean initialize(DynamicFactorModel dfm0, TsInformationSet data) {
         initCalc(dfm0, data);
         calc(dfm0,data);
-        return true;
+        return dfm0.copy(dfm);
     }
 
+    /**
+     * Estimates the model. The estimated parameters are copied in the given
+     * model
+     *
+     * @param dfm0
+     * @param data
+     * @return
+     */
     @Override
     public boolean estimate(DynamicFactorModel dfm0, TsInformationSet data) {
         initCalc(dfm0, data);
         calc(dfm0,data);
-        return true;
+        return dfm0.copy(dfm);
 //        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
@@ -1082,6 +986,20 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
         return iter;
     }
 
+    /**
+     * @return true if the likelihood is printed at each iteration
+     */
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    /**
+     * @param verbose the verbose to set
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
     // sum the elements of array "r";
     double sum0(double[] elements) {
         double suma = 0.0;
@@ -1120,6 +1038,114 @@ public class DfmEM implements IDfmInitializer, IDfmEstimator {
         return suma;
     }
 
+    // positions of the true elements of "elements"
+    int[] indexes(boolean[] elements) {
+        int[] idx = new int[sum(elements)];
+        for (int i = 0, j = 0; i < elements.length; i++) {
+            if (elements[i]) {
+                idx[j++] = i;
+            }
+        }
+        return idx;
+    }
+
+    // positions of the non zero elements in each row of "m"
+    int[][] nonZeros(Matrix m) {
+        int nr = m.getRowsCount(), nc = m.getColumnsCount();
+        int[][] nz = new int[nr][];
+        boolean[] b = new boolean[nc];
+        for (int i = 0; i < nr; i++) {
+            for (int j = 0; j < nc; j++) {
+                b[j] = m.get(i, j) != 0;
+            }
+            nz[i] = indexes(b);
+        }
+        return nz;
+    }
+
+    /**
+     * Sum on all the periods of the diagonal of
+     * E[e(t)e(t)'] = (y(t)-C E[z(t)])(y(t)-C E[z(t)])' + C V(t) C' for the
+     * observed variables, R otherwise. Only the non zero loadings are used.
+     *
+     * @param srslts The smoothed states
+     * @param C_new The new loadings (N x c_*nf_)
+     * @param R The previous idiosyncratic variances
+     * @return The sums (N)
+     */
+    double[] idiosyncraticMoments(MSmoothingResults srslts, Matrix C_new, double[] R) {
+        int[][] nz = nonZeros(C_new);
+        double[] R_new = new double[N];
+        for (int i = 0; i < nobs; i++) {  // take into  account  FULL SAMPLE
+            DataBlock a = srslts.A(i);
+            SubMatrix V = srslts.P(i);
+            for (int j = 0; j < N; j++) {
+                if (Double.isNaN(data_m.get(i, j))) {
+                    R_new[j] += R[j];
+                } else {
+                    int[] cols = nz[j];
+                    double e = y.get(i, j), v = 0;
+                    for (int k = 0; k < cols.length; ++k) {
+                        int ck = cols[k];
+                        double cjk = C_new.get(j, ck);
+                        e -= cjk * a.get(ck);
+                        double w = 0;
+                        for (int l = 0; l < cols.length; ++l) {
+                            w += V.get(ck, cols[l]) * C_new.get(j, cols[l]);
+                        }
+                        v += cjk * w;
+                    }
+                    R_new[j] += e * e + v;
+                }
+            }
+        }
+        return R_new;
+    }
+
+    /**
+     * Adds the contribution of period t to the moments used in the
+     * maximisation of the loadings of the variables "vars", which depend on
+     * the states "sel". It is equivalent to
+     * denom += kron(E[z(t)z(t)'], diag(observed(t))), nom += y(t) E[z(t)]'
+     * but it doesn't allocate any object: the (block-diagonal) kronecker
+     * product is accumulated directly in denom.
+     *
+     * @param srslts The smoothed states
+     * @param t The period
+     * @param vars The positions of the variables
+     * @param sel The positions of the states
+     * @param denom (vars.length*sel.length x vars.length*sel.length)
+     * @param nom (vars.length x sel.length)
+     */
+    void addMoments(MSmoothingResults srslts, int t, int[] vars, int[] sel, Matrix denom, Matrix nom) {
+        DataBlock a = srslts.A(t);
+        SubMatrix P = srslts.P(t);
+        int k = sel.length, nv = vars.length;
+        boolean computed = false;
+        for (int i = 0; i < nv; i++) {
+            int v = vars[i];
+            if (Double.isNaN(data_m.get(t, v))) {
+                continue;
+            }
+            if (!computed) {
+                for (int u = 0; u < k; u++) {
+                    double zu = a.get(sel[u]);
+                    for (int w = 0; w < k; w++) {
+                        ezzw[u * k + w] = zu * a.get(sel[w]) + P.get(sel[u], sel[w]);
+                    }
+                }
+                computed = true;
+            }
+            double yv = y.get(t, v);
+            for (int u = 0; u < k; u++) {
+                nom.add(i, u, yv * a.get(sel[u]));
+                for (int w = 0; w < k; w++) {
+                    denom.add(u * nv + i, w * nv + i, ezzw[u * k + w]);
+                }
+            }
+        }
+    }
+
    /** Builds Matrix "R_con_cd", which allows us to impose restrictions on the 
    * loadings of series that represent QoQ growth rates. 
    * It also builds the arrays needed to select the factors: for example,
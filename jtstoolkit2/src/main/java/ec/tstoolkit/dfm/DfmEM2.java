@@ -26,11 +26,18 @@ import ec.tstoolkit.maths.realfunctions.IParametersDomain;
 import ec.tstoolkit.maths.realfunctions.NumericalDerivatives;
 import ec.tstoolkit.maths.realfunctions.riso.LbfgsMinimizer;
 import ec.tstoolkit.mssf2.MFilter;
+import ec.tstoolkit.mssf2.MFilteringResults;
 import ec.tstoolkit.mssf2.MPredictionErrorDecomposition;
+import ec.tstoolkit.mssf2.MSmoother;
+import ec.tstoolkit.mssf2.MSmoothingResults;
 import ec.tstoolkit.mssf2.MultivariateSsfData;
 import ec.tstoolkit.ssf2.ResidualsCumulator;
 import ec.tstoolkit.var.VarSpec;
 import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  *
@@ -39,13 +46,17 @@ import java.util.EnumMap;
 public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> implements IDfmInitializer {
 
     private IDfmInitializer initializer;
-    private DfmProcessor processor = new DfmProcessor();
     private DynamicFactorModel dfm;
     private TsInformationSet data;
     private Matrix M;
-    private final EnumMap<DynamicFactorModel.MeasurementType, DataBlock[]> G = new EnumMap<>(DynamicFactorModel.MeasurementType.class);
-    private final EnumMap<DynamicFactorModel.MeasurementType, Table<DataBlock>> G2 = new EnumMap<>(DynamicFactorModel.MeasurementType.class);
-    private DataBlock Efij[];
+    private Moments moments;
+    // minimal number of series for a parallel M-step
+    private static final int MIN_PARALLEL = 16;
+    private int nthreads_ = 1;
+    private ForkJoinPool pool_;
+    private boolean accelerated_;
+    // maximal number of step reductions in the accelerated EM
+    private static final int MAX_BACKTRACK = 5;
     private int maxiter_ = 50000, iter_;
     private boolean all_ = true, correctStart_ = true;
     private int modelSize;
@@ -53,10 +64,10 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
     private double ll_;
     private int numiter_ = 50;
     private double eps_ = 1e-6;
+    private int cperiod_ = -1;
 
     public DfmEM2(IDfmInitializer initializer) {
         this.initializer = initializer;
-        processor.setCalcVariance(true);
     }
 
     public double getFinalLogLikelihood() {
@@ -91,10 +102,67 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
         return maxiter_;
     }
 
+    /**
+     * Number of E-steps of the last estimation
+     *
+     * @return
+     */
+    public int getIterationsCount() {
+        return iter_;
+    }
+
     public void setMaxIter(int i) {
         maxiter_ = i;
     }
 
+    public boolean isAccelerated() {
+        return accelerated_;
+    }
+
+    /**
+     * Uses an accelerated EM (SQUAREM). Each cycle consists in two EM steps
+     * followed by an extrapolation of the parameters. The extrapolated model
+     * is used only if it is valid and if it doesn't decrease the likelihood
+     *
+     * @param accelerated
+     */
+    public void setAccelerated(boolean accelerated) {
+        accelerated_ = accelerated;
+    }
+
+    public int getThreadsCount() {
+        return nthreads_;
+    }
+
+    /**
+     * Sets the number of threads used in the M-step for the loadings (the
+     * series are processed in parallel). The results don't depend on the
+     * number of threads
+     *
+     * @param n
+     */
+    public void setThreadsCount(int n) {
+        nthreads_ = Math.max(1, n);
+    }
+
+    public int getCheckpointPeriod() {
+        return cperiod_;
+    }
+
+    /**
+     * Sets the number of periods between two checkpoints of the filtering
+     * results used in the E-step (see MSmoother.setCheckpointPeriod). By
+     * default (-1), the period depends on the size of the problem (see
+     * MFilteringResults.checkpointPeriod): small models use a full storage,
+     * which avoids the second filtering pass by blocks.
+     *
+     * @param period The period. 0 for a full storage of the filtering
+     * results, a negative value for the automatic choice
+     */
+    public void setCheckpointPeriod(int period) {
+        cperiod_ = period < 0 ? -1 : period;
+    }
+
     public int getMaxNumericIter() {
         return numiter_;
     }
@@ -103,77 +171,126 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
         numiter_ = i;
     }
 
-    private DataBlock ef(int i) {
-        return processor.getSmoothingResults().getSmoothedStates().item(i);
+    /**
+     * Sum of E(x(i,t)x(j,t)) on all the periods
+     *
+     * @param i
+     * @param j
+     * @return
+     */
+    private double ef(int i, int j) {
+        return moments.S.get(i, j);
     }
 
-    private DataBlock vf(int i, int j) {
-        return new DataBlock(processor.getSmoothingResults().componentCovar(i, j));
+    /**
+     * E(x(i,0)x(j,0))
+     *
+     * @param i
+     * @param j
+     * @return
+     */
+    private double ef0(int i, int j) {
+        return moments.S0.get(i, j);
     }
 
-    private DataBlock ef(int i, int j) {
-        if (i > j) {
-            return ef(j, i);
-        }
-        int idx = i + modelSize * j;
-        DataBlock cur = Efij[idx];
-        if (cur == null) {
-            cur = vf(i, j);
-            cur.addAXY(1, ef(i), ef(j));
-            Efij[idx] = cur;
+    /**
+     * Sufficient statistics of the M-step. They are accumulated by the
+     * smoother, while it walks back in time. The smoothed states and their
+     * variances are not stored. For large problems, the filtering results
+     * used by the smoother are only saved at checkpoints (see
+     * setCheckpointPeriod), so that the memory used by the E-step is
+     * O(d*d*(T/k + k)) for T periods, d states and k periods between two
+     * checkpoints.
+     */
+    private class Moments extends MSmoothingResults {
+
+        // sum of E(x(t)x(t)') and E(x(0)x(0)')
+        final Matrix S, S0;
+        // by series: sum(g(t)y(t)), sum(E(g(t)g(t)')), sum(y(t)^2), number
+        // of observations, where g(t) = E(z'x(t)) for each factor
+        final DataBlock[] gy;
+        final Matrix[] gg;
+        final double[] yy;
+        final int[] nobs;
+        private final DynamicFactorModel.MeasurementType[] types;
+        private final EnumMap<DynamicFactorModel.MeasurementType, DataBlock> z = new EnumMap<>(DynamicFactorModel.MeasurementType.class);
+        private final EnumMap<DynamicFactorModel.MeasurementType, DataBlock> g = new EnumMap<>(DynamicFactorModel.MeasurementType.class);
+        private final EnumMap<DynamicFactorModel.MeasurementType, Matrix> g2 = new EnumMap<>(DynamicFactorModel.MeasurementType.class);
+
+        Moments() {
+            int nf = dfm.getFactorsCount(), nv = dfm.getMeasurementsCount();
+            S = new Matrix(modelSize, modelSize);
+            S0 = new Matrix(modelSize, modelSize);
+            gy = new DataBlock[nv];
+            gg = new Matrix[nv];
+            yy = new double[nv];
+            nobs = new int[nv];
+            types = new DynamicFactorModel.MeasurementType[nv];
+            int i = 0;
+            for (DynamicFactorModel.MeasurementDescriptor desc : dfm.getMeasurements()) {
+                DynamicFactorModel.MeasurementType type = DynamicFactorModel.
+                        getMeasurementType(desc.type);
+                types[i] = type;
+                gy[i] = new DataBlock(nf);
+                gg[i++] = new Matrix(nf, nf);
+                if (!z.containsKey(type)) {
+                    DataBlock cur = new DataBlock(desc.type.getLength());
+                    desc.type.fill(cur);
+                    z.put(type, cur);
+                    g.put(type, new DataBlock(nf));
+                    g2.put(type, new Matrix(nf, nf));
+                }
+            }
         }
-        return cur;
-    }
 
-    private void calcG() {
-        G.clear();
-        G2.clear();
-        for (int i = 0; i < Efij.length; ++i) {
-            Efij[i] = null;
+        @Override
+        public void prepare(int n, int d, int v) {
+            // nothing is stored
         }
-        for (DynamicFactorModel.MeasurementDescriptor desc : dfm.getMeasurements()) {
-            DynamicFactorModel.MeasurementType type = DynamicFactorModel.
-                    getMeasurementType(desc.type);
-            if (!G.containsKey(type)) {
-                int len = desc.type.getLength();
-                DataBlock z = new DataBlock(len);
-                desc.type.fill(z);
-                int nf = dfm.getFactorsCount();
-                DataBlock[] g = new DataBlock[nf];
-                Table<DataBlock> g2 = new Table<>(nf, nf);
-                int nb = dfm.getBlockLength();
+
+        @Override
+        public void save(int pos, DataBlock a, Matrix p) {
+            S.addXaXt(1, a);
+            S.add(p);
+            if (pos == 0) {
+                S0.addXaXt(1, a);
+                S0.add(p);
+            }
+            int nf = dfm.getFactorsCount(), nb = dfm.getBlockLength();
+            for (DynamicFactorModel.MeasurementType type : z.keySet()) {
+                DataBlock zt = z.get(type), gt = g.get(type);
+                Matrix g2t = g2.get(type);
+                int len = zt.getLength();
                 for (int i = 0, j = 0; i < nf; ++i, j += nb) {
-                    DataBlock column = new DataBlock(dataSize);
-                    for (int k = 0; k < len; ++k) {
-                        column.addAY(z.get(k), ef(j + k));
-                    }
-                    g[i] = column;
+                    gt.set(i, zt.dot(a.range(j, j + len)));
                 }
                 for (int i = 0, j = 0; i < nf; ++i, j += nb) {
                     for (int k = 0, l = 0; k <= i; ++k, l += nb) {
-                        DataBlock column2 = new DataBlock(dataSize);
+                        double x = gt.get(i) * gt.get(k);
                         for (int pr = 0; pr < len; ++pr) {
-                            double zr = z.get(pr);
+                            double zr = zt.get(pr);
                             if (zr != 0) {
                                 for (int pc = 0; pc < len; ++pc) {
-                                    double zc = z.get(pc);
+                                    double zc = zt.get(pc);
                                     if (zc != 0) {
-                                        column2.addAY(zr * zc, vf(j + pr, l + pc));
+                                        x += zr * zc * p.get(j + pr, l + pc);
                                     }
                                 }
                             }
                         }
-                        column2.addAXY(1, g[i], g[k]);
-                        g2.set(i, k, column2);
-                        if (i != k) {
-                            g2.set(k, i, column2);
-                        }
-
+                        g2t.set(i, k, x);
+                        g2t.set(k, i, x);
                     }
                 }
-
-                G.put(type, g);
-                G2.put(type, g2);
+            }
+            for (int i = 0; i < types.length; ++i) {
+                double y = M.get(pos, i);
+                if (!Double.isNaN(y)) {
+                    yy[i] += y * y;
+                    ++nobs[i];
+                    gy[i].addAY(y, g.get(types[i]));
+                    gg[i].add(g2.get(types[i]));
+                }
             }
         }
     }
@@ -189,7 +306,6 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
         }
         modelSize = dfm.getBlockLength() * dfm.getFactorsCount();
         dataSize = data.getCurrentDomain().getLength();
-        Efij = new DataBlock[modelSize * modelSize];
         M = data.generateMatrix(null);
         if (initializer != null) {
             initializer.initialize(dfm, data);
@@ -197,12 +313,28 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
         iter_ = 0;
         ll_ = 0;
         filter(true);
-        while (iter_++ < maxiter_) {
-            if (!EStep()) {
-                break;
+        if (nthreads_ > 1 && dfm.getMeasurementsCount() >= MIN_PARALLEL) {
+            pool_ = new ForkJoinPool(nthreads_);
+        }
+        try {
+            if (accelerated_) {
+                while (iter_ < maxiter_) {
+                    if (!squarem()) {
+                        break;
+                    }
+                }
+            } else {
+                while (iter_ < maxiter_) {
+                    if (!emStep()) {
+                        break;
+                    }
+                }
             }
-            if (!MStep()) {
-                break;
+        } finally {
+            if (pool_ != null) {
+                // the tasks of an interrupted M-step are stopped
+                pool_.shutdownNow();
+                pool_ = null;
             }
         }
 
@@ -215,6 +347,124 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
         return true;
     }
 
+    private boolean emStep() {
+        ++iter_;
+        return EStep() && MStep();
+    }
+
+    /**
+     * One cycle of the SQUAREM algorithm (Varadhan and Roland, 2008, scheme
+     * S3): p1 = EM(p0), p2 = EM(p1), r = p1-p0, v = p2-2*p1+p0, p = p0 -
+     * 2*a*r + a*a*v, with a = -|r|/|v|. The step is halved (towards the EM
+     * solution p2) when the new model is not valid or when its likelihood is
+     * smaller than the likelihood of p1.
+     *
+     * @return False if the iterations must be stopped
+     */
+    private boolean squarem() {
+        double[] p0 = parameters(dfm);
+        if (!emStep()) {
+            return false;
+        }
+        double[] p1 = parameters(dfm);
+        if (iter_ >= maxiter_ || !emStep()) {
+            return false;
+        }
+        // ll_ is the likelihood of p1
+        double[] p2 = parameters(dfm);
+        double[] r = new double[p0.length], v = new double[p0.length];
+        double rr = 0, vv = 0;
+        for (int i = 0; i < p0.length; ++i) {
+            r[i] = p1[i] - p0[i];
+            v[i] = p2[i] - 2 * p1[i] + p0[i];
+            rr += r[i] * r[i];
+            vv += v[i] * v[i];
+        }
+        if (vv == 0) {
+            return true;
+        }
+        double alpha = -Math.sqrt(rr / vv);
+        double[] p = new double[p0.length];
+        for (int k = 0; k < MAX_BACKTRACK && alpha < -1; ++k) {
+            for (int i = 0; i < p.length; ++i) {
+                p[i] = p0[i] - 2 * alpha * r[i] + alpha * alpha * v[i];
+            }
+            DynamicFactorModel m = dfm.clone();
+            setParameters(m, p);
+            if (m.isValid()) {
+                double ll = loglikelihood(m);
+                if (!Double.isNaN(ll) && ll >= ll_) {
+                    dfm = m;
+                    return true;
+                }
+            }
+            alpha = (alpha - 1) / 2;
+        }
+        // p2 (EM)
+        return true;
+    }
+
+    /**
+     * Parameters of the model used in the extrapolation: the loadings
+     * (without the unused ones), the idiosyncratic variances, the VAR
+     * parameters and the covariance of the innovations
+     *
+     * @param model
+     * @return
+     */
+    private static double[] parameters(DynamicFactorModel model) {
+        int n = 0;
+        for (DynamicFactorModel.MeasurementDescriptor desc : model.getMeasurements()) {
+            n += desc.getUsedFactorsCount() + 1;
+        }
+        double[] v = model.getTransition().varParams.internalStorage();
+        double[] q = model.getTransition().covar.internalStorage();
+        double[] p = new double[n + v.length + q.length];
+        int pos = 0;
+        for (DynamicFactorModel.MeasurementDescriptor desc : model.getMeasurements()) {
+            for (int j = 0; j < desc.coeff.length; ++j) {
+                if (!Double.isNaN(desc.coeff[j])) {
+                    p[pos++] = desc.coeff[j];
+                }
+            }
+            p[pos++] = desc.var;
+        }
+        System.arraycopy(v, 0, p, pos, v.length);
+        pos += v.length;
+        System.arraycopy(q, 0, p, pos, q.length);
+        return p;
+    }
+
+    private static void setParameters(DynamicFactorModel model, double[] p) {
+        int pos = 0;
+        for (DynamicFactorModel.MeasurementDescriptor desc : model.getMeasurements()) {
+            for (int j = 0; j < desc.coeff.length; ++j) {
+                if (!Double.isNaN(desc.coeff[j])) {
+                    desc.coeff[j] = p[pos++];
+                }
+            }
+            desc.var = p[pos++];
+        }
+        double[] v = model.getTransition().varParams.internalStorage();
+        System.arraycopy(p, pos, v, 0, v.length);
+        pos += v.length;
+        double[] q = model.getTransition().covar.internalStorage();
+        System.arraycopy(p, pos, q, 0, q.length);
+    }
+
+    private double loglikelihood(DynamicFactorModel model) {
+        try {
+            MFilter filter = new MFilter();
+            MPredictionErrorDecomposition results = new MPredictionErrorDecomposition(false);
+            filter.process(model.ssfRepresentation(), new MultivariateSsfData(M.subMatrix().transpose(), null), results);
+            Likelihood ll = new Likelihood();
+            evaluate(results, ll);
+            return ll.getLogLikelihood();
+        } catch (RuntimeException err) {
+            return Double.NaN;
+        }
+    }
+
     private void filter(boolean adjust) {
         try {
             MFilter filter = new MFilter();
@@ -232,11 +482,22 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
     }
 
     private boolean EStep() {
-        if (!processor.process(dfm, data)) {
+        MSmoother smoother = new MSmoother();
+        smoother.setCalcVariance(true);
+        smoother.setCheckpointPeriod(cperiod_ >= 0 ? cperiod_
+                : MFilteringResults.checkpointPeriod(dfm.getFactorsCount() * dfm.getBlockLength(),
+                        dfm.getMeasurementsCount(), M.getRowsCount()));
+        Moments cur = new Moments();
+        try {
+            if (!smoother.process(dfm.ssfRepresentation(), new MultivariateSsfData(M.subMatrix().transpose(), null), cur)) {
+                return false;
+            }
+        } catch (RuntimeException err) {
             return false;
         }
+        moments = cur;
         Likelihood ll = new Likelihood();
-        evaluate(processor.getFilteringResults(), ll);
+        evaluate(smoother.getFilteringResults(), ll);
         if (iter_ > 1 && Math.abs(ll_ - ll.getLogLikelihood()) < eps_) {
             return false;
         }
@@ -247,7 +508,6 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
         if (hinfo.cancel) {
             return false;
         }
-        calcG();
         return true;
     }
 
@@ -260,7 +520,12 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
 
     private boolean MStep() {
         DynamicFactorModel tmp = dfm.clone();
-        mloadings();
+        if (!mloadings()) {
+            // interrupted. The tasks that are still running only modify
+            // the discarded model
+            dfm = tmp;
+            return false;
+        }
         if (all_) {
             mvar();
         }
@@ -272,83 +537,85 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
         }
     }
 
-    private void mloadings() {
-        // maximise loading
-        int i = 0;
-        for (DynamicFactorModel.MeasurementDescriptor mdesc
-                : dfm.getMeasurements()) {
-            DynamicFactorModel.MeasurementType type = DynamicFactorModel.
-                    getMeasurementType(mdesc.type);
-            DataBlock[] g = G.get(type);
-            Table<DataBlock> g2 = G2.get(type);
-            DataBlock y = M.column(i++);
-            int nobs = 0;
-            for (int k = 0; k < dataSize; ++k) {
-                if (!Double.isNaN(y.get(k))) {
-                    ++nobs;
-                }
+    /**
+     * Maximises the loadings
+     *
+     * @return False if the (parallel) processing has been interrupted. The
+     * model can then be partially modified
+     */
+    private boolean mloadings() {
+        // maximise loading. The regressions are independent
+        List<DynamicFactorModel.MeasurementDescriptor> mdesc = dfm.getMeasurements();
+        if (pool_ == null) {
+            for (int i = 0; i < mdesc.size(); ++i) {
+                mloading(i, mdesc.get(i));
             }
-            double[] gy = new double[mdesc.getUsedFactorsCount()];
-            Matrix G2 = new Matrix(gy.length, gy.length);
-            for (int j = 0, u = 0; j < mdesc.coeff.length; ++j) {
-                if (!Double.isNaN(mdesc.coeff[j])) {
-                    DataBlock gj = g[j];
-                    for (int z = 0; z < dataSize; ++z) {
-                        double yz = y.get(z);
-                        if (!Double.isNaN(yz)) {
-                            gy[u] += gj.get(z) * yz;
-                        }
-                    }
-                    for (int k = 0, v = 0; k <= j; ++k) {
-                        if (!Double.isNaN(mdesc.coeff[k])) {
-                            double x = 0;
-                            DataBlock g2jk = g2.get(j, k);
-                            for (int z = 0; z < dataSize; ++z) {
-                                double yz = y.get(z);
-                                if (!Double.isNaN(yz)) {
-                                    x += g2jk.get(z);
-                                }
-                            }
-                            G2.set(u, v, x);
-                            ++v;
-                        }
+            return true;
+        }
+        try {
+            pool_.submit(() -> IntStream.range(0, mdesc.size()).parallel()
+                    .forEach(i -> mloading(i, mdesc.get(i)))).get();
+            return true;
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException err) {
+            Throwable cause = err.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new DfmException("EM: loadings", err);
+            }
+        }
+    }
+
+    private void mloading(int i, DynamicFactorModel.MeasurementDescriptor mdesc) {
+        DataBlock g = moments.gy[i];
+        Matrix g2 = moments.gg[i];
+        double yy = moments.yy[i];
+        int nobs = moments.nobs[i];
+        double[] gy = new double[mdesc.getUsedFactorsCount()];
+        Matrix G2 = new Matrix(gy.length, gy.length);
+        for (int j = 0, u = 0; j < mdesc.coeff.length; ++j) {
+            if (!Double.isNaN(mdesc.coeff[j])) {
+                gy[u] = g.get(j);
+                for (int k = 0, v = 0; k <= j; ++k) {
+                    if (!Double.isNaN(mdesc.coeff[k])) {
+                        G2.set(u, v, g2.get(j, k));
+                        ++v;
                     }
-                    ++u;
                 }
+                ++u;
             }
-            SymmetricMatrix.fromLower(G2);
-            // C = G/GG or C * GG = G 
-            SymmetricMatrix.solve(G2, new DataBlock(gy), false);
-            for (int j = 0, u = 0; j < mdesc.coeff.length; ++j) {
-                if (!Double.isNaN(mdesc.coeff[j])) {
-                    mdesc.coeff[j] = gy[u++];
-                }
+        }
+        SymmetricMatrix.fromLower(G2);
+        // C = G/GG or C * GG = G 
+        SymmetricMatrix.solve(G2, new DataBlock(gy), false);
+        for (int j = 0, u = 0; j < mdesc.coeff.length; ++j) {
+            if (!Double.isNaN(mdesc.coeff[j])) {
+                mdesc.coeff[j] = gy[u++];
             }
-            double ee = 0;
-            for (int z = 0; z < dataSize; ++z) {
-                double yz = y.get(z);
-                if (!Double.isNaN(yz)) {
-                    ee += yz * yz;
-                    for (int j = 0; j < mdesc.coeff.length; ++j) {
-                        double cj = mdesc.coeff[j];
-                        if (!Double.isNaN(cj)) {
-                            double gj = g[j].get(z);
-                            ee -= 2 * cj * gj * yz;
-                            for (int k = 0; k < mdesc.coeff.length; ++k) {
-                                double ck = mdesc.coeff[k];
-                                if (!Double.isNaN(ck)) {
-                                    ee += g2.get(j, k).get(z) * cj * ck;
-                                }
-                            }
-                        }
+        }
+        // ee = sum(y*y) - 2 * c'sum(g*y) + c'sum(g*g')c
+        double ee = yy;
+        for (int j = 0; j < mdesc.coeff.length; ++j) {
+            double cj = mdesc.coeff[j];
+            if (!Double.isNaN(cj)) {
+                ee -= 2 * cj * g.get(j);
+                for (int k = 0; k < mdesc.coeff.length; ++k) {
+                    double ck = mdesc.coeff[k];
+                    if (!Double.isNaN(ck)) {
+                        ee += g2.get(j, k) * cj * ck;
                     }
                 }
             }
-            if (ee < 0) {
-                mdesc.var = 1e-12;
-            } else {
-                mdesc.var = ee / nobs;
-            }
+        }
+        if (ee < 0) {
+            mdesc.var = 1e-12;
+        } else {
+            mdesc.var = ee / nobs;
         }
     }
 
@@ -364,7 +631,7 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
         for (int i = 0; i < nf; ++i) {
             for (int j = 0; j < nl; ++j) {
                 for (int k = 0; k < nf; ++k) {
-                    double x = ef(i * blen, k * blen + j + 1).sum();
+                    double x = ef(i * blen, k * blen + j + 1);
                     f.set(i, j * nf + k, x);
                 }
             }
@@ -373,7 +640,7 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
             for (int k = 0; k < nf; ++k, ++r) {
                 for (int j = 1, c = 0; j <= nl; ++j) {
                     for (int l = 0; l < nf; ++l, ++c) {
-                        double x = ef(k * blen + i, l * blen + j).sum();
+                        double x = ef(k * blen + i, l * blen + j);
                         f2.set(r, c, x);
                     }
                 }
@@ -399,7 +666,7 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
         Matrix Q = dfm.getTransition().covar;
         for (int i = 0; i < nf; ++i) {
             for (int j = 0; j <= i; ++j) {
-                Q.set(i, j, ef(i * blen, j * blen).sum());
+                Q.set(i, j, ef(i * blen, j * blen));
             }
         }
         SymmetricMatrix.fromLower(Q);
@@ -450,7 +717,7 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
                 for (int k = 0; k < nc; ++k) {
                     for (int j = 0; j < nf; ++j) {
                         for (int l = 0; l < nc; ++l) {
-                            double v = ef(i * n + k + del, j * n + l + del).get(0);
+                            double v = ef0(i * n + k + del, j * n + l + del);
                             K0.set(i * nc + k, j * nc + l, v);
                         }
                     }
@@ -479,10 +746,10 @@ public class DfmEM2 extends ProcessingHookProvider<DfmEM2, DynamicFactorModel> i
             Matrix K = new Matrix(n, n);
             for (int k = 0; k < n; ++k) {
                 for (int l = 0; l < n; ++l) {
-                    double s = ef(i + k * len, j + l * len).sum();
+                    double s = ef(i + k * len, j + l * len);
 //                    // add first ef...
                     for (int u = 1; u < len - dfm.getTransition().nlags; ++u) {
-                        s += ef(i + u + k * len, j + u + l * len).get(0);
+                        s += ef0(i + u + k * len, j + u + l * len);
                     }
                     K.set(k, l, s);
                 }
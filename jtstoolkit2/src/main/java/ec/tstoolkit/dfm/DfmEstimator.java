@@ -24,15 +24,21 @@ import ec.tstoolkit.data.IReadDataBlock;
 import ec.tstoolkit.eco.Likelihood;
 import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.maths.realfunctions.IFunctionMinimizer;
+import ec.tstoolkit.maths.realfunctions.IParametricMapping;
 import ec.tstoolkit.maths.realfunctions.ISsqFunctionMinimizer;
 import ec.tstoolkit.maths.realfunctions.ProxyMinimizer;
 import ec.tstoolkit.maths.realfunctions.levmar.LevenbergMarquardtMethod;
+import ec.tstoolkit.mssf2.CollapsedMSsfAlgorithm;
+import ec.tstoolkit.mssf2.IMSsf;
+import ec.tstoolkit.mssf2.IMSsfAlgorithm;
 import ec.tstoolkit.mssf2.IMSsfData;
 import ec.tstoolkit.mssf2.MSsfAlgorithm;
 import ec.tstoolkit.mssf2.MSsfFunction;
 import ec.tstoolkit.mssf2.MSsfFunctionInstance;
 import ec.tstoolkit.mssf2.MultivariateSsfData;
 import ec.tstoolkit.timeseries.simplets.TsDomain;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  *
@@ -48,9 +54,11 @@ public class DfmEstimator implements IDfmEstimator {
     private final IFunctionMinimizer min_;
     private int nstart_ = 15, nnext_ = 5;
     private TsDomain idom_;
-    private boolean useBlockIterations_ = true, mixed_ = true;
+    private boolean useBlockIterations_ = true, mixed_ = true, collapsed_, analytical_;
     private Likelihood ll_;
     private DataBlock factors_;
+    private int nthreads_ = 1;
+    private ExecutorService executor_;
 
     public DfmEstimator() {
         min_ = new ProxyMinimizer(new LevenbergMarquardtMethod());
@@ -116,6 +124,45 @@ public class DfmEstimator implements IDfmEstimator {
         mixed_ = b;
     }
 
+    public boolean isCollapsedFiltering() {
+        return collapsed_;
+    }
+
+    public void setCollapsedFiltering(boolean c) {
+        collapsed_ = c;
+    }
+
+    public boolean isAnalyticalGradient() {
+        return analytical_;
+    }
+
+    /**
+     * Uses the exact score of the likelihood (see DfmScore) in gradient-based
+     * optimizers. Levenberg-Marquardt still uses the numerical jacobian of
+     * the residuals
+     *
+     * @param a
+     */
+    public void setAnalyticalGradient(boolean a) {
+        analytical_ = a;
+    }
+
+    public int getThreadsCount() {
+        return nthreads_;
+    }
+
+    /**
+     * Number of threads used in the computation of the numerical derivatives
+     *
+     * @param n
+     */
+    public void setThreadsCount(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException();
+        }
+        nthreads_ = n;
+    }
+
     public boolean isIndependentVarShocks() {
         return this.vunits_;
     }
@@ -140,6 +187,16 @@ public class DfmEstimator implements IDfmEstimator {
         }
     }
 
+    private IMSsfAlgorithm algorithm() {
+        if (collapsed_) {
+            return new CollapsedMSsfAlgorithm();
+        } else {
+            MSsfAlgorithm algorithm = new MSsfAlgorithm();
+            algorithm.useSteadyState(true);
+            return algorithm;
+        }
+    }
+
     private void normalize(DynamicFactorModel model) {
         if (vunits_) {
             model.lnormalize();
@@ -155,11 +212,18 @@ public class DfmEstimator implements IDfmEstimator {
             return new DfmMapping(model, mf, vf);
     }
 
+    private MSsfFunction function(IMSsfData mdata, IParametricMapping<IMSsf> mapping, IMSsfAlgorithm algorithm) {
+        MSsfFunction fn = analytical_ ? new DfmFunction(mdata, mapping, algorithm)
+                : new MSsfFunction(mdata, mapping, algorithm);
+        fn.setExecutor(executor_);
+        return fn;
+    }
+
     @Override
     public boolean estimate(final DynamicFactorModel dfm, TsInformationSet input) {
         converged_ = false;
         Matrix m = input.generateMatrix(idom_);
-        MSsfAlgorithm algorithm = new MSsfAlgorithm();
+        IMSsfAlgorithm algorithm = algorithm();
         IMSsfData mdata = new MultivariateSsfData(m.subMatrix().transpose(), null);
         MSsfFunction fn;
         IDfmMapping mapping;
@@ -167,13 +231,16 @@ public class DfmEstimator implements IDfmEstimator {
         int niter = 0;
         DynamicFactorModel model = dfm.clone();
         normalize(model);
+        if (nthreads_ > 1) {
+            executor_ = Executors.newFixedThreadPool(nthreads_);
+        }
         try {
             if (nstart_ > 0) {
                 setMessage(SIMPLIFIED);
                 min_.setMaxIter(nstart_);
                 SimpleDfmMapping smapping = new SimpleDfmMapping(model);
                 smapping.validate(model);
-                fn = new MSsfFunction(mdata, smapping, algorithm);
+                fn = function(mdata, smapping, algorithm);
                 min_.minimize(fn, fn.evaluate(smapping.map(model)));
                 pt = (MSsfFunctionInstance) min_.getResult();
                 double var = pt.getLikelihood().getSigma();
@@ -188,7 +255,7 @@ public class DfmEstimator implements IDfmEstimator {
                 while (true) {
                     normalize(model);
                     mapping =mapping(model, true, false);
-                    fn = new MSsfFunction(mdata, mapping, algorithm);
+                    fn = function(mdata, mapping, algorithm);
                     setMessage(VSTEP);
                     min_.minimize(fn, fn.evaluate(mapping.map(model)));
                     niter += min_.getIterCount();
@@ -205,7 +272,7 @@ public class DfmEstimator implements IDfmEstimator {
                         em.initialize(model, input);
                     } else {
                         mapping = mapping(model, false, true);
-                        fn = new MSsfFunction(mdata, mapping, algorithm);
+                        fn = function(mdata, mapping, algorithm);
                         setMessage(MSTEP);
                         min_.minimize(fn, fn.evaluate(mapping.map(model)));
                         niter += min_.getIterCount();
@@ -218,7 +285,7 @@ public class DfmEstimator implements IDfmEstimator {
 
                     }
                     mapping = mapping(model, false, false);
-                    fn = new MSsfFunction(mdata, mapping, algorithm);
+                    fn = function(mdata, mapping, algorithm);
                     setMessage(ALL);
                     converged_ = min_.minimize(fn, fn.evaluate(mapping.map(model)))
                             && min_.getIterCount() < nnext_;
@@ -237,7 +304,7 @@ public class DfmEstimator implements IDfmEstimator {
             } else {
                 normalize(model);
                 mapping =mapping(model, false, false);
-                fn = new MSsfFunction(mdata, mapping, algorithm);
+                fn = function(mdata, mapping, algorithm);
                 min_.setMaxIter(maxiter_);
                 setMessage(ALL);
                 converged_ = min_.minimize(fn, fn.evaluate(mapping.map(model)));
@@ -251,6 +318,10 @@ public class DfmEstimator implements IDfmEstimator {
         } catch (Exception err) {
             return false;
         } finally {
+            if (executor_ != null) {
+                executor_.shutdownNow();
+                executor_ = null;
+            }
             normalize(model);
             dfm.copy(model);
             IDfmMapping fmapping = mapping(model, false, false);
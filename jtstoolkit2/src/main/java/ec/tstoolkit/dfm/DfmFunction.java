@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit.dfm;
+
+import ec.tstoolkit.maths.realfunctions.IFunctionDerivatives;
+import ec.tstoolkit.maths.realfunctions.IFunctionInstance;
+import ec.tstoolkit.maths.realfunctions.IParametricMapping;
+import ec.tstoolkit.mssf2.IMSsf;
+import ec.tstoolkit.mssf2.IMSsfAlgorithm;
+import ec.tstoolkit.mssf2.IMSsfData;
+import ec.tstoolkit.mssf2.MSsfFunction;
+import ec.tstoolkit.mssf2.MSsfFunctionInstance;
+
+/**
+ * Likelihood function of a dynamic factor model, with analytical derivatives
+ * (see DfmAnalyticalDerivatives). The mapping must generate
+ * DynamicFactorModel.Ssf objects.
+ */
+public class DfmFunction extends MSsfFunction<IMSsf> {
+
+    public DfmFunction(IMSsfData data, IParametricMapping<IMSsf> mapper,
+            IMSsfAlgorithm algorithm) {
+        super(data, mapper, algorithm);
+    }
+
+    @Override
+    public IFunctionDerivatives getDerivatives(IFunctionInstance point) {
+        MSsfFunctionInstance<IMSsf> pt = (MSsfFunctionInstance<IMSsf>) point;
+        if (DfmScore.canHandle(((DynamicFactorModel.Ssf) pt.ssf).getModel())) {
+            return new DfmAnalyticalDerivatives(this, pt);
+        } else {
+            return super.getDerivatives(point);
+        }
+    }
+}
@@ -23,10 +23,7 @@ import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.maths.matrices.SymmetricMatrix;
 import ec.tstoolkit.mssf2.IMSsf;
 import ec.tstoolkit.mssf2.MFilter;
-import ec.tstoolkit.mssf2.MFilteringResults;
-import ec.tstoolkit.mssf2.MSmoother;
 import ec.tstoolkit.mssf2.MSmoothingResults;
-import ec.tstoolkit.mssf2.MultivariateSsfData;
 import ec.tstoolkit.timeseries.information.TsInformationSet;
 import ec.tstoolkit.timeseries.information.TsInformationUpdates;
 import ec.tstoolkit.timeseries.information.TsInformationUpdates.Update;
@@ -34,12 +31,19 @@ import ec.tstoolkit.timeseries.simplets.TsData;
 import ec.tstoolkit.timeseries.simplets.TsDomain;
 import ec.tstoolkit.timeseries.simplets.TsFrequency;
 import ec.tstoolkit.timeseries.simplets.TsPeriod;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Computation of the news (See Banbura an Modagno, appendix D of the reference
  * paper for further details)
  *
+ * The computation of the news (process) and the weights, which are cached,
+ * are synchronized: the weights of a processed instance may be requested
+ * from several threads.
+ *
  * @author Jean Palate
  */
 public class DfmNews {
@@ -53,6 +57,11 @@ public class DfmNews {
     private TsInformationUpdates updates_;
     private Matrix mcov_, lcov_;
     private Matrix mcovRev_, lcovRev_;
+    // projections of the covariance of the states on the updates (W*V)
+    private Matrix wvnews_, wvrev_;
+    // weights already computed, by series and by period (guarded by this)
+    private final Map<Integer, Map<TsPeriod, DataBlock>> wcache_ = new HashMap<>(),
+            wrevcache_ = new HashMap<>();
     private TsPeriod first_, last_;
 
     private int ext_ = 2;
@@ -69,6 +78,8 @@ public class DfmNews {
 
     private TsDomain iDomain0_, iDomain1_;
 
+    private DfmSmoothingCache cache_ = new DfmSmoothingCache();
+
     /**
      *
      * @param model
@@ -78,6 +89,22 @@ public class DfmNews {
         ssf_ = model_.ssfRepresentation();
     }
 
+    /**
+     * Sets the cache used for the smoothing passes. The same cache can be
+     * shared by several news computations (for instance news, revisions and
+     * news and revisions of a given version). By default, each instance uses
+     * its own cache.
+     *
+     * @param cache
+     */
+    public void setSmoothingCache(DfmSmoothingCache cache) {
+        cache_ = cache == null ? new DfmSmoothingCache() : cache;
+    }
+
+    public DfmSmoothingCache getSmoothingCache() {
+        return cache_;
+    }
+
     public TsInformationSet getOldInformationSet() {
         return this.oldset_;
     }
@@ -115,7 +142,7 @@ public class DfmNews {
      * @param newSet The new information set
      * @return True if the news have been successfully computed
      */
-    public boolean process(TsInformationSet oldSet, TsInformationSet newSet) {
+    public synchronized boolean process(TsInformationSet oldSet, TsInformationSet newSet) {
         oldset_ = oldSet;
         newset_ = newSet;
         revisedset_ = oldset_.revisedData(newset_);
@@ -136,6 +163,10 @@ public class DfmNews {
     }
 
     private boolean calcNews() {
+        wcache_.clear();
+        wrevcache_.clear();
+        wvnews_ = null;
+        wvrev_ = null;
         // Calculates News
         computeNewsDomain();
 
@@ -187,7 +218,7 @@ public class DfmNews {
         return ext_;
     }
 
-    public void setMaxNewsExtensionPeriod(int n) {
+    public synchronized void setMaxNewsExtensionPeriod(int n) {
         if (n != ext_) {
             ext_ = n;
             calcNews();
@@ -213,10 +244,7 @@ public class DfmNews {
         nDomain_ = updates_.updatesDomain(fullDomain_.getFrequency(), updates_.news());
         for (int i = 0; i < revisedset_.getSeriesCount(); ++i) {
             TsData s = revisedset_.series(i);
-            int j = s.getLength();
-            while (j > 0 && s.isMissing(j - 1)) {
-                --j;
-            }
+            int j = revisedset_.getLastValidPosition(i) + 1;
             TsPeriod last = s.getStart().plus(j).lastPeriod(nDomain_.getFrequency());
             // n = missing values between the last observation and the first news
             int n = nDomain_.getStart().minus(last);
@@ -235,10 +263,7 @@ public class DfmNews {
         rDomain_ = updates_.updatesDomain(fullDomain_.getFrequency(), updates_.revisions());
         for (int i = 0; i < revisedset_.getSeriesCount(); ++i) {
             TsData s = revisedset_.series(i);
-            int j = s.getLength();
-            while (j > 0 && s.isMissing(j - 1)) {
-                --j;
-            }
+            int j = revisedset_.getLastValidPosition(i) + 1;
             TsPeriod last = s.getStart().plus(j).lastPeriod(rDomain_.getFrequency());
             int n = rDomain_.getStart().minus(last);
             if (n > 0 && ext_ != 0) {
@@ -258,36 +283,18 @@ public class DfmNews {
      * @param M
      */
     private boolean smoothOldData(Matrix M) {
-        MultivariateSsfData ssfData = new MultivariateSsfData(M.subMatrix().transpose(), null);
-        MSmoother smoother = new MSmoother();
-        srslts0_ = new MSmoothingResults();
-        int last = fullDomain_.search(iDomain0_.getStart());
-        srslts0_.setSavingStart(last);
-        smoother.setStopPosition(last);
-        smoother.setCalcVariance(false);
-        return smoother.process(ssf_, ssfData, srslts0_);
+        srslts0_ = cache_.getSmoothedStates(model_, M, fullDomain_.search(iDomain0_.getStart()));
+        return srslts0_ != null;
     }
 
     private boolean smoothNewData(Matrix M) {
-        MultivariateSsfData ssfData = new MultivariateSsfData(M.subMatrix().transpose(), null);
-        MSmoother smoother = new MSmoother();
-        srslts1_ = new MSmoothingResults();
-        int last = fullDomain_.search(iDomain1_.getStart());
-        srslts1_.setSavingStart(last);
-        smoother.setStopPosition(last);
-        smoother.setCalcVariance(false);
-        return smoother.process(ssf_, ssfData, srslts1_);
+        srslts1_ = cache_.getSmoothedStates(model_, M, fullDomain_.search(iDomain1_.getStart()));
+        return srslts1_ != null;
     }
     
     private boolean smoothRevData(Matrix M) {
-        MultivariateSsfData ssfData = new MultivariateSsfData(M.subMatrix().transpose(), null);
-        MSmoother smoother = new MSmoother();
-        srslts01_ = new MSmoothingResults();
-        int last = fullDomain_.search(iDomain0_.getStart());
-        srslts01_.setSavingStart(last);
-        smoother.setStopPosition(last);
-        smoother.setCalcVariance(false);
-        return smoother.process(ssf_, ssfData, srslts01_);
+        srslts01_ = cache_.getSmoothedStates(model_, M, fullDomain_.search(iDomain0_.getStart()));
+        return srslts01_ != null;
     }
 
     /**
@@ -319,20 +326,7 @@ public class DfmNews {
         // extends the model
         modelex_ = model_.clone();
         modelex_.setBlockLength(model_.getBlockLength() + last_.minus(nDomain_.getStart()) + 1);
-        int last = fullDomain_.getLength() - 1;
-        IMSsf ssf = modelex_.ssfRepresentation();
-        MFilteringResults frslts = new MFilteringResults();
-        frslts.saveAll(last);
-        MFilter filter = new MFilter();
-        MultivariateSsfData ssfData = new MultivariateSsfData(M.subMatrix().transpose(), null);
-        filter.process(ssf, ssfData, frslts);
-        MSmoother smoother = new MSmoother();
-        smoother.setStopPosition(last);
-        smoother.setCalcVariance(true);
-        MSmoothingResults srslts = new MSmoothingResults();
-        srslts.setSavingStart(last);
-        smoother.process(ssf, ssfData, frslts, srslts);
-        mcov_ = new Matrix(srslts.P(last));
+        mcov_ = cache_.getLastStateCovariance(model_, modelex_.getBlockLength(), M);
         return true;
     }
 
@@ -340,20 +334,7 @@ public class DfmNews {
         // extends the model
         modelexRev_ = model_.clone();
         modelexRev_.setBlockLength(model_.getBlockLength() + last_.minus(rDomain_.getStart()) + 1);
-        int last = fullDomain_.getLength() - 1;
-        IMSsf ssf = modelexRev_.ssfRepresentation();
-        MFilteringResults frslts = new MFilteringResults();
-        frslts.saveAll(last);
-        MFilter filter = new MFilter();
-        MultivariateSsfData ssfData = new MultivariateSsfData(M.subMatrix().transpose(), null);
-        filter.process(ssf, ssfData, frslts);
-        MSmoother smoother = new MSmoother();
-        smoother.setStopPosition(last);
-        smoother.setCalcVariance(true);
-        MSmoothingResults srslts = new MSmoothingResults();
-        srslts.setSavingStart(last);
-        smoother.process(ssf, ssfData, frslts, srslts);
-        mcovRev_ = new Matrix(srslts.P(last));
+        mcovRev_ = cache_.getLastStateCovariance(model_, modelexRev_.getBlockLength(), M);
         return true;
     }
 
@@ -386,93 +367,77 @@ public class DfmNews {
     }
 
     private void computeNewsCovariance() {
+        List<Update> news = updates_.news();
+        Matrix W = projections(news, modelex_.getBlockLength(), mcov_.getRowsCount());
+        wvnews_ = product(W, mcov_);
+        lcov_ = computeCovariance(news, W, wvnews_);
+    }
+
+    private void computeRevisionsCovariance() {
+        List<Update> revisions = updates_.revisions();
+        Matrix W = projections(revisions, modelexRev_.getBlockLength(), mcovRev_.getRowsCount());
+        wvrev_ = product(W, mcovRev_);
+        lcovRev_ = computeCovariance(revisions, W, wvrev_);
+    }
+
+    /**
+     * Projects each update through its measurement row into the state space
+     * of the extended model (row i of the result)
+     *
+     * @param updates The updates
+     * @param xc The block length of the extended model
+     * @param dx The state dimension of the extended model
+     * @return
+     */
+    private Matrix projections(List<Update> updates, int xc, int dx) {
         TsFrequency freq = last_.getFrequency();
-        List<Update> updates = updates_.news();
-        int n = updates.size();
+        Matrix W = new Matrix(updates.size(), dx);
+        DataBlock z = new DataBlock(ssf_.getStateDim());
+        for (int i = 0; i < updates.size(); ++i) {
+            Update update = updates.get(i);
+            project(update.series, last_.minus(update.period.lastPeriod(freq)), xc, z, W.row(i));
+        }
+        return W;
+    }
+
+    private void project(int series, int start, int xc, DataBlock z, DataBlock w) {
         int c = model_.getBlockLength();
-        int xc = modelex_.getBlockLength();
         int nb = model_.getFactorsCount();
-        lcov_ = new Matrix(n, n);
-        int d = ssf_.getStateDim();
-        Matrix V = new Matrix(d, d);
-        DataBlockIterator vcols = V.columns();
-        DataBlock vcol = vcols.getData();
-        DataBlock tmp = new DataBlock(d);
-        for (int i = 0; i < n; ++i) {
-            Update iupdate = updates.get(i);
-            int istart = last_.minus(iupdate.period.lastPeriod(freq));
-            for (int j = 0; j <= i; ++j) {
-                Update jupdate = updates.get(j);
-                // copy the right covariance
-                int jstart = last_.minus(jupdate.period.lastPeriod(freq));
-                V.set(0);
-                for (int r = 0; r < nb; ++r) {
-                    for (int s = 0; s < nb; ++s) {
-                        V.subMatrix(r * c, r * c + c, s * c, s * c + c).copy(
-                                mcov_.subMatrix(r * xc + istart, r * xc + istart + c,
-                                        s * xc + jstart, s * xc + jstart + c));
-                    }
-                }
-
-                tmp.set(0);
-                vcols.begin();
-                do {
-                    tmp.set(vcols.getPosition(), ssf_.ZX(0, iupdate.series, vcol));
-                } while (vcols.next());
-                double q = ssf_.ZX(0, jupdate.series, tmp);
-                if (i == j) {
-                    q += model_.getMeasurements().get(iupdate.series).var;
-                }
-                lcov_.set(i, j, q);
-            }
+        z.set(0);
+        ssf_.Z(0, series, z);
+        for (int r = 0; r < nb; ++r) {
+            w.range(r * xc + start, r * xc + start + c).copy(z.range(r * c, r * c + c));
         }
-        SymmetricMatrix.fromLower(lcov_);
-        SymmetricMatrix.lcholesky(lcov_, MFilter.Zero);
     }
 
-    private void computeRevisionsCovariance() {
-        TsFrequency freq = last_.getFrequency();
-        List<Update> updates = updates_.revisions();
+    private static Matrix product(Matrix A, Matrix B) {
+        Matrix AB = new Matrix(A.getRowsCount(), B.getColumnsCount());
+        AB.subMatrix().product(A.subMatrix(), B.subMatrix());
+        return AB;
+    }
+
+    /**
+     * Computes the Cholesky factor of the covariance of the updates. As the
+     * updates are projected in the state space of the extended model (W),
+     * cov = W*V*W' + H is obtained by means of two dense products, in
+     * O(n*dx^2+n^2*dx) instead of O(n^2*d^2).
+     *
+     * @param updates The updates
+     * @param W The projections of the updates
+     * @param WV W*V, where V is the covariance of the states of the extended
+     * model
+     * @return The lower triangular Cholesky factor of the covariance
+     */
+    private Matrix computeCovariance(List<Update> updates, Matrix W, Matrix WV) {
         int n = updates.size();
-        int c = model_.getBlockLength();
-        int xc = modelexRev_.getBlockLength();
-        int nb = model_.getFactorsCount();
-        lcovRev_ = new Matrix(n, n);
-        int d = ssf_.getStateDim();
-        Matrix V = new Matrix(d, d);
-        DataBlockIterator vcols = V.columns();
-        DataBlock vcol = vcols.getData();
-        DataBlock tmp = new DataBlock(d);
+        Matrix cov = new Matrix(n, n);
+        cov.subMatrix().product(WV.subMatrix(), W.subMatrix().transpose());
         for (int i = 0; i < n; ++i) {
-            Update iupdate = updates.get(i);
-            int istart = last_.minus(iupdate.period.lastPeriod(freq));
-            for (int j = 0; j <= i; ++j) {
-                Update jupdate = updates.get(j);
-                // copy the right covariance
-                int jstart = last_.minus(jupdate.period.lastPeriod(freq));
-                V.set(0);
-                for (int r = 0; r < nb; ++r) {
-                    for (int s = 0; s < nb; ++s) {
-                        V.subMatrix(r * c, r * c + c, s * c, s * c + c).copy(
-                                mcovRev_.subMatrix(r * xc + istart, r * xc + istart + c,
-                                        s * xc + jstart, s * xc + jstart + c));
-                    }
-                }
-
-                tmp.set(0);
-                vcols.begin();
-                do {
-                    tmp.set(vcols.getPosition(), ssf_.ZX(0, iupdate.series, vcol));
-                } while (vcols.next());
-                double q = ssf_.ZX(0, jupdate.series, tmp);
-                if (i == j) {
-                    q += model_.getMeasurements().get(iupdate.series).var;
-                }
-                lcovRev_.set(i, j, q);
-            }
+            cov.add(i, i, model_.getMeasurements().get(updates.get(i).series).var);
         }
-        SymmetricMatrix.fromLower(lcovRev_);
-        SymmetricMatrix.lcholesky(lcovRev_, MFilter.Zero);
+        SymmetricMatrix.fromLower(cov);
+        SymmetricMatrix.lcholesky(cov, MFilter.Zero);
+        return cov;
     }
 
     /**
@@ -483,6 +448,14 @@ public class DfmNews {
         return mcov_;
     }
 
+    /**
+     * @return The lower triangular Cholesky factor of the covariance of the
+     * news
+     */
+    Matrix getNewsCovarianceFactor() {
+        return lcov_;
+    }
+
     /**
      *
      * @return
@@ -516,89 +489,128 @@ public class DfmNews {
     }
 
     /**
+     * Weights of the news for a given series and a given period. The weights
+     * are cached: the returned block should not be modified.
      *
      * @param series
      * @param p
      * @return
      */
-    public DataBlock weights(int series, TsPeriod p) {
-        List<Update> updates = updates_.news();
+    public synchronized DataBlock weights(int series, TsPeriod p) {
+        DataBlock w = cached(wcache_, series, p);
+        if (w == null) {
+            w = weights(new int[]{series}, new TsPeriod[]{p}).column(0);
+        }
+        return w;
+    }
 
-        int n = updates.size();
-        DataBlock a = new DataBlock(n);
-        int c = model_.getBlockLength();
-        int xc = modelex_.getBlockLength();
-        int nb = model_.getFactorsCount();
-        int d = ssf_.getStateDim();
-        Matrix V = new Matrix(d, d);
-        DataBlockIterator vcols = V.columns();
-        DataBlock vcol = vcols.getData();
-        DataBlock tmp = new DataBlock(d);
-        int istart = last_.minus(p);
-        TsFrequency freq = last_.getFrequency();
-        for (int j = 0; j < n; ++j) {
-            Update jupdate = updates.get(j);
-            int jstart = last_.minus(jupdate.period.lastPeriod(freq));
-            V.set(0);
-            for (int r = 0; r < nb; ++r) {
-                for (int s = 0; s < nb; ++s) {
-                    V.subMatrix(r * c, r * c + c, s * c, s * c + c).copy(
-                            mcov_.subMatrix(r * xc + istart, r * xc + istart + c,
-                                    s * xc + jstart, s * xc + jstart + c));
-                }
+    /**
+     * Weights of the revisions for a given series and a given period. The
+     * weights are cached: the returned block should not be modified.
+     *
+     * @param series
+     * @param p
+     * @return
+     */
+    public synchronized DataBlock weightsRevisions(int series, TsPeriod p) {
+        DataBlock w = cached(wrevcache_, series, p);
+        if (w == null) {
+            w = weightsRevisions(new int[]{series}, new TsPeriod[]{p}).column(0);
+        }
+        return w;
+    }
+
+    /**
+     * Computes in one pass (and caches) the weights of the news and of the
+     * revisions for the missing values at the end of a series in the new
+     * information set (the forecasts), from the start of the news domain.
+     * The weights are then retrieved by weights(int, TsPeriod) and
+     * weightsRevisions(int, TsPeriod)
+     *
+     * @param series The position of the series
+     */
+    public synchronized void prefetchWeights(int series) {
+        TsData s = newset_.series(series);
+        TsFrequency freq = nDomain_.getFrequency();
+        List<TsPeriod> targets = new ArrayList<>();
+        for (int j = s.getLength() - 1; j >= 0 && s.isMissing(j); --j) {
+            TsPeriod p = s.getDomain().get(j).lastPeriod(freq);
+            if (p.isNotBefore(nDomain_.getStart())) {
+                targets.add(p);
             }
-            tmp.set(0);
-            vcols.begin();
-            do {
-                tmp.set(vcols.getPosition(), ssf_.ZX(0, series, vcol));
-            } while (vcols.next());
-            double q = ssf_.ZX(0, jupdate.series, tmp);
-            a.set(j, q);
         }
-        // w = A * (LL')^-1 <-> w(LL')=A
-        // B = wL, BL' = A <-> LB'=A'
-        LowerTriangularMatrix.rsolve(lcov_, a, MFilter.Zero); // B
-        LowerTriangularMatrix.lsolve(lcov_, a, MFilter.Zero);
-        return a;
+        TsPeriod[] ptargets = targets.toArray(new TsPeriod[targets.size()]);
+        int[] sel = new int[]{series};
+        weights(sel, ptargets);
+        if (!newsDetails().revisions().isEmpty()) {
+            weightsRevisions(sel, ptargets);
+        }
     }
 
-    public DataBlock weightsRevisions(int series, TsPeriod p) {
-        List<Update> updates = updates_.revisions();
-        int n = updates.size();
-        DataBlock a = new DataBlock(n);
-        int c = model_.getBlockLength();
-        int xc = modelexRev_.getBlockLength();
-        int nb = model_.getFactorsCount();
-        int d = ssf_.getStateDim();
-        Matrix V = new Matrix(d, d);
-        DataBlockIterator vcols = V.columns();
-        DataBlock vcol = vcols.getData();
-        DataBlock tmp = new DataBlock(d);
-        int istart = last_.minus(p);
-        TsFrequency freq = last_.getFrequency();
-        for (int j = 0; j < n; ++j) {
-            Update jupdate = updates.get(j);
-            int jstart = last_.minus(jupdate.period.lastPeriod(freq));
-            V.set(0);
-            for (int r = 0; r < nb; ++r) {
-                for (int s = 0; s < nb; ++s) {
-                    V.subMatrix(r * c, r * c + c, s * c, s * c + c).copy(
-                            mcovRev_.subMatrix(r * xc + istart, r * xc + istart + c,
-                                    s * xc + jstart, s * xc + jstart + c));
-                }
+    /**
+     * Weights of the news for a set of series and of periods, computed in
+     * one pass.
+     *
+     * @param series The targeted series
+     * @param periods The targeted periods
+     * @return A matrix with the weights of the news in the rows and the
+     * targets in the columns. The weights of series[i] at periods[j] are in
+     * column i*periods.length+j
+     */
+    public synchronized Matrix weights(int[] series, TsPeriod[] periods) {
+        return weights(series, periods, wvnews_, lcov_, modelex_.getBlockLength(), wcache_);
+    }
+
+    /**
+     * Weights of the revisions for a set of series and of periods, computed
+     * in one pass.
+     *
+     * @param series The targeted series
+     * @param periods The targeted periods
+     * @return A matrix with the weights of the revisions in the rows and the
+     * targets in the columns (see weights(int[], TsPeriod[]))
+     */
+    public synchronized Matrix weightsRevisions(int[] series, TsPeriod[] periods) {
+        return weights(series, periods, wvrev_, lcovRev_, modelexRev_.getBlockLength(), wrevcache_);
+    }
+
+    private Matrix weights(int[] series, TsPeriod[] periods, Matrix WV, Matrix L,
+            int xc, Map<Integer, Map<TsPeriod, DataBlock>> cache) {
+        int np = periods.length, nt = series.length * np;
+        // targets, projected in the state space of the extended model
+        Matrix T = new Matrix(WV.getColumnsCount(), nt);
+        DataBlock z = new DataBlock(ssf_.getStateDim());
+        for (int i = 0, k = 0; i < series.length; ++i) {
+            for (int j = 0; j < np; ++j, ++k) {
+                project(series[i], last_.minus(periods[j]), xc, z, T.column(k));
             }
-            tmp.set(0);
-            vcols.begin();
-            do {
-                tmp.set(vcols.getPosition(), ssf_.ZX(0, series, vcol));
-            } while (vcols.next());
-            double q = ssf_.ZX(0, jupdate.series, tmp);
-            a.set(j, q);
         }
-        // w = A * (LL')^-1 <-> w(LL')=A
-        // B = wL, BL' = A <-> LB'=A'
-        LowerTriangularMatrix.rsolve(lcovRev_, a, MFilter.Zero); // B
-        LowerTriangularMatrix.lsolve(lcovRev_, a, MFilter.Zero);
-        return a;
+        // A = W*V*T. w = (LL')^-1 * A <-> L(L'w) = A
+        Matrix A = product(WV, T);
+        if (nt == 0) {
+            return A;
+        }
+        LowerTriangularMatrix.rsolve(L, A.subMatrix(), MFilter.Zero);
+        DataBlockIterator cols = A.columns();
+        DataBlock col = cols.getData();
+        do {
+            LowerTriangularMatrix.lsolve(L, col, MFilter.Zero);
+        } while (cols.next());
+        for (int i = 0, k = 0; i < series.length; ++i) {
+            Map<TsPeriod, DataBlock> scache = cache.get(series[i]);
+            if (scache == null) {
+                scache = new HashMap<>();
+                cache.put(series[i], scache);
+            }
+            for (int j = 0; j < np; ++j, ++k) {
+                scache.put(periods[j], A.column(k));
+            }
+        }
+        return A;
+    }
+
+    private static DataBlock cached(Map<Integer, Map<TsPeriod, DataBlock>> cache, int series, TsPeriod p) {
+        Map<TsPeriod, DataBlock> scache = cache.get(series);
+        return scache == null ? null : scache.get(p);
     }
 }
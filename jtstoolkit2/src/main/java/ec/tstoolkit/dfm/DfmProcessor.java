@@ -19,11 +19,15 @@ package ec.tstoolkit.dfm;
 import ec.tstoolkit.timeseries.information.TsInformationSet;
 import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.mssf2.IMSsf;
+import ec.tstoolkit.mssf2.MFilter;
 import ec.tstoolkit.mssf2.MFilteringResults;
 import ec.tstoolkit.mssf2.MSmoother;
 import ec.tstoolkit.mssf2.MSmoothingResults;
+import ec.tstoolkit.mssf2.MState;
 import ec.tstoolkit.mssf2.MultivariateSsfData;
 import ec.tstoolkit.timeseries.simplets.TsData;
+import ec.tstoolkit.timeseries.simplets.TsPeriod;
+import java.util.Arrays;
 
 /**
  *
@@ -34,10 +38,24 @@ public class DfmProcessor implements IDfmProcessor {
     private MSmoothingResults srslts_;
     private MFilteringResults frslts_;
     private boolean bvar_;
+    private int cperiod_;
+    // last processing (used by incremental updates). The model is identified
+    // by a copy of its parameters and of its structure, so that a model
+    // modified in place is not confused with its previous state
+    private double[] params_;
+    private Object[] structure_;
+    private Matrix M_;
+    private TsPeriod start_;
+    private int checkpoint_ = -1;
 
     private void clear() {
         srslts_ = null;
         frslts_ = null;
+        params_ = null;
+        structure_ = null;
+        M_ = null;
+        start_ = null;
+        checkpoint_ = -1;
     }
     
     public boolean isCalcVariance(){
@@ -48,6 +66,26 @@ public class DfmProcessor implements IDfmProcessor {
         bvar_=bvar;
     }
 
+    /**
+     * Number of periods between two checkpoints of the filtering results (0
+     * if all the filtering results are stored)
+     *
+     * @return
+     */
+    public int getCheckpointPeriod() {
+        return cperiod_;
+    }
+
+    /**
+     * Sets the number of periods between two checkpoints of the filtering
+     * results. See MSmoother.setCheckpointPeriod
+     *
+     * @param period The period. 0 for a full storage
+     */
+    public void setCheckpointPeriod(int period) {
+        cperiod_ = period;
+    }
+
     /**
      * Retrieves the smoothing results
      *
@@ -74,9 +112,15 @@ public class DfmProcessor implements IDfmProcessor {
             MSmoother smoother = new MSmoother();
             srslts_ = new MSmoothingResults();
             smoother.setCalcVariance(bvar_);
+            smoother.setCheckpointPeriod(cperiod_);
             IMSsf ssf = model.ssfRepresentation();
             smoother.process(ssf, new MultivariateSsfData(M.subMatrix().transpose(), null), srslts_);
             frslts_ = smoother.getFilteringResults();
+            params_ = DfmScore.parameters(model);
+            structure_ = DfmSmoothingCache.structure(model);
+            M_ = M;
+            start_ = input.getCurrentDomain().getStart();
+            checkpoint_ = 0;
             return true;
         } catch (Exception err) {
             srslts_ = null;
@@ -84,4 +128,115 @@ public class DfmProcessor implements IDfmProcessor {
         }
     }
 
+    /**
+     * Updates the results of the last processing for a new information set
+     * (typically a new vintage of the data). The filter is resumed at the
+     * first period with modified data (the checkpoint), starting from the
+     * filtered state of the previous run; the filtering results of the
+     * previous periods are reused. The smoother is applied on the whole
+     * sample, since all the smoothed states may be modified by the new data
+     * (it is cheap when the variances are not computed). The information set
+     * is fully processed if the model (its parameters or its structure) or
+     * the structure of the data (start, number of series) have changed, if
+     * the filtering results are not fully stored or if the resumed filtering
+     * or smoothing fails.
+     *
+     * When nothing has changed, the current smoothing and filtering results
+     * are kept (the same objects are returned by the getters).
+     *
+     * @param model The model. It should be identical to the model of the last
+     * processing
+     * @param input The new information set
+     * @return
+     */
+    public boolean update(DynamicFactorModel model, TsInformationSet input) {
+        if (frslts_ == null || frslts_.getStorage() != MFilteringResults.Storage.Full
+                || !Arrays.equals(params_, DfmScore.parameters(model))
+                || !Arrays.equals(structure_, DfmSmoothingCache.structure(model))) {
+            return process(model, input);
+        }
+        try {
+            Matrix M = input.generateMatrix(null);
+            int n = M_.getRowsCount();
+            if (!input.getCurrentDomain().getStart().equals(start_)
+                    || M.getColumnsCount() != M_.getColumnsCount()
+                    || M.getRowsCount() < n) {
+                return process(model, input);
+            }
+            int t0 = firstChange(M_, M);
+            if (t0 == n) {
+                if (M.getRowsCount() == n) {
+                    // nothing to do
+                    checkpoint_ = n;
+                    return true;
+                }
+                // new periods only. We restart at the last filtered period
+                t0 = n - 1;
+            }
+            if (t0 == 0) {
+                return process(model, input);
+            }
+            IMSsf ssf = model.ssfRepresentation();
+            MultivariateSsfData data = new MultivariateSsfData(M.subMatrix().transpose(), null);
+            MFilteringResults frslts = new MFilteringResults();
+            frslts.getVarianceFilter().setSavingK(true);
+            frslts.getVarianceFilter().setSavingP(true);
+            frslts.prepare(ssf, data);
+            // copies the results before the checkpoint
+            MState state = new MState(ssf.getStateDim(), ssf.getVarsCount());
+            for (int t = 0; t < t0; ++t) {
+                state.A.copy(frslts_.A(t));
+                state.E.copy(frslts_.E(t));
+                state.F.subMatrix().copy(frslts_.F(t));
+                state.K.subMatrix().copy(frslts_.K(t));
+                state.P.subMatrix().copy(frslts_.P(t));
+                frslts.save(t, state);
+            }
+            // predicted state at the checkpoint
+            state.A.copy(frslts_.A(t0));
+            state.P.subMatrix().copy(frslts_.P(t0));
+            MFilter filter = new MFilter();
+            if (!filter.process(ssf, data, state, t0, frslts)) {
+                return process(model, input);
+            }
+            MSmoother smoother = new MSmoother();
+            MSmoothingResults srslts = new MSmoothingResults();
+            smoother.setCalcVariance(bvar_);
+            if (!smoother.process(ssf, data, frslts, srslts)) {
+                return process(model, input);
+            }
+            frslts_ = frslts;
+            srslts_ = srslts;
+            M_ = M;
+            checkpoint_ = t0;
+            return true;
+        } catch (Exception err) {
+            clear();
+            return false;
+        }
+    }
+
+    /**
+     * Period at which the filter was started in the last processing (0 for a
+     * full processing, -1 if nothing has been processed)
+     *
+     * @return
+     */
+    public int getLastCheckpoint() {
+        return checkpoint_;
+    }
+
+    private static int firstChange(Matrix M0, Matrix M1) {
+        int nr = M0.getRowsCount(), nc = M0.getColumnsCount();
+        for (int r = 0; r < nr; ++r) {
+            for (int c = 0; c < nc; ++c) {
+                double a = M0.get(r, c), b = M1.get(r, c);
+                if (a != b && !(Double.isNaN(a) && Double.isNaN(b))) {
+                    return r;
+                }
+            }
+        }
+        return nr;
+    }
+
 }
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2013 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit.dfm;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.dfm.DynamicFactorModel.MeasurementDescriptor;
+import ec.tstoolkit.maths.matrices.LowerTriangularMatrix;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit.mssf2.IMSsf;
+import ec.tstoolkit.mssf2.IMSsfData;
+import ec.tstoolkit.mssf2.MSmoother;
+import ec.tstoolkit.mssf2.MSmoothingResults;
+import ec.tstoolkit.var.LyapunovEquation;
+import ec.tstoolkit.var.VarSpec;
+import java.util.List;
+
+/**
+ * Exact score of the (concentrated) log-likelihood of a dynamic factor model.
+ * The score is the derivative of the expected complete-data log-likelihood,
+ * the expectation being computed with the smoothed states of the model (one
+ * filtering/smoothing pass). When the block length of the model is equal to
+ * the number of lags, the computation uses an equivalent model with one more
+ * lag in the state (as in DfmEM2).
+ *
+ * The derivatives are defined for the following items (see parameters()):
+ * for each measurement, the coefficients (one by factor) and the variance,
+ * then the VAR parameters and the covariance of the VAR innovations (by
+ * column, all the items).
+ */
+public class DfmScore {
+
+    private final DynamicFactorModel model;
+
+    public DfmScore(DynamicFactorModel model) {
+        this.model = model;
+    }
+
+    /**
+     * The score can't be computed for user-defined initial variances
+     *
+     * @param model
+     * @return
+     */
+    public static boolean canHandle(DynamicFactorModel model) {
+        return model.getInitialization() != VarSpec.Initialization.UserDefined;
+    }
+
+    /**
+     * Items of the model, in the order used by the score. Unused coefficients
+     * are set to 0.
+     *
+     * @param model
+     * @return
+     */
+    public static double[] parameters(DynamicFactorModel model) {
+        int nf = model.getFactorsCount();
+        List<MeasurementDescriptor> mdesc = model.getMeasurements();
+        double[] p = new double[dim(model)];
+        int pos = 0;
+        for (MeasurementDescriptor desc : mdesc) {
+            for (int j = 0; j < nf; ++j) {
+                double c = desc.coeff[j];
+                p[pos++] = Double.isNaN(c) ? 0 : c;
+            }
+            p[pos++] = desc.var;
+        }
+        double[] v = model.getTransition().varParams.internalStorage();
+        System.arraycopy(v, 0, p, pos, v.length);
+        pos += v.length;
+        double[] q = model.getTransition().covar.internalStorage();
+        System.arraycopy(q, 0, p, pos, q.length);
+        return p;
+    }
+
+    private static int dim(DynamicFactorModel model) {
+        int nf = model.getFactorsCount(), nl = model.getTransition().nlags;
+        return model.getMeasurementsCount() * (nf + 1) + nf * nf * nl + nf * nf;
+    }
+
+    /**
+     * Computes the score
+     *
+     * @param data The data (measurements x periods)
+     * @param sig2 The scaling factor of the variances (ssq/n for the
+     * concentrated likelihood)
+     * @return The derivatives of the log-likelihood (see parameters() for the
+     * order) or null if the smoothing failed
+     */
+    public double[] compute(IMSsfData data, double sig2) {
+        if (!canHandle(model)) {
+            return null;
+        }
+        int nf = model.getFactorsCount(), nl = model.getTransition().nlags;
+        DynamicFactorModel m = model;
+        if (m.getBlockLength() == nl) {
+            m = model.clone();
+            m.setBlockLength(nl + 1);
+        }
+        int nt = data.getCount();
+        IMSsf ssf = m.ssfRepresentation();
+        MSmoother smoother = new MSmoother();
+        smoother.setCalcVariance(true);
+        MSmoothingResults srslts = new MSmoothingResults();
+        if (!smoother.process(ssf, data, srslts)) {
+            return null;
+        }
+        double[] score = new double[dim(model)];
+        int pos = measurements(m, ssf, data, srslts, sig2, score);
+        transition(m, ssf, srslts, nt, sig2, score, pos);
+        return score;
+    }
+
+    private int measurements(DynamicFactorModel m, IMSsf ssf, IMSsfData data,
+            MSmoothingResults srslts, double sig2, double[] score) {
+        int nf = m.getFactorsCount(), c = m.getBlockLength(), n = nf * c, nt = data.getCount();
+        DataBlock z = new DataBlock(n), dz = new DataBlock(n), vz = new DataBlock(n);
+        int pos = 0, i = 0;
+        for (MeasurementDescriptor desc : m.getMeasurements()) {
+            z.set(0);
+            ssf.Z(0, i, z);
+            dz.set(0);
+            double h = desc.var, q = 0;
+            int nobs = 0;
+            for (int t = 0; t < nt; ++t) {
+                if (!data.isMissing(i, t)) {
+                    DataBlock a = srslts.A(t);
+                    vz.product(z, srslts.P(t).columns());
+                    double e = data.get(i, t) - z.dot(a);
+                    dz.addAY(e, a);
+                    dz.addAY(-sig2, vz);
+                    q += e * e + sig2 * vz.dot(z);
+                    ++nobs;
+                }
+            }
+            // d/dz = sum(e*a - sig2*V*z)/(sig2*h)
+            dz.mul(1 / (sig2 * h));
+            int len = desc.type.getLength();
+            DataBlock pattern = new DataBlock(len);
+            desc.type.fill(pattern);
+            for (int j = 0; j < nf; ++j) {
+                if (!Double.isNaN(desc.coeff[j])) {
+                    score[pos + j] = pattern.dot(dz.range(j * c, j * c + len));
+                }
+            }
+            pos += nf;
+            // d/dh = -1/2 * sum(1/h - (e*e+sig2*z'Vz)/(sig2*h*h))
+            score[pos++] = -.5 * (nobs / h - q / (sig2 * h * h));
+            ++i;
+        }
+        return pos;
+    }
+
+    private void transition(DynamicFactorModel m, IMSsf ssf, MSmoothingResults srslts,
+            int nt, double sig2, double[] score, int pos) {
+        int nf = m.getFactorsCount(), nl = m.getTransition().nlags;
+        int c = m.getBlockLength(), n = nf * c;
+        boolean uncond = m.getInitialization() == VarSpec.Initialization.Unconditional;
+        // sum of E(a(t)a(t)') for the transitions. With a zero initialisation,
+        // the first period is a transition from a null state
+        int t0 = uncond ? 1 : 0;
+        Matrix S = new Matrix(n, n), V = new Matrix(n, n);
+        for (int t = t0; t < nt; ++t) {
+            S.addXaXt(1, srslts.A(t));
+            V.subMatrix().add(srslts.P(t));
+        }
+        V.mul(sig2);
+        S.add(V);
+        int nx = nf * nl;
+        Matrix Sff = new Matrix(nf, nf), Sfx = new Matrix(nf, nx), Sxx = new Matrix(nx, nx);
+        for (int i = 0; i < nf; ++i) {
+            for (int k = 0; k < nf; ++k) {
+                Sff.set(i, k, S.get(i * c, k * c));
+                for (int l = 0; l < nl; ++l) {
+                    Sfx.set(i, k * nl + l, S.get(i * c, k * c + l + 1));
+                }
+            }
+        }
+        for (int j = 0; j < nf; ++j) {
+            for (int l = 0; l < nl; ++l) {
+                for (int k = 0; k < nf; ++k) {
+                    for (int u = 0; u < nl; ++u) {
+                        Sxx.set(j * nl + l, k * nl + u, S.get(j * c + l + 1, k * c + u + 1));
+                    }
+                }
+            }
+        }
+        Matrix A = m.getTransition().varParams, Q = m.getTransition().covar;
+        Matrix Qi = inverse(Q);
+        // dA = Q^-1 (Sfx - A*Sxx) / sig2
+        Matrix dA = Qi.times(Sfx.minus(A.times(Sxx)));
+        dA.mul(1 / sig2);
+        // dQ = -1/2 * nt * Q^-1 + 1/2 Q^-1 * E * Q^-1 / sig2
+        // E = Sff - A*Sfx' - Sfx*A' + A*Sxx*A'
+        Matrix ASfx = A.times(Sfx.transpose());
+        Matrix E = Sff.minus(ASfx);
+        E.sub(ASfx.transpose());
+        E.add(A.times(Sxx).times(A.transpose()));
+        Matrix dQ = Qi.times(E).times(Qi);
+        dQ.mul(.5 / sig2);
+        Matrix tmp = Qi.clone();
+        tmp.mul(-.5 * (nt - t0));
+        dQ.add(tmp);
+
+        if (uncond) {
+            initial(ssf, srslts, sig2, c, nl, dA, dQ);
+        }
+        double[] da = dA.internalStorage();
+        System.arraycopy(da, 0, score, pos, da.length);
+        pos += da.length;
+        double[] dq = dQ.internalStorage();
+        System.arraycopy(dq, 0, score, pos, dq.length);
+    }
+
+    /**
+     * Contribution of the initial state: a(0) ~ N(0, sig2*P1), with P1 =
+     * TP0T'+Q and P0 = TP0T' + Q. dlogL = -1/2 tr(G dP1), with G = P1^-1 -
+     * P1^-1 E(a0a0') P1^-1 / sig2. tr(G dP1) = tr(X (dT P0 T' + T P0 dT' +
+     * dQ)), with X = T'XT + G.
+     */
+    private void initial(IMSsf ssf, MSmoothingResults srslts, double sig2, int c, int nl,
+            Matrix dA, Matrix dQ) {
+        int n = ssf.getStateDim(), nf = dQ.getRowsCount();
+        Matrix T = new Matrix(n, n);
+        for (int j = 0; j < n; ++j) {
+            DataBlock col = T.column(j);
+            col.set(j, 1);
+            ssf.TX(0, col);
+        }
+        Matrix P0 = new Matrix(n, n);
+        ssf.Pf0(P0.subMatrix());
+        Matrix P1 = P0.clone();
+        ssf.TVT(0, P1.subMatrix());
+        ssf.addV(0, P1.subMatrix());
+        Matrix P1i = inverse(P1);
+        Matrix E0 = new Matrix(n, n);
+        E0.addXaXt(1, srslts.A(0));
+        Matrix V0 = new Matrix(n, n);
+        V0.subMatrix().copy(srslts.P(0));
+        V0.mul(sig2);
+        E0.add(V0);
+        Matrix G = P1i.times(E0).times(P1i);
+        G.mul(-1 / sig2);
+        G.add(P1i);
+        Matrix Tt = T.transpose();
+        Matrix X = LyapunovEquation.solve(Tt, G);
+        if (X == null) {
+            X = LyapunovEquation.solveDirect(Tt, G);
+        }
+        Matrix XTP = X.times(T).times(P0);
+        for (int i = 0; i < nf; ++i) {
+            for (int j = 0; j < nf; ++j) {
+                for (int l = 0; l < nl; ++l) {
+                    dA.add(i, j * nl + l, -XTP.get(i * c, j * c + l));
+                }
+                dQ.add(i, j, -.5 * X.get(i * c, j * c));
+            }
+        }
+    }
+
+    private static Matrix inverse(Matrix S) {
+        Matrix L = S.clone();
+        SymmetricMatrix.lcholesky(L);
+        Matrix Li = LowerTriangularMatrix.inverse(L);
+        return SymmetricMatrix.XtX(Li);
+    }
+}
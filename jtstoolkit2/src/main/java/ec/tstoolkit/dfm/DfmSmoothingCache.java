@@ -0,0 +1,283 @@
+/*
+ * Copyright 2013 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit.dfm;
+
+import ec.tstoolkit.dfm.DynamicFactorModel.MeasurementDescriptor;
+import ec.tstoolkit.dfm.DynamicFactorModel.MeasurementType;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit.mssf2.IMSsf;
+import ec.tstoolkit.mssf2.MFilter;
+import ec.tstoolkit.mssf2.MFilteringResults;
+import ec.tstoolkit.mssf2.MLagCovarianceSmoother;
+import ec.tstoolkit.mssf2.MSmoother;
+import ec.tstoolkit.mssf2.MSmoothingResults;
+import ec.tstoolkit.mssf2.MultivariateSsfData;
+import ec.tstoolkit.var.VarSpec;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the smoothing passes used in the computation of the news. The news,
+ * the revisions and the news and revisions of a same version use the same
+ * model on overlapping data, so that several smoothing passes are identical.
+ *
+ * The results are identified by the model (its parameters, see
+ * DfmScore.parameters, and its structure), the block length of the
+ * (extended) model, the position of the last saved state and the data
+ * themselves (periods x series, including the missing values). As the model
+ * is time invariant, the data identify the domain of the computation. The
+ * model is copied in the key, so that a model modified after its use is not
+ * confused with its previous state. Models with user-defined initial
+ * variances are identified by reference. The cached results are shared: they
+ * should not be modified.
+ */
+public class DfmSmoothingCache {
+
+    public static final int DEF_CAPACITY = 16;
+
+    private final Map<Key, MSmoothingResults> states_;
+    private final Map<Key, Matrix> covariances_;
+
+    public DfmSmoothingCache() {
+        this(DEF_CAPACITY);
+    }
+
+    /**
+     *
+     * @param capacity The maximum number of smoothing results of each kind
+     * (the least recently used ones are removed first)
+     */
+    public DfmSmoothingCache(final int capacity) {
+        states_ = new LinkedHashMap<Key, MSmoothingResults>(capacity, .75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, MSmoothingResults> eldest) {
+                return size() > capacity;
+            }
+        };
+        covariances_ = new LinkedHashMap<Key, Matrix>(capacity, .75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Matrix> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Smoothed states (without their variances), saved from the given
+     * position
+     *
+     * @param model The model
+     * @param M The data (periods x series)
+     * @param start The first saved position, which is also the position where
+     * the smoothing stops
+     * @return The smoothing results or null if the smoothing failed
+     */
+    public synchronized MSmoothingResults getSmoothedStates(DynamicFactorModel model, Matrix M, int start) {
+        Key key = new Key(model, model.getBlockLength(), start, M);
+        MSmoothingResults srslts = states_.get(key);
+        if (srslts == null) {
+            MultivariateSsfData ssfData = new MultivariateSsfData(M.subMatrix().transpose(), null);
+            MSmoother smoother = new MSmoother();
+            srslts = new MSmoothingResults();
+            srslts.setSavingStart(start);
+            smoother.setStopPosition(start);
+            smoother.setCalcVariance(false);
+            if (!smoother.process(model.ssfRepresentation(), ssfData, srslts)) {
+                return null;
+            }
+            states_.put(new Key(model, model.getBlockLength(), start, M.clone()), srslts);
+        }
+        return srslts;
+    }
+
+    /**
+     * Covariance of the smoothed states at the last period of the data, for a
+     * model with an extended block length. The covariance is derived from the
+     * smoothed covariances between the states of the last periods of the
+     * model itself (see MLagCovarianceSmoother), which is much cheaper than
+     * the smoothing of the extended model.
+     *
+     * @param model The model
+     * @param blockLength The block length of the extended model
+     * @param M The data (periods x series)
+     * @return The covariance of the states of the extended model
+     */
+    public synchronized Matrix getLastStateCovariance(DynamicFactorModel model, int blockLength, Matrix M) {
+        int last = M.getRowsCount() - 1;
+        Key key = new Key(model, blockLength, last, M);
+        Matrix cov = covariances_.get(key);
+        if (cov == null) {
+            MultivariateSsfData ssfData = new MultivariateSsfData(M.subMatrix().transpose(), null);
+            cov = lagCovariance(model, blockLength, ssfData);
+            if (cov == null) {
+                cov = extendedCovariance(model, blockLength, ssfData);
+            }
+            covariances_.put(new Key(model, blockLength, last, M.clone()), cov);
+        }
+        return cov;
+    }
+
+    private static Matrix lagCovariance(DynamicFactorModel model, int xc, MultivariateSsfData data) {
+        int c = model.getBlockLength(), nf = model.getFactorsCount();
+        int last = data.getCount() - 1, k = xc - c;
+        // f(last-i) is the item p[i] of the (factor) blocks of the state at s[i]
+        int[] s = new int[xc], p = new int[xc];
+        for (int i = 0; i < xc; ++i) {
+            if (i <= k) {
+                s[i] = last - i;
+            } else {
+                s[i] = last - k;
+                p[i] = i - k;
+            }
+        }
+        MLagCovarianceSmoother smoother = new MLagCovarianceSmoother();
+        if (k < 0 || !smoother.process(model.ssfRepresentation(), data, last - k)) {
+            return null;
+        }
+        Matrix cov = new Matrix(nf * xc, nf * xc);
+        for (int i = 0; i < xc; ++i) {
+            for (int j = 0; j < xc; ++j) {
+                SubMatrix C = smoother.covariance(s[i], s[j]);
+                for (int r = 0; r < nf; ++r) {
+                    for (int q = 0; q < nf; ++q) {
+                        cov.set(r * xc + i, q * xc + j, C.get(r * c + p[i], q * c + p[j]));
+                    }
+                }
+            }
+        }
+        return cov;
+    }
+
+    private static Matrix extendedCovariance(DynamicFactorModel model, int xc, MultivariateSsfData data) {
+        int last = data.getCount() - 1;
+        DynamicFactorModel modelex = model.clone();
+        modelex.setBlockLength(xc);
+        IMSsf ssf = modelex.ssfRepresentation();
+        MFilteringResults frslts = new MFilteringResults();
+        frslts.saveAll(last);
+        MFilter filter = new MFilter();
+        filter.process(ssf, data, frslts);
+        MSmoother smoother = new MSmoother();
+        smoother.setStopPosition(last);
+        smoother.setCalcVariance(true);
+        MSmoothingResults srslts = new MSmoothingResults();
+        srslts.setSavingStart(last);
+        smoother.process(ssf, data, frslts, srslts);
+        return new Matrix(srslts.P(last));
+    }
+
+    public synchronized void clear() {
+        states_.clear();
+        covariances_.clear();
+    }
+
+    /**
+     * Items of the model that are not in its parameters: block length,
+     * number of lags, initialization and types of the measurements. Together
+     * with DfmScore.parameters, they identify the model (the arrays can be
+     * compared with Arrays.equals)
+     *
+     * @param model
+     * @return
+     */
+    static Object[] structure(DynamicFactorModel model) {
+        List<MeasurementDescriptor> mdesc = model.getMeasurements();
+        Object[] s = new Object[4 + mdesc.size()];
+        s[0] = model.getBlockLength();
+        s[1] = model.getTransition().nlags;
+        s[2] = model.getInitialization();
+        if (model.getInitialization() == VarSpec.Initialization.UserDefined) {
+            s[3] = new Identity(model);
+        }
+        int i = 4;
+        for (MeasurementDescriptor desc : mdesc) {
+            MeasurementType type = DynamicFactorModel.getMeasurementType(desc.type);
+            s[i++] = type != null ? type : new Identity(desc.type);
+        }
+        return s;
+    }
+
+    private static final class Key {
+
+        private final double[] params;
+        private final Object[] structure;
+        private final int blockLength, pos, nseries;
+        private final double[] data;
+        private final int hash;
+
+        Key(DynamicFactorModel model, int blockLength, int pos, Matrix M) {
+            this.params = DfmScore.parameters(model);
+            this.structure = DfmSmoothingCache.structure(model);
+            this.blockLength = blockLength;
+            this.pos = pos;
+            this.nseries = M.getColumnsCount();
+            this.data = M.internalStorage();
+            int h = Arrays.hashCode(params);
+            h = 31 * h + Arrays.hashCode(structure);
+            h = 31 * h + blockLength;
+            h = 31 * h + pos;
+            h = 31 * h + nseries;
+            this.hash = 31 * h + Arrays.hashCode(data);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash && blockLength == other.blockLength
+                    && pos == other.pos && nseries == other.nseries
+                    && Arrays.equals(params, other.params)
+                    && Arrays.equals(structure, other.structure)
+                    && Arrays.equals(data, other.data);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Identification of an object by reference
+     */
+    private static final class Identity {
+
+        private final Object obj;
+
+        Identity(Object obj) {
+            this.obj = obj;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Identity && ((Identity) o).obj == obj;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(obj);
+        }
+    }
+}
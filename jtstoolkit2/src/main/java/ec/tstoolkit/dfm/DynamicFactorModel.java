@@ -8,9 +8,7 @@ package ec.tstoolkit.dfm;
 import ec.tstoolkit.algorithm.IProcResults;
 import ec.tstoolkit.algorithm.ProcessingInformation;
 import ec.tstoolkit.data.DataBlock;
-import ec.tstoolkit.data.DataBlockIterator;
 import ec.tstoolkit.information.InformationMapper;
-import ec.tstoolkit.maths.matrices.HouseholderR;
 import ec.tstoolkit.maths.matrices.LowerTriangularMatrix;
 import ec.tstoolkit.maths.matrices.Matrix;
 import ec.tstoolkit.maths.matrices.MatrixException;
@@ -18,6 +16,7 @@ import ec.tstoolkit.maths.matrices.SubMatrix;
 import ec.tstoolkit.maths.matrices.SymmetricMatrix;
 import ec.tstoolkit.mssf2.DefaultTimeInvariantMultivariateSsf;
 import ec.tstoolkit.mssf2.IMSsf;
+import ec.tstoolkit.var.LyapunovEquation;
 import ec.tstoolkit.var.VarSpec;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -994,6 +993,11 @@ public class DynamicFactorModel implements Cloneable, IProcResults {
             return DynamicFactorModel.this;
         }
         private final DataBlock ttmp, xtmp;
+        private Matrix rtmp, ftmp, mtmp;
+        // sparse representation of Z: positions and weights of the non-zero
+        // items of each measurement
+        private final int[][] zidx;
+        private final double[][] zw;
 
         private Ssf() {
             int nl = tdesc_.nlags;
@@ -1001,6 +1005,8 @@ public class DynamicFactorModel implements Cloneable, IProcResults {
             this.initialize(mdim, vdim, nf_, true);
             ttmp = new DataBlock(nf_);
             xtmp = new DataBlock(mdim);
+            zidx = new int[vdim][];
+            zw = new double[vdim][];
             // Measurement
             for (int i = 0; i < vdim; ++i) {
                 MeasurementDescriptor zdesc = mdesc_.get(i);
@@ -1014,6 +1020,7 @@ public class DynamicFactorModel implements Cloneable, IProcResults {
                         cur.mul(zdesc.coeff[j]);
                     }
                 }
+                compileZ(i, z);
             }
             // Transition
             // T, S
@@ -1053,17 +1060,15 @@ public class DynamicFactorModel implements Cloneable, IProcResults {
         @Override
         public void TX(int pos, DataBlock x) {
             int nl = tdesc_.nlags;
+            double[] v = tdesc_.varParams.internalStorage();
             // compute first the next item
             for (int i = 0; i < nf_; ++i) {
                 double r = 0;
-                DataBlock p = tdesc_.varParams.row(i).range(0, nl);
-                DataBlock xb = x.range(0, nl);
-                for (int j = 0; j < nf_; ++j) {
-                    if (j != 0) {
-                        p.move(nl);
-                        xb.move(c_);
+                for (int j = 0, k = i; j < nf_; ++j) {
+                    int x0 = j * c_;
+                    for (int l = 0; l < nl; ++l, k += nf_) {
+                        r += v[k] * x.get(x0 + l);
                     }
-                    r += p.dot(xb);
                 }
                 ttmp.set(i, r);
             }
@@ -1071,22 +1076,106 @@ public class DynamicFactorModel implements Cloneable, IProcResults {
             x.extract(0, -1, c_).copy(ttmp);
         }
 
-        // TODO: improvement should not be too difficult (process by block)
+        /**
+         * Computes TVT' by blocks. With T = [A ; shift], the items of TVT'
+         * outside the first row/column of each block are a shift of V. The
+         * first rows/columns only depend on R = V(., x) * A', where x are the
+         * lagged factors.
+         *
+         * @param pos
+         * @param vm
+         */
         @Override
         public void TVT(final int pos, final SubMatrix vm) {
-            // usual solution
-            DataBlockIterator cols = vm.columns();
-            DataBlock col = cols.getData();
-            do {
-                TX(pos, col);
-            } while (cols.next());
+            int nl = tdesc_.nlags, n = nf_ * c_;
+            if (rtmp == null) {
+                rtmp = new Matrix(n, nf_);
+                ftmp = new Matrix(nf_, nf_);
+            }
+            Matrix A = tdesc_.varParams;
+            // R = V(., x) * A'
+            rtmp.set(0);
+            for (int i = 0; i < nf_; ++i) {
+                DataBlock r = rtmp.column(i);
+                for (int j = 0; j < nf_; ++j) {
+                    for (int l = 0; l < nl; ++l) {
+                        double a = A.get(i, j * nl + l);
+                        if (a != 0) {
+                            r.addAY(a, vm.column(j * c_ + l));
+                        }
+                    }
+                }
+            }
+            // F = A * R(x, .)
+            for (int i = 0; i < nf_; ++i) {
+                for (int k = 0; k <= i; ++k) {
+                    double s = 0;
+                    for (int j = 0; j < nf_; ++j) {
+                        for (int l = 0; l < nl; ++l) {
+                            s += A.get(i, j * nl + l) * rtmp.get(j * c_ + l, k);
+                        }
+                    }
+                    ftmp.set(i, k, s);
+                    ftmp.set(k, i, s);
+                }
+            }
+            // the columns are processed backwards: column s only uses
+            // column s-1 of V
+            for (int s = n - 1; s >= 0; --s) {
+                DataBlock col = vm.column(s);
+                int m = s % c_;
+                if (m != 0) {
+                    DataBlock prev = vm.column(s - 1);
+                    for (int i = 0, i0 = 0; i < nf_; ++i, i0 += c_) {
+                        col.range(i0 + 1, i0 + c_).copy(prev.range(i0, i0 + c_ - 1));
+                    }
+                    col.extract(0, nf_, c_).copy(rtmp.row(s - 1));
+                } else {
+                    DataBlock r = rtmp.column(s / c_);
+                    for (int i = 0, i0 = 0; i < nf_; ++i, i0 += c_) {
+                        col.range(i0 + 1, i0 + c_).copy(r.range(i0, i0 + c_ - 1));
+                    }
+                    col.extract(0, nf_, c_).copy(ftmp.column(s / c_));
+                }
+            }
+        }
 
-            DataBlockIterator rows = vm.rows();
-            DataBlock row = rows.getData();
-            do {
-                TX(pos, row);
-            } while (rows.next());
-            SymmetricMatrix.reinforceSymmetry(vm);
+        /**
+         * Computes MT by columns: the columns of MT are either a column of M
+         * (shift) or a column of M plus a linear combination of the columns
+         * corresponding to the current factors
+         *
+         * @param pos
+         * @param M
+         */
+        @Override
+        public void MT(final int pos, final SubMatrix M) {
+            int nl = tdesc_.nlags, n = nf_ * c_, nr = M.getRowsCount();
+            Matrix A = tdesc_.varParams;
+            if (mtmp == null || mtmp.getRowsCount() < nr) {
+                mtmp = new Matrix(Math.max(nr, n), nf_);
+            }
+            SubMatrix F = mtmp.subMatrix(0, nr, 0, nf_);
+            for (int i = 0; i < nf_; ++i) {
+                F.column(i).copy(M.column(i * c_));
+            }
+            for (int s = 0; s < n; ++s) {
+                DataBlock col = M.column(s);
+                int j = s / c_, m = s % c_;
+                if (m < c_ - 1) {
+                    col.copy(M.column(s + 1));
+                } else {
+                    col.set(0);
+                }
+                if (m < nl) {
+                    for (int i = 0; i < nf_; ++i) {
+                        double a = A.get(i, j * nl + m);
+                        if (a != 0) {
+                            col.addAY(a, F.column(i));
+                        }
+                    }
+                }
+            }
         }
 
         @Override
@@ -1097,47 +1186,119 @@ public class DynamicFactorModel implements Cloneable, IProcResults {
             }
         }
 
+        /**
+         * Stores the non-zero items of a row of Z (coefficients multiplied by
+         * the weights of the measurement type)
+         *
+         * @param v The measurement
+         * @param z The row of Z
+         */
+        private void compileZ(int v, DataBlock z) {
+            int n = 0;
+            for (int k = 0; k < z.getLength(); ++k) {
+                if (z.get(k) != 0) {
+                    ++n;
+                }
+            }
+            int[] idx = new int[n];
+            double[] w = new double[n];
+            for (int k = 0, l = 0; l < n; ++k) {
+                double cur = z.get(k);
+                if (cur != 0) {
+                    idx[l] = k;
+                    w[l++] = cur;
+                }
+            }
+            zidx[v] = idx;
+            zw[v] = w;
+        }
+
         @Override
         public double ZX(final int pos, int v, final DataBlock x) {
-            MeasurementDescriptor zdesc = mdesc_.get(v);
+            int[] idx = zidx[v];
+            double[] w = zw[v];
             double r = 0;
-            for (int j = 0, start = 0; j < nf_; ++j, start += c_) {
-                if (mused(zdesc, j)) {
-                    IMeasurement m = zdesc.type;
-                    DataBlock cur = x.range(start, start + m.getLength());
-                    r += zdesc.coeff[j] * m.dot(cur);
-                }
+            for (int k = 0; k < idx.length; ++k) {
+                r += w[k] * x.get(idx[k]);
             }
             return r;
         }
 
         @Override
         public void ZM(final int pos, final SubMatrix m, final SubMatrix zm) {
-            DataBlockIterator rows = zm.rows();
-            DataBlock row = rows.getData();
-            do {
-                ZM(pos, rows.getPosition(), m, row);
-            } while (rows.next());
+            int nc = m.getColumnsCount();
+            for (int v = 0; v < zidx.length; ++v) {
+                int[] idx = zidx[v];
+                double[] w = zw[v];
+                for (int c = 0; c < nc; ++c) {
+                    double r = 0;
+                    for (int k = 0; k < idx.length; ++k) {
+                        r += w[k] * m.get(idx[k], c);
+                    }
+                    zm.set(v, c, r);
+                }
+            }
         }
 
         @Override
         public void ZM(final int pos, final int v, final SubMatrix M, final DataBlock zm) {
-            MeasurementDescriptor zdesc = mdesc_.get(v);
-            zm.set(0);
-            for (int j = 0, start = 0; j < nf_; ++j, start += c_) {
-                if (mused(zdesc, j)) {
-                    IMeasurement m = zdesc.type;
-                    for (int c = 0; c < M.getColumnsCount(); ++c) {
-                        DataBlock cur = M.column(c).range(start, start + m.getLength());
-                        zm.add(c, zdesc.coeff[j] * m.dot(cur));
+            int[] idx = zidx[v];
+            double[] w = zw[v];
+            int nc = M.getColumnsCount();
+            for (int c = 0; c < nc; ++c) {
+                double r = 0;
+                for (int k = 0; k < idx.length; ++k) {
+                    r += w[k] * M.get(idx[k], c);
+                }
+                zm.set(c, r);
+            }
+        }
+
+        @Override
+        public double ZVZ(final int pos, final int v, final int w, final SubMatrix V) {
+            int[] vidx = zidx[v], widx = zidx[w];
+            double[] vw = zw[v], ww = zw[w];
+            double r = 0;
+            for (int l = 0; l < widx.length; ++l) {
+                int c = widx[l];
+                double s = 0;
+                for (int k = 0; k < vidx.length; ++k) {
+                    s += vw[k] * V.get(vidx[k], c);
+                }
+                r += ww[l] * s;
+            }
+            return r;
+        }
+
+        @Override
+        public void ZVZ(final int pos, final SubMatrix V, final SubMatrix zvz) {
+            for (int v = 0; v < zidx.length; ++v) {
+                for (int w = 0; w <= v; ++w) {
+                    double r = ZVZ(pos, v, w, V);
+                    zvz.set(v, w, r);
+                    if (v != w) {
+                        zvz.set(w, v, r);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void diagZVZ(final int pos, final SubMatrix V, final DataBlock zvz) {
+            for (int v = 0; v < zidx.length; ++v) {
+                int[] idx = zidx[v];
+                double[] w = zw[v];
+                double r = 0;
+                for (int l = 0; l < idx.length; ++l) {
+                    int c = idx[l];
+                    double s = w[l] * V.get(c, c);
+                    for (int k = 0; k < l; ++k) {
+                        s += w[k] * (V.get(idx[k], c) + V.get(c, idx[k]));
                     }
+                    r += w[l] * s;
                 }
+                zvz.set(v, r);
             }
-//           DataBlockIterator cols = m.columns();
-//            DataBlock col = cols.getData();
-//            do {
-//                zm.set(cols.getPosition(), ZX(pos, v, col));
-//            } while (cols.next());
         }
 
         @Override
@@ -1167,47 +1328,18 @@ public class DynamicFactorModel implements Cloneable, IProcResults {
             // We consider the nlag*nb, nlag*nb sub-system
 
             int n = nf_ * nl;
-            Matrix cov = new Matrix(n, n);
-            int np = (n * (n + 1)) / 2;
-            Matrix M = new Matrix(np, np);
-            double[] b = new double[np];
-            // fill the matrix
-            for (int c = 0, i = 0; c < n; ++c) {
-                for (int r = c; r < n; ++r, ++i) {
-                    M.set(i, i, 1);
-                    if (r % nl == 0 && c % nl == 0) {
-                        b[i] = tdesc_.covar.get(r / nl, c / nl);
-                    }
-                    for (int k = 0; k < n; ++k) {
-                        for (int l = 0; l < n; ++l) {
-                            double zr = 0, zc = 0;
-                            if (r % nl == 0) {
-                                zr = tdesc_.varParams.get(r / nl, l);
-                            } else if (r == l + 1) {
-                                zr = 1;
-                            }
-                            if (c % nl == 0) {
-                                zc = tdesc_.varParams.get(c / nl, k);
-                            } else if (c == k + 1) {
-                                zc = 1;
-                            }
-                            double z = zr * zc;
-                            if (z != 0) {
-                                int p = l <= k ? pos(k, l, n) : pos(l, k, n);
-                                M.add(i, p, -z);
-                            }
-                        }
-                    }
+            Matrix T = new Matrix(n, n), Q = new Matrix(n, n);
+            for (int i = 0, r = 0; i < nf_; ++i, r += nl) {
+                T.row(r).copy(tdesc_.varParams.row(i));
+                T.subMatrix(r, r + nl, r, r + nl).subDiagonal(-1).set(1);
+                for (int j = 0, c = 0; j < nf_; ++j, c += nl) {
+                    Q.set(r, c, tdesc_.covar.get(i, j));
                 }
             }
-            HouseholderR hous = new HouseholderR(false);
-            hous.decompose(M);
-            double[] solve = hous.solve(b);
-            for (int i = 0, j = 0; i < n; i++) {
-                cov.column(i).drop(i, 0).copyFrom(solve, j);
-                j += n - i;
+            Matrix cov = LyapunovEquation.solve(T, Q);
+            if (cov == null) {
+                cov = LyapunovEquation.solveDirect(T, Q);
             }
-            SymmetricMatrix.fromLower(cov);
             Matrix fullCov = new Matrix(getStateDim(), getStateDim());
             for (int r = 0; r < nf_; ++r) {
                 for (int c = 0; c < nf_; ++c) {
@@ -1222,13 +1354,6 @@ public class DynamicFactorModel implements Cloneable, IProcResults {
         }
     }
 
-    private static int pos(int r, int c, int n) {
-//        if (r<c)
-//            return c + r * (2 * n - r - 1) / 2;
-//        else
-        return r + c * (2 * n - c - 1) / 2;
-    }
-
     @Override
     public Map<String, Class> getDictionary() {
         return dictionary();
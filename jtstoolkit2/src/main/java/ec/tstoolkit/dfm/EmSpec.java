@@ -17,13 +17,14 @@ public class EmSpec implements IProcSpecification, Cloneable {
 
     public static final int DEF_VERSION = 2, DEF_MAXITER = 100, DEF_MAXNUMITER = 50;
     public static final double DEF_PRECISION = 1e-9;
-    public static final String ENABLED = "enabled", VERSION = "version", MAXITER = "maxiter", MAXNUMITER = "maxnumiter", PRECISION = "precision";
+    public static final String ENABLED = "enabled", VERSION = "version", MAXITER = "maxiter", MAXNUMITER = "maxnumiter", PRECISION = "precision", ACCELERATED = "accelerated", PARALLEL = "parallel";
 
     private boolean enabled_;
     private int version_ = DEF_VERSION;
     private int maxIter_ = DEF_MAXITER;
      private int maxNumIter_ = DEF_MAXNUMITER;
     private double eps_ = DEF_PRECISION;
+    private boolean accelerated_, parallel_;
 
     public void setEnabled(boolean use) {
         enabled_ = use;
@@ -65,6 +66,33 @@ public class EmSpec implements IProcSpecification, Cloneable {
         return eps_;
     }
 
+    /**
+     * Accelerated EM (SQUAREM). Only used by the version 2 of the algorithm
+     *
+     * @param accelerated
+     */
+    public void setAccelerated(boolean accelerated) {
+        accelerated_ = accelerated;
+    }
+
+    public boolean isAccelerated() {
+        return accelerated_;
+    }
+
+    /**
+     * Parallel estimation of the loadings in the M-step. Only used by the
+     * version 2 of the algorithm
+     *
+     * @param parallel
+     */
+    public void setParallel(boolean parallel) {
+        parallel_ = parallel;
+    }
+
+    public boolean isParallel() {
+        return parallel_;
+    }
+
     @Override
     public EmSpec clone() {
         try {
@@ -90,6 +118,12 @@ public class EmSpec implements IProcSpecification, Cloneable {
         if (eps_ != DEF_PRECISION || verbose) {
             info.set(PRECISION, eps_);
         }
+        if (accelerated_ || verbose) {
+            info.set(ACCELERATED, accelerated_);
+        }
+        if (parallel_ || verbose) {
+            info.set(PARALLEL, parallel_);
+        }
         return info;
     }
 
@@ -118,6 +152,14 @@ public class EmSpec implements IProcSpecification, Cloneable {
         if (e != null) {
             eps_ = e;
         }
+        Boolean accelerated = info.get(ACCELERATED, Boolean.class);
+        if (accelerated != null) {
+            accelerated_ = accelerated;
+        }
+        Boolean parallel = info.get(PARALLEL, Boolean.class);
+        if (parallel != null) {
+            parallel_ = parallel;
+        }
         return true;
     }
 
@@ -138,7 +180,8 @@ public class EmSpec implements IProcSpecification, Cloneable {
     public boolean equals(EmSpec spec) {
         return enabled_ == spec.enabled_ && maxIter_ == spec.maxIter_
                 && maxNumIter_ == spec.maxNumIter_ && version_ == spec.version_
-                && spec.eps_ == eps_;
+                && spec.eps_ == eps_ && accelerated_ == spec.accelerated_
+                && parallel_ == spec.parallel_;
     }
 
     public static void fillDictionary(String prefix, Map<String, Class> dic) {
@@ -147,5 +190,7 @@ public class EmSpec implements IProcSpecification, Cloneable {
         dic.put(InformationSet.item(prefix, MAXITER), Integer.class);
         dic.put(InformationSet.item(prefix, MAXNUMITER), Integer.class);
         dic.put(InformationSet.item(prefix, PRECISION), Double.class);
+        dic.put(InformationSet.item(prefix, ACCELERATED), Boolean.class);
+        dic.put(InformationSet.item(prefix, PARALLEL), Boolean.class);
     }
 }
@@ -22,13 +22,13 @@ public class NumericalProcessingSpec implements IProcSpecification, Cloneable {
 
     public static final int DEF_VERSION = 2, DEF_MAXITER = 1000, DEF_MAXSITER = 15,
             DEF_NITER = 5;
-    public static final Boolean DEF_BLOCK = true, DEF_MIXED=true, DEF_IVAR=false;
+    public static final Boolean DEF_BLOCK = true, DEF_MIXED=true, DEF_IVAR=false, DEF_COLLAPSED=false, DEF_PARALLEL=false, DEF_ANALYTICAL=false;
     public static final String ENABLED = "enabled", MAXITER = "maxiter", MAXSITER = "maxsiter", NITER = "niter", 
-            BLOCKITER = "blockiter", METHOD="method", EPS = "eps", MIXED="mixed", IVAR="ivar";
+            BLOCKITER = "blockiter", METHOD="method", EPS = "eps", MIXED="mixed", IVAR="ivar", COLLAPSED="collapsed", PARALLEL="parallel", ANALYTICAL="analytical";
     public static final double DEF_EPS = 1e-9;
     private boolean enabled_;
     private int maxiter_ = DEF_MAXITER, maxsiter_ = DEF_MAXSITER, niter_ = DEF_NITER;
-    private boolean block_ = DEF_BLOCK, mixed_=DEF_MIXED, ivar_=DEF_IVAR;
+    private boolean block_ = DEF_BLOCK, mixed_=DEF_MIXED, ivar_=DEF_IVAR, collapsed_=DEF_COLLAPSED, parallel_=DEF_PARALLEL, analytical_=DEF_ANALYTICAL;
     private double eps_ = DEF_EPS;
     private Method method_ = Method.LevenbergMarquardt;
 
@@ -88,6 +88,30 @@ public class NumericalProcessingSpec implements IProcSpecification, Cloneable {
         ivar_=b;
     }
 
+    public boolean isCollapsedFiltering(){
+        return collapsed_;
+    }
+    
+    public void setCollapsedFiltering(boolean b){
+        collapsed_=b;
+    }
+
+    public boolean isParallelDerivatives(){
+        return parallel_;
+    }
+    
+    public void setParallelDerivatives(boolean b){
+        parallel_=b;
+    }
+
+    public boolean isAnalyticalGradient(){
+        return analytical_;
+    }
+    
+    public void setAnalyticalGradient(boolean b){
+        analytical_=b;
+    }
+
     public Method getMethod(){
         return method_;
     }
@@ -126,6 +150,15 @@ public class NumericalProcessingSpec implements IProcSpecification, Cloneable {
         if (mixed_ != DEF_IVAR || verbose) {
             info.set(IVAR, ivar_);
         }
+        if (collapsed_ != DEF_COLLAPSED || verbose) {
+            info.set(COLLAPSED, collapsed_);
+        }
+        if (parallel_ != DEF_PARALLEL || verbose) {
+            info.set(PARALLEL, parallel_);
+        }
+        if (analytical_ != DEF_ANALYTICAL || verbose) {
+            info.set(ANALYTICAL, analytical_);
+        }
         if (eps_ != DEF_EPS || verbose) {
             info.set(EPS, eps_);
         }
@@ -163,6 +196,18 @@ public class NumericalProcessingSpec implements IProcSpecification, Cloneable {
         if (ivar != null) {
             ivar_ = ivar;
         }
+        Boolean collapsed = info.get(COLLAPSED, Boolean.class);
+        if (collapsed != null) {
+            collapsed_ = collapsed;
+        }
+        Boolean parallel = info.get(PARALLEL, Boolean.class);
+        if (parallel != null) {
+            parallel_ = parallel;
+        }
+        Boolean analytical = info.get(ANALYTICAL, Boolean.class);
+        if (analytical != null) {
+            analytical_ = analytical;
+        }
         Integer ni = info.get(MAXITER, Integer.class);
         if (ni != null) {
             maxiter_ = ni;
@@ -192,7 +237,7 @@ public class NumericalProcessingSpec implements IProcSpecification, Cloneable {
 
     public boolean equals(NumericalProcessingSpec obj) {
         return obj.enabled_ == enabled_ && obj.block_ == block_ && obj.mixed_ == mixed_
-                && obj.ivar_== ivar_ && obj.eps_ == eps_ && obj.method_ == method_
+                && obj.ivar_== ivar_ && obj.collapsed_ == collapsed_ && obj.parallel_ == parallel_ && obj.analytical_ == analytical_ && obj.eps_ == eps_ && obj.method_ == method_
                 && obj.maxiter_ == maxiter_ && obj.maxsiter_ == obj.maxsiter_ && obj.niter_ == niter_;
     }
 
@@ -215,6 +260,9 @@ public class NumericalProcessingSpec implements IProcSpecification, Cloneable {
         dic.put(InformationSet.item(prefix, BLOCKITER), Boolean.class);
         dic.put(InformationSet.item(prefix, MIXED), Boolean.class);
         dic.put(InformationSet.item(prefix, IVAR), Boolean.class);
+        dic.put(InformationSet.item(prefix, COLLAPSED), Boolean.class);
+        dic.put(InformationSet.item(prefix, PARALLEL), Boolean.class);
+        dic.put(InformationSet.item(prefix, ANALYTICAL), Boolean.class);
         dic.put(InformationSet.item(prefix, EPS), Double.class);
         dic.put(InformationSet.item(prefix, METHOD), String.class);
     }
@@ -54,6 +54,24 @@ public abstract class AbstractMSsfAlgorithm {
 	    final MPredictionErrorDecomposition dped) {
 	Likelihood cll = new Likelihood();
 	evaluate(dped, cll);
+	return calcLikelihood(cll);
+    }
+
+    /**
+     *
+     * @param filter
+     * @return
+     */
+    protected DefaultLikelihoodEvaluation<Likelihood> calcLikelihood(
+	    final CollapsedMFilter filter) {
+	Likelihood cll = new Likelihood();
+	cll.set(filter.getSsqErr(), filter.getLogDeterminant(), filter.getObsCount());
+	cll.setRes(filter.getResiduals());
+	return calcLikelihood(cll);
+    }
+
+    private DefaultLikelihoodEvaluation<Likelihood> calcLikelihood(
+	    final Likelihood cll) {
 	DefaultLikelihoodEvaluation<Likelihood> ll = new DefaultLikelihoodEvaluation<>(
 		cll);
 	ll.useLogLikelihood(!m_ssq);
@@ -160,6 +160,20 @@ public abstract class AbstractMultivariateSsf implements IArraySsf {
         SymmetricMatrix.fromLower(zvz);
     }
 
+    /**
+     *
+     * @param pos
+     * @param v
+     * @param zvz
+     */
+    @Override
+    public void diagZVZ(final int pos, final SubMatrix v, final DataBlock zvz) {
+        int n = getVarsCount();
+        for (int i = 0; i < n; ++i) {
+            zvz.set(i, ZVZ(pos, i, i, v));
+        }
+    }
+
     @Override
     public boolean hasZ(int pos, int v) {
         return true;
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2013 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit.mssf2;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.LowerTriangularMatrix;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+
+/**
+ * Kalman filter for models with many measurements and a diagonal (positive)
+ * variance of the measurement errors, in the spirit of Jungbacker and Koopman.
+ * The observations of each period are collapsed in the state space through
+ * W = Z'H^-1 Z and b = Z'H^-1 v, so that the cost of each step is O(N*nz +
+ * m^3) (N = number of measurements, nz = number of non-zero loadings, m =
+ * dimension of the state) instead of O(N^3).
+ *
+ * With P = LL', S = I + L'WL, c = L'b:
+ * v'F^-1 v = v'H^-1 v - c'S^-1 c, log|F| = log|H| + log|S|,
+ * a(t|t) = a + L(c - L'WL S^-1 c), P(t|t) = L S^-1 L'
+ *
+ * The likelihood is identical to the likelihood computed by MFilter. The
+ * residuals contain, for each period, H^-1/2(v - ZLS^-1 c) (one item by
+ * measurement) followed by S^-1 c (one item by state); their sum of squares is
+ * v'F^-1 v.
+ *
+ * The filter requires a time invariant measurement equation.
+ */
+@Development(status = Development.Status.Alpha)
+public class CollapsedMFilter {
+
+    private IMSsf m_ssf;
+    private IMSsfData m_data;
+    private int m_r, m_v, m_end;
+    // sparse measurement matrix
+    private int[][] m_zidx;
+    private double[][] m_zval;
+    private double[] m_h;
+    // state
+    private DataBlock m_a, m_qb;
+    private Matrix m_P, m_L, m_S, m_Y;
+    private double[] m_W, m_WL, m_b, m_c, m_q, m_lq, m_e;
+    private boolean[] m_pattern;
+    // results
+    private double m_ssq, m_ldet;
+    private int m_n;
+    private double[] m_res;
+
+    /**
+     *
+     */
+    public CollapsedMFilter() {
+    }
+
+    /**
+     * Checks that the collapsed filter can be applied on the given model
+     *
+     * @param ssf
+     * @return True if the measurement equation is time invariant and if the
+     * variances of the measurement errors are strictly positive
+     */
+    public static boolean canHandle(IMSsf ssf) {
+        if (!ssf.isMeasurementEquationTimeInvariant() || !ssf.hasH()) {
+            return false;
+        }
+        for (int i = 0; i < ssf.getVarsCount(); ++i) {
+            if (ssf.H(0, i) <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @param ssf
+     * @param data
+     * @return
+     */
+    public boolean process(final IMSsf ssf, final IMSsfData data) {
+        if (!canHandle(ssf)) {
+            return false;
+        }
+        m_ssf = ssf;
+        m_data = data;
+        initialize();
+        for (int pos = 0; pos < m_end; ++pos) {
+            update(pos);
+            // prediction
+            m_ssf.TX(pos, m_a);
+            m_ssf.TVT(pos, m_P.subMatrix());
+            m_ssf.addV(pos, m_P.subMatrix());
+        }
+        return true;
+    }
+
+    /**
+     * Sum of the squared standardized prediction errors
+     *
+     * @return
+     */
+    public double getSsqErr() {
+        return m_ssq;
+    }
+
+    /**
+     * Log-determinant of the variance of the prediction errors
+     *
+     * @return
+     */
+    public double getLogDeterminant() {
+        return m_ldet;
+    }
+
+    /**
+     * Number of observations
+     *
+     * @return
+     */
+    public int getObsCount() {
+        return m_n;
+    }
+
+    /**
+     * Residuals (see the description of the class)
+     *
+     * @return
+     */
+    public double[] getResiduals() {
+        return m_res;
+    }
+
+    private void initialize() {
+        m_r = m_ssf.getStateDim();
+        m_v = m_ssf.getVarsCount();
+        m_end = m_data.getCount();
+        m_ssq = 0;
+        m_ldet = 0;
+        m_n = 0;
+        m_res = new double[(m_v + m_r) * m_end];
+
+        // sparse representation of Z
+        m_zidx = new int[m_v][];
+        m_zval = new double[m_v][];
+        m_h = new double[m_v];
+        DataBlock z = new DataBlock(m_r);
+        for (int i = 0; i < m_v; ++i) {
+            z.set(0);
+            m_ssf.Z(0, i, z);
+            int nz = 0;
+            for (int j = 0; j < m_r; ++j) {
+                if (z.get(j) != 0) {
+                    ++nz;
+                }
+            }
+            m_zidx[i] = new int[nz];
+            m_zval[i] = new double[nz];
+            for (int j = 0, k = 0; j < m_r; ++j) {
+                double zj = z.get(j);
+                if (zj != 0) {
+                    m_zidx[i][k] = j;
+                    m_zval[i][k++] = zj;
+                }
+            }
+            m_h[i] = m_ssf.H(0, i);
+        }
+
+        m_W = new double[m_r * m_r];
+        m_WL = new double[m_r * m_r];
+        m_b = new double[m_r];
+        m_c = new double[m_r];
+        m_q = new double[m_r];
+        m_lq = new double[m_r];
+        m_e = new double[m_v];
+        m_qb = new DataBlock(m_r);
+        m_pattern = null;
+        m_L = new Matrix(m_r, m_r);
+        m_S = new Matrix(m_r, m_r);
+        m_Y = new Matrix(m_r, m_r);
+
+        m_a = new DataBlock(m_r);
+        double[] a0 = m_data.getInitialState();
+        if (a0 != null) {
+            m_a.copyFrom(a0, 0);
+        }
+        m_P = new Matrix(m_r, m_r);
+        m_ssf.Pf0(m_P.subMatrix());
+        m_ssf.TVT(0, m_P.subMatrix());
+        m_ssf.addV(0, m_P.subMatrix());
+    }
+
+    /**
+     * Updates W = Z'H^-1 Z if the pattern of missing values has changed
+     *
+     * @param pos
+     * @return The number of observations in the current period
+     */
+    private int updateW(int pos) {
+        boolean changed = m_pattern == null;
+        if (m_pattern == null) {
+            m_pattern = new boolean[m_v];
+        }
+        int nobs = 0;
+        for (int i = 0; i < m_v; ++i) {
+            boolean missing = m_data.isMissing(i, pos);
+            if (!missing) {
+                ++nobs;
+            }
+            if (missing != m_pattern[i]) {
+                m_pattern[i] = missing;
+                changed = true;
+            }
+        }
+        if (changed) {
+            for (int i = 0; i < m_W.length; ++i) {
+                m_W[i] = 0;
+            }
+            for (int i = 0; i < m_v; ++i) {
+                if (!m_pattern[i]) {
+                    int[] idx = m_zidx[i];
+                    double[] val = m_zval[i];
+                    double h = m_h[i];
+                    for (int k = 0; k < idx.length; ++k) {
+                        double zk = val[k] / h;
+                        int col = idx[k] * m_r;
+                        for (int l = 0; l < idx.length; ++l) {
+                            m_W[col + idx[l]] += zk * val[l];
+                        }
+                    }
+                }
+            }
+        }
+        return nobs;
+    }
+
+    private void update(int pos) {
+        int nobs = updateW(pos);
+        int rpos = pos * (m_v + m_r);
+        if (nobs == 0) {
+            return;
+        }
+        // prediction errors, b = Z'H^-1 v, v'H^-1 v, log|H|
+        double ssq = 0, ldet = 0;
+        for (int j = 0; j < m_r; ++j) {
+            m_b[j] = 0;
+        }
+        for (int i = 0; i < m_v; ++i) {
+            if (m_pattern[i]) {
+                m_e[i] = 0;
+            } else {
+                int[] idx = m_zidx[i];
+                double[] val = m_zval[i];
+                double e = m_data.get(i, pos);
+                for (int k = 0; k < idx.length; ++k) {
+                    e -= val[k] * m_a.get(idx[k]);
+                }
+                m_e[i] = e;
+                double h = m_h[i];
+                ssq += e * e / h;
+                ldet += Math.log(h);
+                double eh = e / h;
+                for (int k = 0; k < idx.length; ++k) {
+                    m_b[idx[k]] += val[k] * eh;
+                }
+            }
+        }
+
+        // P = LL'
+        m_L.copy(m_P);
+        SymmetricMatrix.lcholesky(m_L, MFilter.Zero);
+        double[] l = m_L.internalStorage();
+        for (int c = 1; c < m_r; ++c) {
+            for (int r = 0; r < c; ++r) {
+                l[r + c * m_r] = 0;
+            }
+        }
+        // WL
+        for (int c = 0; c < m_r; ++c) {
+            int lc = c * m_r;
+            for (int r = 0; r < m_r; ++r) {
+                double s = 0;
+                for (int k = c; k < m_r; ++k) {
+                    s += m_W[r + k * m_r] * l[k + lc];
+                }
+                m_WL[r + lc] = s;
+            }
+        }
+        // S = I + L'WL (lower part)
+        double[] sm = m_S.internalStorage();
+        for (int c = 0; c < m_r; ++c) {
+            int lc = c * m_r;
+            for (int r = c; r < m_r; ++r) {
+                int lr = r * m_r;
+                double s = 0;
+                for (int k = r; k < m_r; ++k) {
+                    s += l[k + lr] * m_WL[k + lc];
+                }
+                sm[r + lc] = s;
+                sm[c + lr] = s;
+            }
+            sm[c + lc] += 1;
+        }
+        SymmetricMatrix.lcholesky(m_S, MFilter.Zero);
+        for (int j = 0; j < m_r; ++j) {
+            ldet += 2 * Math.log(m_S.get(j, j));
+        }
+        // c = L'b, q = S^-1 c
+        for (int j = 0; j < m_r; ++j) {
+            double s = 0;
+            int lj = j * m_r;
+            for (int k = j; k < m_r; ++k) {
+                s += l[k + lj] * m_b[k];
+            }
+            m_c[j] = s;
+        }
+        m_qb.copyFrom(m_c, 0);
+        LowerTriangularMatrix.rsolve(m_S, m_qb, MFilter.Zero);
+        LowerTriangularMatrix.lsolve(m_S, m_qb, MFilter.Zero);
+        m_qb.copyTo(m_q, 0);
+        for (int j = 0; j < m_r; ++j) {
+            ssq -= m_c[j] * m_q[j];
+        }
+
+        m_ssq += ssq;
+        m_ldet += ldet;
+        m_n += nobs;
+
+        // residuals: H^-1/2(v-ZLq), q
+        for (int j = 0; j < m_r; ++j) {
+            double s = 0;
+            for (int k = 0; k <= j; ++k) {
+                s += l[j + k * m_r] * m_q[k];
+            }
+            m_lq[j] = s;
+        }
+        for (int i = 0; i < m_v; ++i) {
+            if (!m_pattern[i]) {
+                int[] idx = m_zidx[i];
+                double[] val = m_zval[i];
+                double u = m_e[i];
+                for (int k = 0; k < idx.length; ++k) {
+                    u -= val[k] * m_lq[idx[k]];
+                }
+                m_res[rpos + i] = u / Math.sqrt(m_h[i]);
+            }
+        }
+        System.arraycopy(m_q, 0, m_res, rpos + m_v, m_r);
+
+        // a(t|t) = a + L(c - L'WL q) = a + L(c - L'W (Lq))
+        for (int j = 0; j < m_r; ++j) {
+            double s = 0;
+            for (int k = 0; k < m_r; ++k) {
+                s += m_W[j + k * m_r] * m_lq[k];
+            }
+            m_b[j] = s;
+        }
+        for (int j = 0; j < m_r; ++j) {
+            double s = m_c[j];
+            int lj = j * m_r;
+            for (int k = j; k < m_r; ++k) {
+                s -= l[k + lj] * m_b[k];
+            }
+            m_q[j] = s;
+        }
+        for (int j = 0; j < m_r; ++j) {
+            double s = 0;
+            for (int k = 0; k <= j; ++k) {
+                s += l[j + k * m_r] * m_q[k];
+            }
+            m_a.add(j, s);
+        }
+
+        // P(t|t) = L S^-1 L' = Y'Y with S_L Y = L'
+        double[] y = m_Y.internalStorage();
+        for (int c = 0; c < m_r; ++c) {
+            for (int r = 0; r < m_r; ++r) {
+                y[r + c * m_r] = l[c + r * m_r];
+            }
+        }
+        LowerTriangularMatrix.rsolve(m_S, m_Y.subMatrix(), MFilter.Zero);
+        double[] p = m_P.internalStorage();
+        for (int c = 0; c < m_r; ++c) {
+            int yc = c * m_r;
+            for (int r = c; r < m_r; ++r) {
+                int yr = r * m_r;
+                double s = 0;
+                for (int k = 0; k < m_r; ++k) {
+                    s += y[k + yr] * y[k + yc];
+                }
+                p[r + yc] = s;
+                p[c + yr] = s;
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013 National Bank of Belgium
+ * 
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved 
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * http://ec.europa.eu/idabc/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and 
+ * limitations under the Licence.
+ */
+
+package ec.tstoolkit.mssf2;
+
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.eco.DefaultLikelihoodEvaluation;
+import ec.tstoolkit.eco.Likelihood;
+
+/**
+ * Likelihood computed by means of the collapsed filter (see CollapsedMFilter).
+ * Falls back on the usual filter when the model can't be collapsed.
+ */
+@Development(status = Development.Status.Alpha)
+public class CollapsedMSsfAlgorithm extends AbstractMSsfAlgorithm
+	implements IMSsfAlgorithm {
+
+    /**
+     * 
+     */
+    public CollapsedMSsfAlgorithm()
+    {
+    }
+
+     /**
+     *
+     * @param ssf
+     * @param data
+     * @return
+     */
+    @Override
+    public DefaultLikelihoodEvaluation<Likelihood> evaluate(IMSsf ssf, IMSsfData data) {
+	CollapsedMFilter cfilter = new CollapsedMFilter();
+	if (cfilter.process(ssf, data))
+	    return calcLikelihood(cfilter);
+	MFilter filter = new MFilter();
+	MPredictionErrorDecomposition pred = new MPredictionErrorDecomposition(
+		true);
+	if (filter.process(ssf, data, pred))
+	    return calcLikelihood(pred);
+	else
+	    return null;
+    }
+}
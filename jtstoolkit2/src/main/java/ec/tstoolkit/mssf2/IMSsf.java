@@ -110,6 +110,15 @@ public interface IMSsf extends ISsfBase {
      */
     void ZVZ(int pos, SubMatrix v, SubMatrix zvz);
 
+    /**
+     * Computes the diagonal of Z(pos) * V * Z'(pos)
+     *
+     * @param pos
+     * @param v
+     * @param zvz The diagonal (its length is getVarsCount())
+     */
+    void diagZVZ(int pos, SubMatrix v, DataBlock zvz);
+
     // forward operations
     /**
      * Computes Z(pos) * x
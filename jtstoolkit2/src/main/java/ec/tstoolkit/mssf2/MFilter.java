@@ -39,12 +39,90 @@ public class MFilter {
     private IMSsfData m_data;
     private int m_pos, m_end, m_r, m_e, m_v;
 
+    // steady state
+    private boolean m_ssEnabled, m_ssActive, m_steady, m_stablePattern;
+    private double m_ssEps = 1e-12;
+    private boolean[] m_pattern;
+    private double[] m_Pprev;
+    private int m_nsteady, m_nrestarts;
+
     /**
      *
      */
     public MFilter() {
     }
 
+    /**
+     * Enables or disables the steady state mode. In that mode, the filter
+     * detects the convergence of the covariance of the states (P). When P is
+     * converged, F and K are frozen and the covariance matrices are no longer
+     * updated while the pattern of missing values doesn't change. The full
+     * recursion is restarted as soon as the pattern changes. The steady state
+     * mode is only used with time invariant models.
+     *
+     * @param enabled
+     */
+    public void setSteadyStateMode(boolean enabled) {
+        m_ssEnabled = enabled;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean isSteadyStateMode() {
+        return m_ssEnabled;
+    }
+
+    /**
+     * Sets the precision used to detect the convergence of P. The covariance
+     * is considered as converged when max|P(t+1)-P(t)| is smaller than
+     * eps*(1+max|P(t+1)|)
+     *
+     * @param eps
+     */
+    public void setSteadyStatePrecision(double eps) {
+        m_ssEps = eps;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public double getSteadyStatePrecision() {
+        return m_ssEps;
+    }
+
+    /**
+     * Indicates that the filter is currently in steady state
+     *
+     * @return
+     */
+    public boolean isSteady() {
+        return m_steady;
+    }
+
+    /**
+     * Number of periods of the last processing that have been filtered in
+     * steady state (F and K not recomputed)
+     *
+     * @return
+     */
+    public int getSteadyStateCount() {
+        return m_nsteady;
+    }
+
+    /**
+     * Number of times the full recursion has been restarted in the last
+     * processing, because the pattern of missing values changed while the
+     * filter was in steady state
+     *
+     * @return
+     */
+    public int getSteadyStateRestartsCount() {
+        return m_nrestarts;
+    }
+
     /**
      * Computes zm = Z * M
      *
@@ -83,6 +161,49 @@ public class MFilter {
      *
      */
     public void mpred() {
+        if (m_ssActive) {
+            m_stablePattern = updatePattern();
+            if (!m_stablePattern && m_steady) {
+                m_steady = false;
+                ++m_nrestarts;
+            }
+        }
+        if (!m_steady) {
+            mvar();
+        } else {
+            ++m_nsteady;
+        }
+        m_state.E.set(0);
+        for (int i = 0; i < m_v; ++i) {
+            if (!m_data.isMissing(i, m_pos)) {
+                double y = m_data.get(i, m_pos);
+                m_state.E.set(i, y - m_ssf.ZX(m_pos, i, m_state.A));
+            }
+        }
+        LowerTriangularMatrix.rsolve(m_state.F, m_state.E, Zero);
+    }
+
+    /**
+     * Stores the pattern of missing values of the current period
+     *
+     * @return True if the pattern is the same as in the previous period
+     */
+    private boolean updatePattern() {
+        boolean same = m_pos > 0;
+        for (int i = 0; i < m_v; ++i) {
+            boolean missing = m_data.isMissing(i, m_pos);
+            if (missing != m_pattern[i]) {
+                m_pattern[i] = missing;
+                same = false;
+            }
+        }
+        return same;
+    }
+
+    /**
+     * Computes F and K
+     */
+    private void mvar() {
 
         // K = TPZ'(ZPZ')^-1
         // computes (ZP)' in K'. Missing values are set to 0 
@@ -104,15 +225,6 @@ public class MFilter {
         // K L' = TPZ' or L K' = ZPT'
         m_ssf.TM(m_pos, K);
         LowerTriangularMatrix.rsolve(m_state.F, K.transpose(), Zero);
-
-        m_state.E.set(0);
-        for (int i = 0; i < m_v; ++i) {
-            if (!m_data.isMissing(i, m_pos)) {
-                double y = m_data.get(i, m_pos);
-                m_state.E.set(i, y - m_ssf.ZX(m_pos, i, m_state.A));
-            }
-        }
-        LowerTriangularMatrix.rsolve(m_state.F, m_state.E, Zero);
     }
 
     /**
@@ -130,6 +242,18 @@ public class MFilter {
         m_e = m_ssf.getTransitionResDim();
         m_end = m_data.getCount();
         m_pos = 0;
+        m_steady = false;
+        m_stablePattern = false;
+        m_nsteady = 0;
+        m_nrestarts = 0;
+        m_ssActive = m_ssEnabled && m_ssf.isTimeInvariant();
+        if (m_ssActive) {
+            m_pattern = new boolean[m_v];
+            m_Pprev = new double[m_r * m_r];
+        } else {
+            m_pattern = null;
+            m_Pprev = null;
+        }
         return true;
     }
 
@@ -149,7 +273,26 @@ public class MFilter {
      *
      */
     public void next() {
+        if (!m_steady) {
+            pnext();
+        }
+
+        //a(t+1)=Ta(t)+(TPZ)F^-1* v=Ta(t)+(TPZ)(LL')^-1* v
+        // = Ta(t)+(TPZ)(L')^-1* L^-1*v =  Ta(t)+K*L^-1*v
+        // U = L^-1*E or LU=E
+        m_ssf.TX(m_pos, m_state.A);
+
+        for (int i = 0; i < m_v; ++i) {
+            if (!m_data.isMissing(i, m_pos)) {
+                m_state.A.addAY(m_state.E.get(i), m_state.K.column(i));
+            }
+        }
+    }
 
+    private void pnext() {
+        if (m_stablePattern) {
+            System.arraycopy(m_state.P.internalStorage(), 0, m_Pprev, 0, m_Pprev.length);
+        }
         // P = TPT' - (TM)* F^-1 *(TM)' + RQR' --> Symmetric
         // TPZ'(LL')^-1 ZPT' =TPZ'L'^-1*L^-1*ZPT'
         // A = Ta + (TM)* F^-1 * v
@@ -165,17 +308,30 @@ public class MFilter {
             }
         }
         m_ssf.addV(m_pos, m_state.P.subMatrix());
+        if (m_stablePattern) {
+            m_steady = isConverged();
+        }
+    }
 
-        //a(t+1)=Ta(t)+(TPZ)F^-1* v=Ta(t)+(TPZ)(LL')^-1* v
-        // = Ta(t)+(TPZ)(L')^-1* L^-1*v =  Ta(t)+K*L^-1*v
-        // U = L^-1*E or LU=E
-        m_ssf.TX(m_pos, m_state.A);
-
-        for (int i = 0; i < m_v; ++i) {
-            if (!m_data.isMissing(i, m_pos)) {
-                m_state.A.addAY(m_state.E.get(i), m_state.K.column(i));
+    /**
+     * Checks that P(t+1) is (nearly) equal to P(t)
+     *
+     * @return
+     */
+    private boolean isConverged() {
+        double[] p = m_state.P.internalStorage();
+        double dmax = 0, pmax = 0;
+        for (int i = 0; i < p.length; ++i) {
+            double d = Math.abs(p[i] - m_Pprev[i]);
+            if (d > dmax) {
+                dmax = d;
+            }
+            double a = Math.abs(p[i]);
+            if (a > pmax) {
+                pmax = a;
             }
         }
+        return dmax <= m_ssEps * (1 + pmax);
     }
 
     /**
@@ -213,6 +369,64 @@ public class MFilter {
         return true;
     }
 
+    /**
+     * Resumes the filter at a given period. The filter starts from the given
+     * state, which should be the prediction (a(start|start-1),
+     * P(start|start-1)) of a previous run on the same model. The results are
+     * saved from start on; previous periods are left unchanged.
+     *
+     * @param ssf The state space model
+     * @param data The data
+     * @param state The predicted state at the start period
+     * @param start The start period
+     * @param rslts The results (may be null)
+     * @return
+     */
+    public boolean process(final IMSsf ssf, final IMSsfData data, final MState state, final int start, final IMFilteringResults rslts) {
+        return process(ssf, data, state, start, data.getCount(), rslts);
+    }
+
+    /**
+     * Resumes the filter at a given period and stops it at another period.
+     * See the previous method
+     *
+     * @param ssf The state space model
+     * @param data The data
+     * @param state The predicted state at the start period
+     * @param start The start period
+     * @param end The end period (excluded)
+     * @param rslts The results (may be null)
+     * @return
+     */
+    public boolean process(final IMSsf ssf, final IMSsfData data, final MState state, final int start, final int end, final IMFilteringResults rslts) {
+        m_ssf = ssf;
+        m_data = data;
+        if (!initFilter()) {
+            return false;
+        }
+        m_end = end;
+        m_state = new MState(m_r, m_v);
+        m_state.A.copy(state.A);
+        m_state.P.copy(state.P);
+        m_pos = start;
+        if (rslts != null) {
+            rslts.prepare(m_ssf, m_data);
+        }
+        if (m_pos < m_end) {
+            do {
+                mpred();
+                if (rslts != null) {
+                    rslts.save(m_pos, m_state);
+                }
+                next();
+            } while (++m_pos < m_end);
+        }
+        if (rslts != null) {
+            rslts.close();
+        }
+        return true;
+    }
+
     // P -= c*r
     private void update(Matrix P, DataBlock c) {//, DataBlock r) {
 //        DataBlockIterator cols = P.columns();
@@ -18,7 +18,11 @@ package ec.tstoolkit.mssf2;
 
 import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
 import ec.tstoolkit.ssf2.ResidualsCumulator;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  *
@@ -28,8 +32,62 @@ import ec.tstoolkit.ssf2.ResidualsCumulator;
 public class MFilteringResults extends ResidualsCumulator implements
         IMFilteringResults {
 
+    /**
+     * Storage policy of the results
+     */
+    public static enum Storage {
+
+        /**
+         * Only the likelihood is computed. Nothing is saved by period
+         */
+        Likelihood,
+        /**
+         * The predicted states (A, P) are saved every k periods. The other
+         * results are recomputed by blocks of k periods when they are
+         * requested. The accessors return copies of the recomputed results
+         */
+        Checkpoints,
+        /**
+         * All the results are saved (following the options of the variance
+         * filter)
+         */
+        Full
+    }
+
+    public static final int DEF_CHECKPOINT_PERIOD = 12;
+    /**
+     * Size (in bytes) of the full filtering results above which checkpoints
+     * are used by default (see checkpointPeriod)
+     */
+    public static final long CHECKPOINT_THRESHOLD = 64L << 20;
+
+    /**
+     * Default checkpoint period for a given problem: DEF_CHECKPOINT_PERIOD if
+     * the full filtering results (variances of the states, gains, variances
+     * of the prediction errors) would exceed CHECKPOINT_THRESHOLD, 0 (full
+     * storage) otherwise
+     *
+     * @param n The dimension of the state
+     * @param nvars The number of variables
+     * @param nperiods The number of periods
+     * @return
+     */
+    public static int checkpointPeriod(int n, int nvars, int nperiods) {
+        long ln = n, lv = nvars;
+        long size = 8L * nperiods * (ln * ln + ln * lv + lv * lv);
+        return size > CHECKPOINT_THRESHOLD ? DEF_CHECKPOINT_PERIOD : 0;
+    }
+
     private final VarianceMFilter m_var = new VarianceMFilter();
     private final MFilteredData m_fdata = new MFilteredData();
+    private Storage m_storage = Storage.Full;
+    private int m_period = DEF_CHECKPOINT_PERIOD;
+    // checkpoints
+    private IMSsf m_ssf;
+    private IMSsfData m_data;
+    private final List<DataBlock> m_ca = new ArrayList<>();
+    private final List<Matrix> m_cp = new ArrayList<>();
+    private Block m_block;
 
     /**
      *
@@ -37,6 +95,14 @@ public class MFilteringResults extends ResidualsCumulator implements
     public MFilteringResults() {
     }
 
+    /**
+     *
+     * @param storage
+     */
+    public MFilteringResults(Storage storage) {
+        m_storage = storage;
+    }
+
     /**
      *
      */
@@ -45,6 +111,53 @@ public class MFilteringResults extends ResidualsCumulator implements
         super.clear();
         m_fdata.clear();
         m_var.clear();
+        clearCheckpoints();
+    }
+
+    private void clearCheckpoints() {
+        m_ssf = null;
+        m_data = null;
+        m_ca.clear();
+        m_cp.clear();
+        m_block = null;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public Storage getStorage() {
+        return m_storage;
+    }
+
+    /**
+     * Sets the storage policy. Should be called before the filtering
+     *
+     * @param storage
+     */
+    public void setStorage(Storage storage) {
+        m_storage = storage;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getCheckpointPeriod() {
+        return m_period;
+    }
+
+    /**
+     * Sets the number of periods between two checkpoints (used only with the
+     * Checkpoints policy). Should be called before the filtering
+     *
+     * @param period
+     */
+    public void setCheckpointPeriod(int period) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Invalid checkpoint period");
+        }
+        m_period = period;
     }
 
 
@@ -78,6 +191,13 @@ public class MFilteringResults extends ResidualsCumulator implements
      */
     @Override
     public void prepare(final IMSsf ssf, final IMSsfData data) {
+        if (m_storage != Storage.Full) {
+            super.clear();
+            clearCheckpoints();
+            m_ssf = ssf;
+            m_data = data;
+            return;
+        }
         if (m_var.isOpen()) {
             m_fdata.checkSize(data.getCount());
         } else {
@@ -94,8 +214,18 @@ public class MFilteringResults extends ResidualsCumulator implements
      */
     @Override
     public void save(final int t, final MState state) {
-        m_var.save(t, state);
-        m_fdata.save(t, state);
+        switch (m_storage) {
+            case Full:
+                m_var.save(t, state);
+                m_fdata.save(t, state);
+                break;
+            case Checkpoints:
+                if (t % m_period == 0) {
+                    m_ca.add(state.A.deepClone());
+                    m_cp.add(state.P.clone());
+                }
+                break;
+        }
         DataBlock diag = state.F.diagonal();
         for (int i = 0; i < state.E.getLength(); ++i) {
             double r = diag.get(i);
@@ -113,6 +243,230 @@ public class MFilteringResults extends ResidualsCumulator implements
         m_var.setStartSaving(start);
     }
 
+    /**
+     * Predicted state at a given period
+     *
+     * @param t The period
+     * @return The state or null if it is not available (Likelihood policy).
+     * With the Checkpoints policy, it is a copy of the recomputed state
+     */
+    public DataBlock A(final int t) {
+        switch (m_storage) {
+            case Full:
+                return m_fdata.A(t);
+            case Checkpoints:
+                synchronized (this) {
+                    Block block = block(t);
+                    return block.a[t - block.start].deepClone();
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Standardized prediction errors at a given period
+     *
+     * @param t The period
+     * @return The errors or null if they are not available (Likelihood policy).
+     * With the Checkpoints policy, it is a copy of the recomputed errors
+     */
+    public DataBlock E(final int t) {
+        switch (m_storage) {
+            case Full:
+                return m_fdata.E(t);
+            case Checkpoints:
+                synchronized (this) {
+                    Block block = block(t);
+                    return block.e[t - block.start].deepClone();
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Cholesky factor of the variance of the prediction errors at a given
+     * period
+     *
+     * @param t The period
+     * @return The matrix or null if it is not available (Likelihood policy).
+     * With the Checkpoints policy, it is a copy of the recomputed matrix
+     */
+    public SubMatrix F(final int t) {
+        switch (m_storage) {
+            case Full:
+                return m_var.F(t);
+            case Checkpoints:
+                synchronized (this) {
+                    Block block = block(t);
+                    return block.f[t - block.start].clone().subMatrix();
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gain at a given period
+     *
+     * @param t The period
+     * @return The matrix or null if it is not available
+     */
+    public SubMatrix K(final int t) {
+        switch (m_storage) {
+            case Full:
+                return m_var.K(t);
+            case Checkpoints:
+                synchronized (this) {
+                    Block block = block(t);
+                    return block.k[t - block.start].clone().subMatrix();
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Variance of the predicted state at a given period
+     *
+     * @param t The period
+     * @return The matrix or null if it is not available
+     */
+    public SubMatrix P(final int t) {
+        switch (m_storage) {
+            case Full:
+                return m_var.P(t);
+            case Checkpoints:
+                synchronized (this) {
+                    Block block = block(t);
+                    return block.p[t - block.start].clone().subMatrix();
+                }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Copies the results of a given period (Checkpoints policy) in buffers
+     * provided by the caller, without intermediate copies. Used by the
+     * smoother, which loads the results of each period
+     *
+     * @param t The period
+     * @param a The buffer of the predicted state. May be null
+     * @param e The buffer of the standardized prediction errors
+     * @param F The buffer of the Cholesky factor of the variance of the
+     * prediction errors
+     * @param K The buffer of the gain
+     * @param P The buffer of the variance of the predicted state
+     */
+    synchronized void load(final int t, final DataBlock a, final DataBlock e,
+            final SubMatrix F, final SubMatrix K, final SubMatrix P) {
+        Block block = block(t);
+        int i = t - block.start;
+        if (a != null) {
+            a.copy(block.a[i]);
+        }
+        e.copy(block.e[i]);
+        F.copy(block.f[i].subMatrix());
+        K.copy(block.k[i].subMatrix());
+        P.copy(block.p[i].subMatrix());
+    }
+
+    /**
+     * Gets a given component of the predicted states
+     *
+     * @param idx The position of the component in the state vector
+     * @return The component or null if it is not available
+     */
+    public double[] component(int idx) {
+        switch (m_storage) {
+            case Full:
+                return m_fdata.component(idx);
+            case Checkpoints:
+                int n = m_data.getCount();
+                double[] c = new double[n];
+                synchronized (this) {
+                    for (int t = 0; t < n; ++t) {
+                        Block block = block(t);
+                        c[t] = block.a[t - block.start].get(idx);
+                    }
+                }
+                return c;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gets the block of results that contains a given period. The block is
+     * recomputed from the previous checkpoint if need be. The block is
+     * reused for the next computations: its content should be copied (in
+     * the same synchronized section) before being returned
+     *
+     * @param t
+     * @return
+     */
+    private synchronized Block block(final int t) {
+        int c = t / m_period, start = c * m_period;
+        if (m_block != null && m_block.start == start) {
+            return m_block;
+        }
+        if (m_block == null) {
+            m_block = new Block(m_ssf.getStateDim(), m_ssf.getVarsCount(), m_period);
+        }
+        m_block.start = start;
+        MState state = new MState(m_ssf.getStateDim(), m_ssf.getVarsCount());
+        state.A.copy(m_ca.get(c));
+        state.P.copy(m_cp.get(c));
+        MFilter filter = new MFilter();
+        filter.process(m_ssf, m_data, state, start, Math.min(start + m_period, m_data.getCount()), m_block);
+        return m_block;
+    }
+
+    /**
+     * Results of a block of periods
+     */
+    private static class Block implements IMFilteringResults {
+
+        int start;
+        final DataBlock[] a, e;
+        final Matrix[] f, k, p;
+
+        Block(int dim, int nvars, int n) {
+            a = new DataBlock[n];
+            e = new DataBlock[n];
+            f = new Matrix[n];
+            k = new Matrix[n];
+            p = new Matrix[n];
+            for (int i = 0; i < n; ++i) {
+                a[i] = new DataBlock(dim);
+                e[i] = new DataBlock(nvars);
+                f[i] = new Matrix(nvars, nvars);
+                k[i] = new Matrix(dim, nvars);
+                p[i] = new Matrix(dim, dim);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void prepare(IMSsf ssf, IMSsfData data) {
+        }
+
+        @Override
+        public void save(int t, MState state) {
+            int i = t - start;
+            a[i].copy(state.A);
+            e[i].copy(state.E);
+            f[i].copy(state.F);
+            k[i].copy(state.K);
+            p[i].copy(state.P);
+        }
+    }
+
     /**
      *
      * @param start
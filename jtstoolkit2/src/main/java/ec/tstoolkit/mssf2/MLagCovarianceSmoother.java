@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit.mssf2;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.DataBlockIterator;
+import ec.tstoolkit.maths.matrices.LowerTriangularMatrix;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+
+/**
+ * Smoothed covariances between the states of different periods, for a window
+ * at the end of the data: Cov(a(t), a(s) | all the data), with start &lt;= t,
+ * s &lt; data.getCount(). It avoids the use of a model augmented with the
+ * lagged states.
+ *
+ * The covariances are computed by means of the usual formula (see Durbin and
+ * Koopman, 4.7): for t &lt;= j, Cov(a(t), a(j)) = P(t)L'(t)...L'(j-1)(I -
+ * N(j-1)P(j)), where P(t) is the variance of the predicted state, L(t) = T(t)
+ * - K(t)Z(t) and N(t-1) = Z'(t)F^-1(t)Z(t) + L'(t)N(t)L(t).
+ */
+public class MLagCovarianceSmoother {
+
+    private IMSsf m_ssf;
+    private IMSsfData m_data;
+    private MFilteringResults m_frslts;
+    private int m_start, m_w, m_n, m_v;
+    private Matrix m_cov;
+    //
+    private int m_pos;
+    private SubMatrix m_K;
+    private Matrix m_F, m_Z, m_Zl;
+    private DataBlock m_vtmp;
+    private boolean[] m_missing;
+
+    /**
+     * Computes the covariances between the states of the periods [start,
+     * data.getCount()[
+     *
+     * @param ssf
+     * @param data
+     * @param start The first period of the window
+     * @return
+     */
+    public boolean process(final IMSsf ssf, final IMSsfData data, final int start) {
+        MFilteringResults frslts = new MFilteringResults();
+        frslts.saveAll(start);
+        MFilter filter = new MFilter();
+        if (!filter.process(ssf, data, frslts)) {
+            return false;
+        }
+        return process(ssf, data, frslts, start);
+    }
+
+    /**
+     * Computes the covariances between the states of the periods [start,
+     * data.getCount()[
+     *
+     * @param ssf
+     * @param data
+     * @param frslts The filtering results. The gains and the variances of the
+     * predicted states must be available from start
+     * @param start The first period of the window
+     * @return
+     */
+    public boolean process(final IMSsf ssf, final IMSsfData data,
+            final MFilteringResults frslts, final int start) {
+        int end = data.getCount() - 1;
+        if (start < 0 || start > end) {
+            return false;
+        }
+        m_ssf = ssf;
+        m_data = data;
+        m_frslts = frslts;
+        m_start = start;
+        m_w = end - start + 1;
+        m_n = ssf.getStateDim();
+        m_v = ssf.getVarsCount();
+        m_F = new Matrix(m_v, m_v);
+        m_Z = new Matrix(m_v, m_n);
+        m_Zl = new Matrix(m_v, m_n);
+        m_vtmp = new DataBlock(m_v);
+        m_missing = new boolean[m_v];
+        if (m_ssf.isTimeInvariant()) {
+            m_ssf.Z(0, m_Z.subMatrix());
+        }
+
+        // G(t) = I - N(t-1)P(t), N(end) = 0
+        Matrix[] G = new Matrix[m_w];
+        Matrix N = new Matrix(m_n, m_n);
+        for (int t = end; t >= start; --t) {
+            load(t);
+            iterateN(N);
+            Matrix g = new Matrix(m_n, m_n);
+            g.subMatrix().product(N.subMatrix(), m_frslts.P(t));
+            g.chs();
+            for (int i = 0; i < m_n; ++i) {
+                g.add(i, i, 1);
+            }
+            G[t - start] = g;
+        }
+
+        m_cov = new Matrix(m_w * m_n, m_w * m_n);
+        for (int j = end; j >= start; --j) {
+            // Y = L'(t)...L'(j-1)G(j)
+            Matrix Y = G[j - start];
+            for (int t = j; t >= start; --t) {
+                if (t < j) {
+                    load(t);
+                    XL(Y.columns());
+                }
+                SubMatrix C = covariance(t, j);
+                C.product(m_frslts.P(t), Y.subMatrix());
+                if (t < j) {
+                    covariance(j, t).copy(C.transpose());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Smoothed covariance between the states at t and s
+     *
+     * @param t A period in the window
+     * @param s A period in the window
+     * @return Cov(a(t), a(s))
+     */
+    public SubMatrix covariance(int t, int s) {
+        int r0 = (t - m_start) * m_n, c0 = (s - m_start) * m_n;
+        return m_cov.subMatrix(r0, r0 + m_n, c0, c0 + m_n);
+    }
+
+    /**
+     * @return The first period of the window
+     */
+    public int getStart() {
+        return m_start;
+    }
+
+    private void load(int t) {
+        m_pos = t;
+        if (!m_ssf.isTimeInvariant()) {
+            m_ssf.Z(t, m_Z.subMatrix());
+        }
+        m_F.subMatrix().copy(m_frslts.F(t));
+        m_K = m_frslts.K(t);
+        for (int i = 0; i < m_v; ++i) {
+            m_missing[i] = m_data.isMissing(i, t);
+        }
+    }
+
+    private void iterateN(Matrix N) {
+        // N(t-1) = Z'(t)*F^-1*Z(t) + L'(t)*N(t)*L(t)
+        XL(N.columns());
+        XL(N.rows());
+        DataBlockIterator zrows = m_Z.rows(), zlrows = m_Zl.rows();
+        DataBlock zrow = zrows.getData(), zlrow = zlrows.getData();
+        do {
+            if (!m_missing[zrows.getPosition()]) {
+                zlrow.copy(zrow);
+            } else {
+                zlrow.set(0);
+            }
+        } while (zrows.next() && zlrows.next());
+        // R^-1*Z = Zl <-> R*Zl = Z
+        LowerTriangularMatrix.rsolve(m_F, m_Zl.subMatrix(), MFilter.Zero);
+        for (int i = 0; i < m_v; ++i) {
+            if (!m_missing[i]) {
+                N.addXaXt(1, m_Zl.row(i));
+            }
+        }
+    }
+
+    /**
+     * Compute x*(T-KZ)=xT-(xK * Z)=xT-(xQ*R^-1 * Z)
+     *
+     * @param x
+     */
+    private void xL(DataBlock x) {
+        m_vtmp.set(0);
+        for (int i = 0; i < m_v; ++i) {
+            if (!m_missing[i]) {
+                m_vtmp.set(i, x.dot(m_K.column(i)));
+            }
+        }
+        LowerTriangularMatrix.lsolve(m_F, m_vtmp, MFilter.Zero);
+        m_ssf.XT(m_pos, x);
+        for (int i = 0; i < m_v; ++i) {
+            if (!m_missing[i]) {
+                m_ssf.XpZd(m_pos, i, x, -m_vtmp.get(i));
+            }
+        }
+    }
+
+    private void XL(DataBlockIterator X) {
+        DataBlock x = X.getData();
+        do {
+            xL(x);
+        } while (X.next());
+    }
+}
@@ -30,6 +30,7 @@ import ec.tstoolkit.maths.matrices.SymmetricMatrix;
 public class MSmoother {
 
     private boolean m_bvar = true;
+    private int m_cperiod;
     private DataBlock m_a;
     private SubMatrix m_P;
     private Matrix m_V;
@@ -41,6 +42,8 @@ public class MSmoother {
     private DataBlock m_r, m_E;
     private SubMatrix m_K;
     private Matrix m_F;
+    // buffers of K and P when the filtering results use checkpoints
+    private Matrix m_Kc, m_Pc;
     private Matrix m_N, m_L, m_T, m_Z, m_Zl;
     // 
     private DataBlock m_tmp, m_vtmp;
@@ -61,6 +64,8 @@ public class MSmoother {
         m_P = null;
         m_r = null;
         m_F = null;
+        m_Kc = null;
+        m_Pc = null;
         m_ssf = null;
         m_T = null;
         m_L = null;
@@ -89,6 +94,29 @@ public class MSmoother {
         m_bvar = calc;
     }
 
+    /**
+     * Number of periods between two checkpoints of the filtering results
+     * created by the smoother. 0 means that all the filtering results are
+     * stored (default)
+     *
+     * @return
+     */
+    public int getCheckpointPeriod() {
+        return m_cperiod;
+    }
+
+    /**
+     * Sets the number of periods between two checkpoints of the filtering
+     * results created by the smoother. With checkpoints, the memory used by
+     * the filtering results is divided by (about) the period, at the cost of
+     * a second filtering pass (by blocks)
+     *
+     * @param period The period. 0 for a full storage
+     */
+    public void setCheckpointPeriod(int period) {
+        m_cperiod = period;
+    }
+
     /**
      *
      * @param stop
@@ -190,12 +218,23 @@ public class MSmoother {
     }
 
     private void loadInfo() {
-        m_F.subMatrix().copy(m_frslts.getVarianceFilter().F(m_pos));
-        m_E.copy(m_frslts.getFilteredData().E(m_pos));
-        m_K = m_frslts.getVarianceFilter().K(m_pos);
-        m_P = m_frslts.getVarianceFilter().P(m_pos);
-        if (m_a.getLength() != 0) {
-            m_a.copy(m_frslts.getFilteredData().A(m_pos));
+        if (m_frslts.getStorage() == MFilteringResults.Storage.Checkpoints) {
+            if (m_Kc == null) {
+                m_Kc = new Matrix(m_n, m_v);
+                m_Pc = new Matrix(m_n, m_n);
+            }
+            m_frslts.load(m_pos, m_a.getLength() != 0 ? m_a : null, m_E,
+                    m_F.subMatrix(), m_Kc.subMatrix(), m_Pc.subMatrix());
+            m_K = m_Kc.subMatrix();
+            m_P = m_Pc.subMatrix();
+        } else {
+            m_F.subMatrix().copy(m_frslts.F(m_pos));
+            m_E.copy(m_frslts.E(m_pos));
+            m_K = m_frslts.K(m_pos);
+            m_P = m_frslts.P(m_pos);
+            if (m_a.getLength() != 0) {
+                m_a.copy(m_frslts.A(m_pos));
+            }
         }
         for (int i = 0; i < m_v; ++i) {
             m_missing[i]=m_data.isMissing(i, m_pos);
@@ -250,8 +289,13 @@ public class MSmoother {
         m_ssf = ssf;
         m_data = data;
         MFilteringResults frslts = new MFilteringResults();
-        frslts.getVarianceFilter().setSavingK(true);
-        frslts.getVarianceFilter().setSavingP(true);
+        if (m_cperiod > 0) {
+            frslts.setStorage(MFilteringResults.Storage.Checkpoints);
+            frslts.setCheckpointPeriod(m_cperiod);
+        } else {
+            frslts.getVarianceFilter().setSavingK(true);
+            frslts.getVarianceFilter().setSavingP(true);
+        }
         MFilter filter = new MFilter();
         if (!filter.process(ssf, data, frslts)) {
             return false;
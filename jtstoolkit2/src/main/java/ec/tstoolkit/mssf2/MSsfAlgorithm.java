@@ -36,6 +36,26 @@ public class MSsfAlgorithm extends AbstractMSsfAlgorithm
     {
     }
 
+    private boolean m_ss;
+
+    /**
+     * Uses the steady state mode of the filter (see MFilter)
+     * @param value
+     */
+    public void useSteadyState(final boolean value)
+    {
+	m_ss = value;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean isUsingSteadyState()
+    {
+	return m_ss;
+    }
+
      /**
      *
      * @param ssf
@@ -45,6 +65,7 @@ public class MSsfAlgorithm extends AbstractMSsfAlgorithm
     @Override
     public DefaultLikelihoodEvaluation<Likelihood> evaluate(IMSsf ssf, IMSsfData data) {
 	MFilter filter = new MFilter();
+	filter.setSteadyStateMode(m_ss);
 	MPredictionErrorDecomposition pred = new MPredictionErrorDecomposition(
 		true);
 	if (filter.process(ssf, data, pred))
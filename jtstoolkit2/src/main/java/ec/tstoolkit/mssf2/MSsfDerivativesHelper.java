@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 National Bank of Belgium
+ * 
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved 
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * http://ec.europa.eu/idabc/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and 
+ * limitations under the Licence.
+ */
+package ec.tstoolkit.mssf2;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.IReadDataBlock;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Steps and perturbed points of the numerical derivatives of a
+ * MSsfFunction
+ */
+class MSsfDerivativesHelper {
+
+    /**
+     * Steps used in the numerical derivatives. The sign of a step is reversed
+     * when the perturbed point is outside the domain
+     *
+     * @param fn
+     * @param x
+     * @return
+     */
+    static double[] epsilon(MSsfFunction<?> fn, IReadDataBlock x) {
+        int n = x.getLength();
+        double[] eps = new double[n];
+        DataBlock p = new DataBlock(x);
+        for (int i = 0; i < n; ++i) {
+            double e = fn.mapper.epsilon(x, i);
+            p.add(i, e);
+            if (!fn.mapper.checkBoundaries(p)) {
+                e = -e;
+            }
+            p.set(i, x.get(i));
+            eps[i] = e;
+        }
+        return eps;
+    }
+
+    /**
+     * Perturbed points: x+eps(i) (and x-eps(i) for central differences)
+     *
+     * @param x
+     * @param eps
+     * @param sym
+     * @return
+     */
+    static List<DataBlock> points(IReadDataBlock x, double[] eps, boolean sym) {
+        int n = eps.length;
+        List<DataBlock> points = new ArrayList<>(sym ? 2 * n : n);
+        for (int i = 0; i < n; ++i) {
+            DataBlock p = new DataBlock(x);
+            p.add(i, eps[i]);
+            points.add(p);
+        }
+        if (sym) {
+            for (int i = 0; i < n; ++i) {
+                DataBlock p = new DataBlock(x);
+                p.add(i, -eps[i]);
+                points.add(p);
+            }
+        }
+        return points;
+    }
+}
@@ -28,6 +28,11 @@ import ec.tstoolkit.maths.realfunctions.ISsqFunctionDerivatives;
 import ec.tstoolkit.maths.realfunctions.ISsqFunctionInstance;
 import ec.tstoolkit.maths.realfunctions.NumericalDerivatives;
 import ec.tstoolkit.maths.realfunctions.SsqNumericalDerivatives;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  *
@@ -48,6 +53,7 @@ public class MSsfFunction<S extends IMSsf> implements IFunction, ISsqFunction {
      *
      */
     public final IMSsfData data;
+    private ExecutorService m_executor;
 
     /**
      *
@@ -67,14 +73,82 @@ public class MSsfFunction<S extends IMSsf> implements IFunction, ISsqFunction {
         return new MSsfFunctionInstance<>(this, parameters);
     }
 
+    /**
+     * Evaluates the function at several points. The evaluations are done
+     * concurrently when an executor has been provided.
+     *
+     * @param parameters
+     * @return The instances, in the order of the parameters
+     */
+    public List<MSsfFunctionInstance<S>> evaluate(List<? extends IReadDataBlock> parameters) {
+        List<MSsfFunctionInstance<S>> rslts = new ArrayList<>(parameters.size());
+        if (m_executor == null) {
+            for (IReadDataBlock p : parameters) {
+                rslts.add(evaluate(p));
+            }
+            return rslts;
+        }
+        List<Future<MSsfFunctionInstance<S>>> futures = new ArrayList<>(parameters.size());
+        for (final IReadDataBlock p : parameters) {
+            futures.add(m_executor.submit(() -> evaluate(p)));
+        }
+        try {
+            for (Future<MSsfFunctionInstance<S>> future : futures) {
+                rslts.add(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            for (Future<MSsfFunctionInstance<S>> future : futures) {
+                future.cancel(true);
+            }
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        }
+        return rslts;
+    }
+
+    /**
+     * Executor used for the computation of the numerical derivatives. Each
+     * perturbed point is filtered in its own task (the filters and the
+     * likelihood cumulators are created by the tasks). When the executor is
+     * null (default), the derivatives are computed sequentially.
+     *
+     * @param executor
+     */
+    public void setExecutor(ExecutorService executor) {
+        m_executor = executor;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public ExecutorService getExecutor() {
+        return m_executor;
+    }
+
     @Override
-    public NumericalDerivatives getDerivatives(IFunctionInstance point) {
-        return new NumericalDerivatives(this, point, false, true);
+    public IFunctionDerivatives getDerivatives(IFunctionInstance point) {
+        if (m_executor != null) {
+            return new ParallelNumericalDerivatives<>(this, point, false);
+        } else {
+            return new NumericalDerivatives(this, point, false, true);
+        }
     }
 
     @Override
-    public SsqNumericalDerivatives getDerivatives(ISsqFunctionInstance point) {
-        return new SsqNumericalDerivatives(this, point, false, true);
+    public ISsqFunctionDerivatives getDerivatives(ISsqFunctionInstance point) {
+        if (m_executor != null) {
+            return new ParallelSsqNumericalDerivatives<>(this, point, false);
+        } else {
+            return new SsqNumericalDerivatives(this, point, false, true);
+        }
     }
 
     /**
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 National Bank of Belgium
+ * 
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved 
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * http://ec.europa.eu/idabc/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and 
+ * limitations under the Licence.
+ */
+package ec.tstoolkit.mssf2;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.IReadDataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit.maths.realfunctions.IFunctionDerivatives;
+import ec.tstoolkit.maths.realfunctions.IFunctionInstance;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Numerical derivatives of a MSsfFunction. All the perturbed points of the
+ * gradient (and of the hessian) are evaluated in one batch, concurrently if
+ * the function has an executor.
+ *
+ * @param <S>
+ */
+@Development(status = Development.Status.Alpha)
+public class ParallelNumericalDerivatives<S extends IMSsf> implements IFunctionDerivatives {
+
+    private final MSsfFunction<S> m_fn;
+    private final IReadDataBlock m_x;
+    private final double m_fx;
+    private final boolean m_sym;
+    private final double[] m_eps;
+    private double[] m_grad, m_fxi;
+
+    /**
+     *
+     * @param fn
+     * @param point
+     * @param sym Central differences for the gradient
+     */
+    public ParallelNumericalDerivatives(MSsfFunction<S> fn, IFunctionInstance point, boolean sym) {
+        m_fn = fn;
+        m_x = point.getParameters();
+        m_fx = point.getValue();
+        m_sym = sym;
+        m_eps = MSsfDerivativesHelper.epsilon(fn, m_x);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public MSsfFunction<S> getFunction() {
+        return m_fn;
+    }
+
+    @Override
+    public IReadDataBlock getGradient() {
+        if (m_grad == null) {
+            calcGradient();
+        }
+        return new DataBlock(m_grad);
+    }
+
+    @Override
+    public void getHessian(SubMatrix hessian) {
+        if (m_fxi == null) {
+            calcGradient();
+        }
+        int n = m_eps.length;
+        List<DataBlock> points = new ArrayList<>(n * (n + 1) / 2);
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j <= i; ++j) {
+                DataBlock p = new DataBlock(m_x);
+                p.add(i, m_eps[i]);
+                p.add(j, m_eps[j]);
+                points.add(p);
+            }
+        }
+        List<MSsfFunctionInstance<S>> fxij = m_fn.evaluate(points);
+        for (int i = 0, k = 0; i < n; ++i) {
+            for (int j = 0; j <= i; ++j) {
+                double h = (fxij.get(k++).getValue() - m_fxi[i] - m_fxi[j] + m_fx)
+                        / (m_eps[i] * m_eps[j]);
+                hessian.set(i, j, h);
+                hessian.set(j, i, h);
+            }
+        }
+    }
+
+    private void calcGradient() {
+        int n = m_eps.length;
+        List<DataBlock> points = MSsfDerivativesHelper.points(m_x, m_eps, m_sym);
+        List<MSsfFunctionInstance<S>> fx = m_fn.evaluate(points);
+        m_grad = new double[n];
+        m_fxi = new double[n];
+        for (int i = 0; i < n; ++i) {
+            m_fxi[i] = fx.get(i).getValue();
+            if (m_sym) {
+                m_grad[i] = (m_fxi[i] - fx.get(n + i).getValue()) / (2 * m_eps[i]);
+            } else {
+                m_grad[i] = (m_fxi[i] - m_fx) / m_eps[i];
+            }
+        }
+    }
+}
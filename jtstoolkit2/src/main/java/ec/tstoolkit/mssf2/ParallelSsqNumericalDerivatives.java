@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 National Bank of Belgium
+ * 
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved 
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * http://ec.europa.eu/idabc/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and 
+ * limitations under the Licence.
+ */
+package ec.tstoolkit.mssf2;
+
+import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.IReadDataBlock;
+import ec.tstoolkit.design.Development;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit.maths.realfunctions.ISsqFunctionDerivatives;
+import ec.tstoolkit.maths.realfunctions.ISsqFunctionInstance;
+import java.util.List;
+
+/**
+ * Numerical jacobian of the residuals of a MSsfFunction. All the perturbed
+ * points are evaluated in one batch, concurrently if the function has an
+ * executor. The gradient and the hessian of the sum of squares are 2J'e and
+ * 2J'J.
+ *
+ * @param <S>
+ */
+@Development(status = Development.Status.Alpha)
+public class ParallelSsqNumericalDerivatives<S extends IMSsf> implements ISsqFunctionDerivatives {
+
+    private final MSsfFunction<S> m_fn;
+    private final IReadDataBlock m_x;
+    private final double[] m_e;
+    private final boolean m_sym;
+    private final double[] m_eps;
+    private Matrix m_J;
+
+    /**
+     *
+     * @param fn
+     * @param point
+     * @param sym Central differences
+     */
+    public ParallelSsqNumericalDerivatives(MSsfFunction<S> fn, ISsqFunctionInstance point, boolean sym) {
+        m_fn = fn;
+        m_x = point.getParameters();
+        m_e = point.getE();
+        m_sym = sym;
+        m_eps = MSsfDerivativesHelper.epsilon(fn, m_x);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public MSsfFunction<S> getFunction() {
+        return m_fn;
+    }
+
+    @Override
+    public IReadDataBlock getGradient() {
+        Matrix J = jacobian();
+        DataBlock g = new DataBlock(m_eps.length);
+        DataBlock e = new DataBlock(m_e);
+        for (int i = 0; i < m_eps.length; ++i) {
+            g.set(i, 2 * J.column(i).dot(e));
+        }
+        return g;
+    }
+
+    @Override
+    public void getHessian(SubMatrix hessian) {
+        Matrix H = SymmetricMatrix.XtX(jacobian());
+        H.mul(2);
+        hessian.copy(H.subMatrix());
+    }
+
+    /**
+     *
+     * @param jacobian
+     */
+    public void getJacobian(SubMatrix jacobian) {
+        jacobian.copy(jacobian().subMatrix());
+    }
+
+    private Matrix jacobian() {
+        if (m_J != null) {
+            return m_J;
+        }
+        int n = m_eps.length, m = m_e.length;
+        List<DataBlock> points = MSsfDerivativesHelper.points(m_x, m_eps, m_sym);
+        List<MSsfFunctionInstance<S>> fx = m_fn.evaluate(points);
+        m_J = new Matrix(m, n);
+        for (int i = 0; i < n; ++i) {
+            DataBlock col = m_J.column(i);
+            col.copyFrom(fx.get(i).getE(), 0);
+            if (m_sym) {
+                col.sub(new DataBlock(fx.get(n + i).getE()));
+                col.mul(1 / (2 * m_eps[i]));
+            } else {
+                col.sub(new DataBlock(m_e));
+                col.mul(1 / m_eps[i]);
+            }
+        }
+        return m_J;
+    }
+}
@@ -25,6 +25,7 @@ import ec.tstoolkit.timeseries.simplets.TsDataTableInfo;
 import ec.tstoolkit.timeseries.simplets.TsDomain;
 import ec.tstoolkit.timeseries.simplets.TsFrequency;
 import ec.tstoolkit.timeseries.simplets.TsPeriod;
+import java.util.Arrays;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -63,17 +64,25 @@ public class TsInformationSet {
      * @return
      */
     public TsInformationSet revisedData(TsInformationSet newdata) {
+        Store store = store(), nstore = newdata.store();
         TsData[] ndata = new TsData[table_.getSeriesCount()];
         for (int i = 0; i < ndata.length; ++i) {
             TsData cur = table_.series(i);
-            TsData ncur = newdata.table_.series(i);
-            ncur = ncur.fittoDomain(cur.getDomain());
-            for (int j = 0; j < cur.getLength(); ++j) {
-                if (cur.isMissing(j)) {
-                    ncur.setMissing(j);
+            double[] cv = cur.getValues().internalStorage();
+            double[] r;
+            if (store.hashes[i] == nstore.hashes[i] && same(cur, newdata.table_.series(i))) {
+                r = cv.clone();
+            } else {
+                TsData ncur = newdata.table_.series(i);
+                double[] nv = ncur.getValues().internalStorage();
+                int del = cur.getStart().minus(ncur.getStart());
+                r = new double[cv.length];
+                for (int j = 0; j < cv.length; ++j) {
+                    int k = j + del;
+                    r[j] = Double.isNaN(cv[j]) || k < 0 || k >= nv.length ? Double.NaN : nv[k];
                 }
             }
-            ndata[i] = ncur;
+            ndata[i] = new TsData(cur.getStart(), r, false);
         }
         return new TsInformationSet(ndata);
     }
@@ -122,6 +131,28 @@ public class TsInformationSet {
         return table_.getSeriesCount();
     }
 
+    /**
+     * Position of the last valid observation of a series (in the domain of
+     * the series)
+     *
+     * @param idx The index of the series
+     * @return The position or -1 if the series doesn't contain any valid
+     * observation
+     */
+    public int getLastValidPosition(int idx) {
+        return store().lastValid[idx];
+    }
+
+    /**
+     * Fingerprint of the data (series domains and values). Information sets
+     * with different fingerprints contain different data
+     *
+     * @return
+     */
+    public int getFingerprint() {
+        return store().fingerprint;
+    }
+
     public int getDataCount() {
         int n = 0;
         for (int i = 0; i < table_.getSeriesCount(); ++i) {
@@ -159,13 +190,16 @@ public class TsInformationSet {
         Matrix m = new Matrix(domain.getLength(), table_.getSeriesCount());
         m.set(Double.NaN);
         TsDomain common = tdomain.intersection(domain);
-        for (int i = 0, j = common.getStart().minus(domain.getStart()),
-                k = common.getStart().minus(tdomain.getStart()); i < common.getLength(); ++i, ++j, ++k) {
-            for (int s = 0; s < m.getColumnsCount(); ++s) {
-                TsDataTableInfo dataInfo = table_.getDataInfo(k, s);
-                if (dataInfo == TsDataTableInfo.Valid) {
-                    m.set(j, s, table_.getData(k, s));
-                }
+        int n = common.getLength();
+        if (n > 0) {
+            Store store = store();
+            // the matrix is stored by columns
+            double[] data = m.internalStorage();
+            int nrows = m.getRowsCount();
+            int j = common.getStart().minus(domain.getStart()),
+                    k = common.getStart().minus(tdomain.getStart());
+            for (int s = 0; s < store.columns.length; ++s) {
+                System.arraycopy(store.columns[s], k, data, s * nrows + j, n);
             }
         }
         return m;
@@ -187,26 +221,28 @@ public class TsInformationSet {
             return null;
         }
         TsInformationUpdates updates = new TsInformationUpdates();
+        Store store = store(), nstore = ndata.store();
         for (int i = 0; i < n; ++i) {
             TsData olds = table_.series(i), news = ndata.table_.series(i);
+            if (store.hashes[i] == nstore.hashes[i] && same(olds, news)) {
+                continue;
+            }
+            double[] ov = olds.getValues().internalStorage(), nv = news.getValues().internalStorage();
             int del = news.getStart().minus(olds.getStart());
             TsPeriod start = news.getStart();
-            for (int j = 0; j < news.getLength(); ++j) {
-                if (!news.getValues().isMissing(j)) {
+            for (int j = 0; j < nv.length; ++j) {
+                if (!Double.isNaN(nv[j])) {
                     int k = j + del;
-                    if (k < 0 || k >= olds.getLength() || olds.getValues().isMissing(k)) {
+                    if (k < 0 || k >= ov.length || Double.isNaN(ov[k])) {
                         updates.add(start.plus(j), i);
                     }
                 }
             }
-            
+
             // Calculates revisions
             start = olds.getStart();
-            TsData newFit = news.fittoDomain(olds.getDomain());
-            for (int j = 0; j < olds.getLength(); ++j) {
-                if (!newFit.getValues().isMissing(j) 
-                        && !olds.getValues().isMissing(j)
-                        && newFit.get(j) != olds.get(j)) {
+            for (int j = Math.max(0, del), k = j - del; j < ov.length && k < nv.length; ++j, ++k) {
+                if (!Double.isNaN(nv[k]) && !Double.isNaN(ov[j]) && nv[k] != ov[j]) {
                     updates.addRevision(start.plus(j), i);
                 }
             }
@@ -270,5 +306,59 @@ public class TsInformationSet {
         return new TsInformationSet(inputc);
     }
 
+    private Store store() {
+        Store store = store_;
+        if (store == null) {
+            store = new Store(table_);
+            store_ = store;
+        }
+        return store;
+    }
+
+    private static boolean same(TsData s, TsData t) {
+        return s.getStart().equals(t.getStart())
+                && Arrays.equals(s.getValues().internalStorage(), t.getValues().internalStorage());
+    }
+
+    /**
+     * Compact representation of the data, built on demand: the values of the
+     * series on the domain of the table (NaN for missing values), the hashes
+     * of the series and the positions of their last valid observations
+     */
+    private static final class Store {
+
+        final double[][] columns;
+        final int[] hashes, lastValid;
+        final int fingerprint;
+
+        Store(TsDataTable table) {
+            int n = table.getSeriesCount();
+            TsDomain domain = table.getDomain();
+            int len = domain == null ? 0 : domain.getLength();
+            columns = new double[n][];
+            hashes = new int[n];
+            lastValid = new int[n];
+            int h = 1;
+            for (int s = 0; s < n; ++s) {
+                double[] col = new double[len];
+                for (int i = 0; i < len; ++i) {
+                    col[i] = table.getDataInfo(i, s) == TsDataTableInfo.Valid ? table.getData(i, s) : Double.NaN;
+                }
+                columns[s] = col;
+                TsData series = table.series(s);
+                double[] values = series.getValues().internalStorage();
+                hashes[s] = 31 * series.getStart().hashCode() + Arrays.hashCode(values);
+                int j = values.length - 1;
+                while (j >= 0 && Double.isNaN(values[j])) {
+                    --j;
+                }
+                lastValid[s] = j;
+                h = 31 * h + hashes[s];
+            }
+            fingerprint = h;
+        }
+    }
+
     private final TsDataTable table_ = new TsDataTable();
+    private volatile Store store_;
 }
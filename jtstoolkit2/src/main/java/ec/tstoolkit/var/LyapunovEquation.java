@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 National Bank of Belgium
+ *
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ */
+package ec.tstoolkit.var;
+
+import ec.tstoolkit.maths.matrices.HouseholderR;
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+
+/**
+ * Solutions of the discrete Lyapunov equation V = T V T' + Q, which defines
+ * the unconditional covariance of a stationary VAR model.
+ */
+public final class LyapunovEquation {
+
+    public static final int MAXITER = 100;
+    public static final double EPS = 1e-15;
+
+    private LyapunovEquation() {
+    }
+
+    /**
+     * Solves the equation by means of the doubling algorithm:
+     * V(k+1) = V(k) + A(k) V(k) A(k)', A(k+1) = A(k) A(k), with V(0) = Q and
+     * A(0) = T. Each iteration is O(n^3).
+     *
+     * @param T The transition matrix. Its eigen values should be inside the
+     * unit circle
+     * @param Q The (symmetric) innovation covariance
+     * @return The solution or null if the iterations don't converge (non
+     * stationary model)
+     */
+    public static Matrix solve(Matrix T, Matrix Q) {
+        Matrix V = Q.clone();
+        Matrix A = T.clone();
+        for (int i = 0; i < MAXITER; ++i) {
+            Matrix D = A.times(V).times(A.transpose());
+            V.add(D);
+            double dn = D.nrm2(), vn = V.nrm2();
+            if (Double.isNaN(dn) || Double.isInfinite(dn)) {
+                return null;
+            }
+            if (dn <= EPS * vn) {
+                SymmetricMatrix.reinforceSymmetry(V.subMatrix());
+                return V;
+            }
+            A = A.times(A);
+        }
+        return null;
+    }
+
+    /**
+     * Solves the equation by means of the linear system defined on the lower
+     * triangular part of V. The system is O(n^4) in memory and O(n^6) in
+     * time. It should be used only for small problems or when the doubling
+     * algorithm fails.
+     *
+     * @param T The transition matrix
+     * @param Q The (symmetric) innovation covariance
+     * @return The solution
+     */
+    public static Matrix solveDirect(Matrix T, Matrix Q) {
+        int n = T.getRowsCount();
+        int np = (n * (n + 1)) / 2;
+        Matrix M = new Matrix(np, np);
+        double[] b = new double[np];
+        // fill the matrix
+        for (int c = 0, i = 0; c < n; ++c) {
+            for (int r = c; r < n; ++r, ++i) {
+                M.set(i, i, 1);
+                b[i] = Q.get(r, c);
+                for (int k = 0; k < n; ++k) {
+                    double zc = T.get(c, k);
+                    if (zc != 0) {
+                        for (int l = 0; l < n; ++l) {
+                            double z = T.get(r, l) * zc;
+                            if (z != 0) {
+                                int p = l <= k ? pos(k, l, n) : pos(l, k, n);
+                                M.add(i, p, -z);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        HouseholderR hous = new HouseholderR(false);
+        hous.decompose(M);
+        double[] solve = hous.solve(b);
+        Matrix V = new Matrix(n, n);
+        for (int i = 0, j = 0; i < n; i++) {
+            V.column(i).drop(i, 0).copyFrom(solve, j);
+            j += n - i;
+        }
+        SymmetricMatrix.fromLower(V);
+        return V;
+    }
+
+    private static int pos(int r, int c, int n) {
+        return r + c * (2 * n - c - 1) / 2;
+    }
+}
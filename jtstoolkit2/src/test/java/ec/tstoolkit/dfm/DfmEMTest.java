@@ -11,11 +11,17 @@ import ec.tstoolkit.data.DataBlock;
 import ec.tstoolkit.data.DescriptiveStatistics;
 import ec.tstoolkit.eco.Likelihood;
 import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit.mssf2.MSmoothingResults;
 import ec.tstoolkit.ssf2.ResidualsCumulator;
 import ec.tstoolkit.timeseries.simplets.TsData;
 import ec.tstoolkit.timeseries.simplets.TsFrequency;
 import ec.tstoolkit.timeseries.simplets.TsPeriod;
 import ec.tstoolkit.var.VarSpec;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import static org.junit.Assert.*;
 import org.junit.Test;
 
 /**
@@ -193,6 +199,129 @@ public class DfmEMTest {
  
    */  
    }
+
+    private static DynamicFactorModel startModel() {
+        DynamicFactorModel dmodelc = dmodel.clone();
+        dmodelc.normalize();
+        dmodelc.setInitialization(VarSpec.Initialization.Zero);
+        return dmodelc;
+    }
+
+    @Test
+    public void testDenseMoments() {
+        DynamicFactorModel m1 = startModel(), m2 = startModel();
+        assertTrue(new DfmEM().estimate(m1, dfmdata));
+        assertTrue(new DenseEM().estimate(m2, dfmdata));
+        List<DynamicFactorModel.MeasurementDescriptor> d1 = m1.getMeasurements(), d2 = m2.getMeasurements();
+        assertEquals(d2.size(), d1.size());
+        for (int i = 0; i < d1.size(); ++i) {
+            double[] c1 = d1.get(i).coeff, c2 = d2.get(i).coeff;
+            for (int j = 0; j < c1.length; ++j) {
+                assertEquals(c2[j], c1[j], 1e-6 * Math.max(1, Math.abs(c2[j])));
+            }
+            assertEquals(d2.get(i).var, d1.get(i).var, 1e-6 * Math.max(1, d2.get(i).var));
+        }
+        double[] v1 = m1.getTransition().varParams.internalStorage(), v2 = m2.getTransition().varParams.internalStorage();
+        for (int i = 0; i < v1.length; ++i) {
+            assertEquals(v2[i], v1[i], 1e-6 * Math.max(1, Math.abs(v2[i])));
+        }
+        double[] q1 = m1.getTransition().covar.internalStorage(), q2 = m2.getTransition().covar.internalStorage();
+        for (int i = 0; i < q1.length; ++i) {
+            assertEquals(q2[i], q1[i], 1e-6 * Math.max(1, Math.abs(q2[i])));
+        }
+    }
+
+    //@Test
+    public void testAllocations() {
+        // bytes allocated by the current thread (HotSpot specific)
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean hbean = (com.sun.management.ThreadMXBean) bean;
+        long id = Thread.currentThread().getId();
+        long b0 = hbean.getThreadAllocatedBytes(id);
+        new DfmEM().estimate(startModel(), dfmdata);
+        long b1 = hbean.getThreadAllocatedBytes(id);
+        new DenseEM().estimate(startModel(), dfmdata);
+        long b2 = hbean.getThreadAllocatedBytes(id);
+        System.out.println("DfmEM: " + (b1 - b0) / (1024 * 1024) + " MB allocated, dense moments: " + (b2 - b1) / (1024 * 1024) + " MB");
+        assertTrue(b1 - b0 < b2 - b1);
+    }
+
+    /**
+     * EM with the previous (dense) computation of the moments: kronecker
+     * products of E[z(t)z(t)'] and of the selection of the observed
+     * variables, N x N matrices for the idiosyncratic variances
+     */
+    static class DenseEM extends DfmEM {
+
+        @Override
+        void addMoments(MSmoothingResults srslts, int t, int[] vars, int[] sel, Matrix denom, Matrix nom) {
+            DataBlock a = srslts.A(t);
+            SubMatrix P = srslts.P(t);
+            int nv = vars.length, k = sel.length;
+            Matrix nanYt = new Matrix(nv, nv);
+            Matrix yt = new Matrix(1, nv);
+            for (int i = 0; i < nv; ++i) {
+                if (!Double.isNaN(data_m.get(t, vars[i]))) {
+                    nanYt.set(i, i, 1);
+                }
+                yt.set(0, i, y.get(t, vars[i]));
+            }
+            Matrix ztemp = new Matrix(k, 1);
+            Matrix ptemp = new Matrix(k, k);
+            for (int u = 0; u < k; ++u) {
+                ztemp.set(u, 0, a.get(sel[u]));
+                for (int w = 0; w < k; ++w) {
+                    ptemp.set(u, w, P.get(sel[u], sel[w]));
+                }
+            }
+            Matrix ezztemp = ztemp.times(ztemp.transpose()).plus(ptemp);
+            Matrix denom_interm = new Matrix(nv * k, nv * k);
+            denom_interm.subMatrix().kronecker(ezztemp.subMatrix(), nanYt.subMatrix());
+            denom.add(denom_interm);
+            Matrix nom_interm = new Matrix(nv, k);
+            nom_interm.subMatrix().product(yt.subMatrix().transpose(), ztemp.subMatrix().transpose());
+            nom.add(nom_interm);
+        }
+
+        @Override
+        double[] idiosyncraticMoments(MSmoothingResults srslts, Matrix C_new, double[] var) {
+            int n = C_new.getRowsCount();
+            Matrix R = new Matrix(n, n);
+            for (int i = 0; i < n; ++i) {
+                R.set(i, i, var[i]);
+            }
+            Matrix R_new = new Matrix(n, n);
+            for (int t = 0; t < y.getRowsCount(); ++t) {
+                Matrix nanYt = new Matrix(n, n);
+                Matrix yt = new Matrix(n, 1);
+                for (int i = 0; i < n; ++i) {
+                    if (!Double.isNaN(data_m.get(t, i))) {
+                        nanYt.set(i, i, 1);
+                    }
+                    yt.set(i, 0, y.get(t, i));
+                }
+                DataBlock a = srslts.A(t);
+                Matrix ztemp = new Matrix(a.getLength(), 1);
+                for (int i = 0; i < a.getLength(); ++i) {
+                    ztemp.set(i, 0, a.get(i));
+                }
+                Matrix V = new Matrix(srslts.P(t));
+                Matrix res1 = yt.minus(nanYt.times(C_new).times(ztemp));
+                Matrix res3 = nanYt.times(C_new).times(V).times(C_new.transpose()).times(nanYt);
+                Matrix mnanYt = Matrix.identity(n).minus(nanYt);
+                Matrix res4 = mnanYt.times(R).times(mnanYt);
+                R_new = R_new.plus(res1.times(res1.transpose())).plus(res3).plus(res4);
+            }
+            double[] rslt = new double[n];
+            for (int i = 0; i < n; ++i) {
+                rslt[i] = R_new.get(i, i);
+            }
+            return rslt;
+        }
+    }
     
        
 
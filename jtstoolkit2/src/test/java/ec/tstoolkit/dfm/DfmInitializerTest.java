@@ -31,13 +31,18 @@ import ec.tstoolkit.maths.realfunctions.ISsqFunctionInstance;
 import ec.tstoolkit.maths.realfunctions.ProxyMinimizer;
 import ec.tstoolkit.maths.realfunctions.levmar.LevenbergMarquardtMethod;
 import ec.tstoolkit.maths.realfunctions.riso.LbfgsMinimizer;
+import ec.tstoolkit.mssf2.MSmoothingResults;
 import ec.tstoolkit.mssf2.MSsfFunctionInstance;
 import ec.tstoolkit.ssf2.ResidualsCumulator;
 import ec.tstoolkit.timeseries.simplets.TsData;
 import ec.tstoolkit.timeseries.simplets.TsFrequency;
 import ec.tstoolkit.timeseries.simplets.TsPeriod;
 import ec.tstoolkit.var.VarSpec;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -254,6 +259,239 @@ public class DfmInitializerTest {
 
     }
 
+    @Test
+    public void testAcceleratedEM() {
+        TsData[] s = new TsData[dd.getRowsCount()];
+        TsPeriod start = new TsPeriod(TsFrequency.Monthly, 1980, 0);
+        for (int i = 0; i < s.length; ++i) {
+            s[i] = new TsData(start, dd.row(i));
+        }
+        TsInformationSet dfmInformationSet = new TsInformationSet(s);
+        PcInitializer initializer = new PcInitializer();
+        DynamicFactorModel model0 = dmodel.clone();
+        model0.normalize();
+        initializer.initialize(model0, dfmInformationSet);
+        DynamicFactorModel model1 = model0.clone();
+        DfmEM2 em = new DfmEM2(null);
+        em.setMaxIter(1000);
+        em.setEpsilon(1e-4);
+        em.initialize(model0, dfmInformationSet);
+        DfmEM2 aem = new DfmEM2(null);
+        aem.setMaxIter(1000);
+        aem.setEpsilon(1e-4);
+        aem.setAccelerated(true);
+        // likelihoods of the successive models (E-steps)
+        final List<Double> lls = new ArrayList<>();
+        aem.register(new IProcessingHook<DfmEM2, DynamicFactorModel>() {
+
+            @Override
+            public void process(IProcessingHook.HookInformation<DfmEM2, DynamicFactorModel> info, boolean cancancel) {
+                lls.add(info.source.getFinalLogLikelihood());
+            }
+        });
+        aem.initialize(model1, dfmInformationSet);
+        assertTrue(aem.getFinalLogLikelihood() >= em.getFinalLogLikelihood() - 1e-2);
+        assertTrue(aem.getIterationsCount() < em.getIterationsCount());
+        // the accepted steps never decrease the likelihood
+        assertTrue(lls.size() > 1);
+        for (int i = 1; i < lls.size(); ++i) {
+            assertTrue(lls.get(i) >= lls.get(i - 1) - 1e-6);
+        }
+    }
+
+    /**
+     * Loadings and idiosyncratic variances of one M-step, computed as in the
+     * first version of DfmEM2: the smoothed states and their variances are
+     * stored for all the periods and the moments are summed on the observed
+     * periods of each series
+     *
+     * @param model The model of the E-step
+     * @param data The data
+     * @return A copy of the model with the new loadings and variances
+     */
+    private static DynamicFactorModel loadings(DynamicFactorModel model, TsInformationSet data) {
+        DynamicFactorModel m = model.clone();
+        DfmProcessor processor = new DfmProcessor();
+        processor.setCalcVariance(true);
+        processor.process(m, data);
+        MSmoothingResults srslts = processor.getSmoothingResults();
+        Matrix M = data.generateMatrix(null);
+        int n = M.getRowsCount(), nf = m.getFactorsCount(), nb = m.getBlockLength();
+        EnumMap<DynamicFactorModel.MeasurementType, DataBlock[]> G = new EnumMap<>(DynamicFactorModel.MeasurementType.class);
+        EnumMap<DynamicFactorModel.MeasurementType, DataBlock[][]> G2 = new EnumMap<>(DynamicFactorModel.MeasurementType.class);
+        int i = 0;
+        for (DynamicFactorModel.MeasurementDescriptor desc : m.getMeasurements()) {
+            DynamicFactorModel.MeasurementType type = DynamicFactorModel.getMeasurementType(desc.type);
+            if (!G.containsKey(type)) {
+                int len = desc.type.getLength();
+                DataBlock z = new DataBlock(len);
+                desc.type.fill(z);
+                // g(j)(t) = z'E(x(j,t)), g2(j,k)(t) = E(z'x(j,t) z'x(k,t))
+                DataBlock[] g = new DataBlock[nf];
+                DataBlock[][] g2 = new DataBlock[nf][nf];
+                for (int j = 0; j < nf; ++j) {
+                    g[j] = new DataBlock(n);
+                    for (int r = 0; r < len; ++r) {
+                        g[j].addAY(z.get(r), new DataBlock(srslts.component(j * nb + r)));
+                    }
+                }
+                for (int j = 0; j < nf; ++j) {
+                    for (int k = 0; k < nf; ++k) {
+                        DataBlock c = new DataBlock(n);
+                        for (int r = 0; r < len; ++r) {
+                            for (int s = 0; s < len; ++s) {
+                                if (z.get(r) != 0 && z.get(s) != 0) {
+                                    c.addAY(z.get(r) * z.get(s), srslts.componentCovar(j * nb + r, k * nb + s));
+                                }
+                            }
+                        }
+                        c.addAXY(1, g[j], g[k]);
+                        g2[j][k] = c;
+                    }
+                }
+                G.put(type, g);
+                G2.put(type, g2);
+            }
+            DataBlock[] g = G.get(type);
+            DataBlock[][] g2 = G2.get(type);
+            DataBlock y = M.column(i++);
+            int nused = desc.getUsedFactorsCount();
+            double[] gy = new double[nused];
+            Matrix gg = new Matrix(nused, nused);
+            int nobs = 0;
+            for (int t = 0; t < n; ++t) {
+                double yt = y.get(t);
+                if (Double.isNaN(yt)) {
+                    continue;
+                }
+                ++nobs;
+                for (int j = 0, u = 0; j < nf; ++j) {
+                    if (!Double.isNaN(desc.coeff[j])) {
+                        gy[u] += g[j].get(t) * yt;
+                        for (int k = 0, v = 0; k < nf; ++k) {
+                            if (!Double.isNaN(desc.coeff[k])) {
+                                gg.set(u, v, gg.get(u, v) + g2[j][k].get(t));
+                                ++v;
+                            }
+                        }
+                        ++u;
+                    }
+                }
+            }
+            DataBlock c = new DataBlock(gy);
+            SymmetricMatrix.solve(gg, c, false);
+            for (int j = 0, u = 0; j < nf; ++j) {
+                if (!Double.isNaN(desc.coeff[j])) {
+                    desc.coeff[j] = c.get(u++);
+                }
+            }
+            double ee = 0;
+            for (int t = 0; t < n; ++t) {
+                double yt = y.get(t);
+                if (Double.isNaN(yt)) {
+                    continue;
+                }
+                ee += yt * yt;
+                for (int j = 0; j < nf; ++j) {
+                    double cj = desc.coeff[j];
+                    if (!Double.isNaN(cj)) {
+                        ee -= 2 * cj * g[j].get(t) * yt;
+                        for (int k = 0; k < nf; ++k) {
+                            double ck = desc.coeff[k];
+                            if (!Double.isNaN(ck)) {
+                                ee += g2[j][k].get(t) * cj * ck;
+                            }
+                        }
+                    }
+                }
+            }
+            desc.var = ee < 0 ? 1e-12 : ee / nobs;
+        }
+        return m;
+    }
+
+    private static double loglikelihood(DynamicFactorModel model, TsInformationSet data) {
+        DfmProcessor processor = new DfmProcessor();
+        processor.process(model, data);
+        Likelihood ll = new Likelihood();
+        evaluate(processor.getFilteringResults(), ll);
+        return ll.getLogLikelihood();
+    }
+
+    @Test
+    public void testEMStep() {
+        TsData[] s = new TsData[dd.getRowsCount()];
+        TsPeriod start = new TsPeriod(TsFrequency.Monthly, 1980, 0);
+        for (int i = 0; i < s.length; ++i) {
+            s[i] = new TsData(start, dd.row(i));
+        }
+        TsInformationSet dfmInformationSet = new TsInformationSet(s);
+        DynamicFactorModel model0 = dmodel.clone();
+        model0.normalize();
+        // models (before their M-step) and likelihoods of the E-steps
+        final List<DynamicFactorModel> models = new ArrayList<>();
+        final List<Double> lls = new ArrayList<>();
+        DfmEM2 em = new DfmEM2(null);
+        em.setMaxIter(2);
+        em.setEpsilon(0);
+        em.register(new IProcessingHook<DfmEM2, DynamicFactorModel>() {
+
+            @Override
+            public void process(IProcessingHook.HookInformation<DfmEM2, DynamicFactorModel> info, boolean cancancel) {
+                models.add(info.information.clone());
+                lls.add(info.source.getFinalLogLikelihood());
+            }
+        });
+        em.initialize(model0, dfmInformationSet);
+        assertEquals(2, models.size());
+        for (int i = 0; i < 2; ++i) {
+            double ll = loglikelihood(models.get(i), dfmInformationSet);
+            assertEquals(ll, lls.get(i), 1e-9 * Math.abs(ll));
+        }
+        DynamicFactorModel m1 = loadings(models.get(0), dfmInformationSet);
+        List<DynamicFactorModel.MeasurementDescriptor> d0 = m1.getMeasurements(), d1 = models.get(1).getMeasurements();
+        for (int i = 0; i < d0.size(); ++i) {
+            double[] c0 = d0.get(i).coeff, c1 = d1.get(i).coeff;
+            for (int j = 0; j < c0.length; ++j) {
+                if (Double.isNaN(c0[j])) {
+                    assertTrue(Double.isNaN(c1[j]));
+                } else {
+                    assertEquals(c0[j], c1[j], 1e-9 * Math.max(1, Math.abs(c0[j])));
+                }
+            }
+            assertEquals(d0.get(i).var, d1.get(i).var, 1e-9 * Math.max(1, d0.get(i).var));
+        }
+    }
+
+    @Test
+    public void testParallelLoadings() {
+        TsData[] s = new TsData[dd.getRowsCount()];
+        TsPeriod start = new TsPeriod(TsFrequency.Monthly, 1980, 0);
+        for (int i = 0; i < s.length; ++i) {
+            s[i] = new TsData(start, dd.row(i));
+        }
+        TsInformationSet dfmInformationSet = new TsInformationSet(s);
+        DynamicFactorModel model0 = dmodel.clone();
+        model0.normalize();
+        DynamicFactorModel model1 = model0.clone();
+        DfmEM2 em = new DfmEM2(null);
+        em.setMaxIter(10);
+        em.setThreadsCount(1);
+        em.initialize(model0, dfmInformationSet);
+        DfmEM2 pem = new DfmEM2(null);
+        pem.setMaxIter(10);
+        pem.setThreadsCount(4);
+        pem.initialize(model1, dfmInformationSet);
+        // the series are processed independently: same results
+        List<DynamicFactorModel.MeasurementDescriptor> m0 = model0.getMeasurements(), m1 = model1.getMeasurements();
+        assertEquals(m0.size(), m1.size());
+        for (int i = 0; i < m0.size(); ++i) {
+            assertArrayEquals(m0.get(i).coeff, m1.get(i).coeff, 0);
+            assertEquals(m0.get(i).var, m1.get(i).var, 0);
+        }
+        assertEquals(em.getFinalLogLikelihood(), pem.getFinalLogLikelihood(), 0);
+    }
+
     @Test
     public void testEM2() {
         TsData[] s = new TsData[dd.getRowsCount()];
@@ -9,13 +9,22 @@ import ec.tstoolkit.timeseries.information.TsInformationSet;
 import ec.tstoolkit.timeseries.information.TsInformationUpdates;
 import data.Data;
 import ec.tstoolkit.data.DataBlock;
+import ec.tstoolkit.data.DataBlockIterator;
 import ec.tstoolkit.data.DescriptiveStatistics;
+import ec.tstoolkit.data.IReadDataBlock;
 import ec.tstoolkit.dfm.DynamicFactorModel.MeasurementDescriptor;
 import ec.tstoolkit.dfm.DynamicFactorModel.MeasurementStructure;
 import ec.tstoolkit.dfm.DynamicFactorModel.MeasurementType;
 import ec.tstoolkit.eco.Likelihood;
+import ec.tstoolkit.maths.matrices.LowerTriangularMatrix;
 import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.maths.matrices.SubMatrix;
+import ec.tstoolkit.maths.matrices.SymmetricMatrix;
+import ec.tstoolkit.maths.realfunctions.IFunctionInstance;
+import ec.tstoolkit.maths.realfunctions.NumericalDerivatives;
+import ec.tstoolkit.maths.realfunctions.SsqNumericalDerivatives;
 import ec.tstoolkit.mssf2.ArrayFilter;
+import ec.tstoolkit.mssf2.CollapsedMFilter;
 import ec.tstoolkit.mssf2.DefaultTimeInvariantMultivariateSsf;
 import ec.tstoolkit.mssf2.FullM2UMap;
 import ec.tstoolkit.mssf2.FullMSsf;
@@ -24,10 +33,16 @@ import ec.tstoolkit.mssf2.IMSsf;
 import ec.tstoolkit.mssf2.M2UAdapter;
 import ec.tstoolkit.mssf2.M2UData;
 import ec.tstoolkit.mssf2.MFilter;
+import ec.tstoolkit.mssf2.MFilteringResults;
 import ec.tstoolkit.mssf2.MPredictionErrorDecomposition;
 import ec.tstoolkit.mssf2.MSmoother;
 import ec.tstoolkit.mssf2.MSmoothingResults;
+import ec.tstoolkit.mssf2.MSsfAlgorithm;
+import ec.tstoolkit.mssf2.MSsfFunction;
+import ec.tstoolkit.mssf2.MSsfFunctionInstance;
 import ec.tstoolkit.mssf2.MultivariateSsfData;
+import ec.tstoolkit.mssf2.ParallelNumericalDerivatives;
+import ec.tstoolkit.mssf2.ParallelSsqNumericalDerivatives;
 import ec.tstoolkit.ssf2.DiffuseFilteringResults;
 import ec.tstoolkit.ssf2.Filter;
 import ec.tstoolkit.ssf2.PredictionErrorDecomposition;
@@ -37,9 +52,13 @@ import ec.tstoolkit.ssf2.SmoothingResults;
 import ec.tstoolkit.timeseries.simplets.TsData;
 import ec.tstoolkit.timeseries.simplets.TsFrequency;
 import ec.tstoolkit.timeseries.simplets.TsPeriod;
+import ec.tstoolkit.var.LyapunovEquation;
 import ec.tstoolkit.var.VarSpec;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -288,6 +307,328 @@ public class DynamicFactorModelTest {
         }
     }
 
+    @Test
+    public void testSteadyState() {
+        IMSsf ssf = dmodel.ssfRepresentation();
+        // the quarterly series of dd change the pattern of missing values
+        // nearly every month; full is completely observed and ragged has the
+        // ragged edge of a real-time data set
+        int nv = dd.getRowsCount(), n = dd.getColumnsCount();
+        Matrix full = new Matrix(nv, n);
+        full.randomize();
+        Matrix ragged = full.clone();
+        for (int i = 0; i < nv; i += 2) {
+            ragged.row(i).range(n - 1 - (i / 2) % 6, n).set(Double.NaN);
+        }
+        for (Matrix m : new Matrix[]{dd, ddrnd, full, ragged}) {
+            MultivariateSsfData data = new MultivariateSsfData(m.subMatrix(), null);
+            MFilter filter = new MFilter();
+            MPredictionErrorDecomposition results = new MPredictionErrorDecomposition(true);
+            filter.process(ssf, data, results);
+            Likelihood ll = new Likelihood();
+            evaluate(results, ll);
+
+            MFilter ssfilter = new MFilter();
+            ssfilter.setSteadyStateMode(true);
+            MPredictionErrorDecomposition ssresults = new MPredictionErrorDecomposition(true);
+            ssfilter.process(ssf, data, ssresults);
+            Likelihood ssll = new Likelihood();
+            evaluate(ssresults, ssll);
+            assertEquals(ll.getLogLikelihood(), ssll.getLogLikelihood(), 1e-6 * Math.abs(ll.getLogLikelihood()));
+            assertEquals(0, filter.getSteadyStateCount());
+            if (m == full) {
+                assertTrue(ssfilter.getSteadyStateCount() > 0);
+                assertEquals(0, ssfilter.getSteadyStateRestartsCount());
+            } else if (m == ragged) {
+                assertTrue(ssfilter.getSteadyStateCount() > 0);
+                assertTrue(ssfilter.getSteadyStateRestartsCount() > 0);
+                // the steady state is left at the first period of the edge
+                assertTrue(ssfilter.getSteadyStateCount() < n - 6);
+            }
+        }
+    }
+
+    @Test
+    public void testInitialVariance() {
+        DynamicFactorModel.TransitionDescriptor tdesc = dmodel.getTransition();
+        int nf = dmodel.getFactorsCount(), nl = tdesc.nlags, n = nf * nl;
+        Matrix T = new Matrix(n, n), Q = new Matrix(n, n);
+        for (int i = 0, r = 0; i < nf; ++i, r += nl) {
+            T.row(r).copy(tdesc.varParams.row(i));
+            T.subMatrix(r, r + nl, r, r + nl).subDiagonal(-1).set(1);
+            for (int j = 0, c = 0; j < nf; ++j, c += nl) {
+                Q.set(r, c, tdesc.covar.get(i, j));
+            }
+        }
+        Matrix V = LyapunovEquation.solve(T, Q);
+        Matrix V0 = LyapunovEquation.solveDirect(T, Q);
+        assertTrue(V != null);
+        assertTrue(V.minus(V0).nrm2() <= 1e-9 * V0.nrm2());
+    }
+
+    private static DynamicFactorModel randomModel(int nf, int c, int nl, Random rnd) {
+        DynamicFactorModel model = new DynamicFactorModel(c, nf);
+        DynamicFactorModel.TransitionDescriptor tdesc = new DynamicFactorModel.TransitionDescriptor(nf, nl);
+        double[] v = tdesc.varParams.internalStorage();
+        for (int i = 0; i < v.length; ++i) {
+            v[i] = .2 * rnd.nextDouble() - .1;
+        }
+        model.setTransition(tdesc);
+        double[] coeff = new double[nf];
+        coeff[0] = 1;
+        model.addMeasurement(new MeasurementDescriptor(DynamicFactorModel.measurement(MeasurementType.L), coeff, 1));
+        return model;
+    }
+
+    private static Matrix dense(DynamicFactorModel model) {
+        int nf = model.getFactorsCount(), c = model.getBlockLength(), nl = model.getTransition().nlags;
+        Matrix T = new Matrix(nf * c, nf * c);
+        for (int i = 0; i < nf; ++i) {
+            for (int j = 0; j < nf; ++j) {
+                for (int l = 0; l < nl; ++l) {
+                    T.set(i * c, j * c + l, model.getTransition().varParams.get(i, j * nl + l));
+                }
+            }
+            for (int k = 1; k < c; ++k) {
+                T.set(i * c + k, i * c + k - 1, 1);
+            }
+        }
+        return T;
+    }
+
+    @Test
+    public void testBlockTransition() {
+        Random rnd = new Random(0);
+        int[][] sizes = new int[][]{{1, 4, 2}, {3, 12, 3}, {4, 5, 5}, {6, 8, 4}};
+        for (int[] size : sizes) {
+            DynamicFactorModel model = randomModel(size[0], size[1], size[2], rnd);
+            IMSsf ssf = model.ssfRepresentation();
+            int n = ssf.getStateDim();
+            Matrix T = dense(model);
+            Matrix M = new Matrix(n, n);
+            double[] m = M.internalStorage();
+            for (int i = 0; i < m.length; ++i) {
+                m[i] = rnd.nextDouble();
+            }
+            Matrix V = SymmetricMatrix.XXt(M);
+            // TVT'
+            Matrix tvt = V.clone();
+            ssf.TVT(0, tvt.subMatrix());
+            assertTrue(tvt.distance(T.times(V).times(T.transpose())) < 1e-9 * V.nrm2());
+            // TM
+            Matrix tm = M.clone();
+            ssf.TM(0, tm.subMatrix());
+            assertTrue(tm.distance(T.times(M)) < 1e-9 * M.nrm2());
+            // MT
+            Matrix mt = M.clone();
+            ssf.MT(0, mt.subMatrix());
+            assertTrue(mt.distance(M.times(T)) < 1e-9 * M.nrm2());
+            // MT on more rows, then on fewer rows (reuse of the buffer)
+            Matrix W = new Matrix(2 * n, n);
+            double[] w = W.internalStorage();
+            for (int i = 0; i < w.length; ++i) {
+                w[i] = rnd.nextDouble();
+            }
+            Matrix wt = W.clone();
+            ssf.MT(0, wt.subMatrix());
+            assertTrue(wt.distance(W.times(T)) < 1e-9 * W.nrm2());
+            Matrix wt3 = W.clone();
+            ssf.MT(0, wt3.subMatrix(0, 3, 0, n));
+            for (int i = 0; i < 2 * n; ++i) {
+                assertTrue(wt3.row(i).distance(i < 3 ? wt.row(i) : W.row(i)) < 1e-9 * W.nrm2());
+            }
+        }
+    }
+
+    @Test
+    public void testSparseMeasurements() {
+        Random rnd = new Random(0);
+        DynamicFactorModel model = randomModel(3, 12, 2, rnd);
+        model.addMeasurement(new MeasurementDescriptor(DynamicFactorModel.measurement(MeasurementType.Q), new double[]{.5, Double.NaN, -.2}, 1));
+        model.addMeasurement(new MeasurementDescriptor(DynamicFactorModel.measurement(MeasurementType.YoY), new double[]{Double.NaN, .3, .1}, 1));
+        model.addMeasurement(new MeasurementDescriptor(DynamicFactorModel.measurement(MeasurementType.M), new double[]{.2, .4, .6}, 1));
+        IMSsf ssf = model.ssfRepresentation();
+        int n = ssf.getStateDim(), nv = ssf.getVarsCount();
+        Matrix Z = new Matrix(nv, n);
+        ssf.Z(0, Z.subMatrix());
+        Matrix M = new Matrix(n, n);
+        double[] m = M.internalStorage();
+        for (int i = 0; i < m.length; ++i) {
+            m[i] = rnd.nextDouble();
+        }
+        Matrix V = SymmetricMatrix.XXt(M);
+        Matrix zm = new Matrix(nv, n);
+        ssf.ZM(0, M.subMatrix(), zm.subMatrix());
+        assertTrue(zm.distance(Z.times(M)) < 1e-9 * M.nrm2());
+        Matrix zvz = new Matrix(nv, nv);
+        ssf.ZVZ(0, V.subMatrix(), zvz.subMatrix());
+        assertTrue(zvz.distance(Z.times(V).times(Z.transpose())) < 1e-9 * V.nrm2());
+        DataBlock dzvz = new DataBlock(nv);
+        ssf.diagZVZ(0, V.subMatrix(), dzvz);
+        assertTrue(maxDiff(dzvz, zvz.diagonal()) < 1e-9 * V.nrm2());
+        for (int i = 0; i < nv; ++i) {
+            assertEquals(ssf.ZX(0, i, M.column(0)), Z.row(i).dot(M.column(0)), 1e-9);
+        }
+    }
+
+    private static double maxDiff(DataBlock a, DataBlock b) {
+        double d = 0;
+        for (int i = 0; i < a.getLength(); ++i) {
+            d = Math.max(d, Math.abs(a.get(i) - b.get(i)));
+        }
+        return d;
+    }
+
+    @Test
+    public void testIncrementalUpdate() {
+        int nobs = O.getRowsCount(), nc = dd.getColumnsCount();
+        // previous vintage: the last observations of some series and the
+        // last period are missing
+        TsData[] s0 = new TsData[dd.getRowsCount()], s1 = new TsData[dd.getRowsCount()];
+        for (int i = 0; i < s0.length; ++i) {
+            DataBlock row = dd.row(i).range(0, nc - 1).deepClone();
+            if (i < 5) {
+                row.range(nobs - 3, nobs).set(Double.NaN);
+            }
+            s0[i] = new TsData(new TsPeriod(TsFrequency.Monthly, 1980, 0), row);
+            s1[i] = new TsData(new TsPeriod(TsFrequency.Monthly, 1980, 0), dd.row(i));
+        }
+        DfmProcessor processor = new DfmProcessor();
+        processor.setCalcVariance(true);
+        assertTrue(processor.process(dmodel, new TsInformationSet(s0)));
+        assertTrue(processor.update(dmodel, new TsInformationSet(s1)));
+        assertTrue(processor.getLastCheckpoint() > 0);
+        DfmProcessor full = new DfmProcessor();
+        full.setCalcVariance(true);
+        assertTrue(full.process(dmodel, new TsInformationSet(s1)));
+        MSmoothingResults srslts = processor.getSmoothingResults(), fsrslts = full.getSmoothingResults();
+        for (int t = 0; t < nc; ++t) {
+            assertTrue(maxDiff(srslts.A(t), fsrslts.A(t)) < 1e-9);
+            assertTrue(maxDiff(processor.getFilteringResults().getFilteredData().A(t), full.getFilteringResults().getFilteredData().A(t)) < 1e-9);
+        }
+        assertEquals(processor.getFilteringResults().getSsqErr(), full.getFilteringResults().getSsqErr(), 1e-9);
+        assertEquals(processor.getFilteringResults().getLogDeterminant(), full.getFilteringResults().getLogDeterminant(), 1e-9);
+        // nothing changed: the results are kept
+        assertTrue(processor.update(dmodel, new TsInformationSet(s1)));
+        assertTrue(processor.getSmoothingResults() == srslts);
+        assertEquals(nc, processor.getLastCheckpoint());
+        // model modified in place: full processing
+        DynamicFactorModel model = dmodel.clone();
+        assertTrue(processor.process(model, new TsInformationSet(s0)));
+        DynamicFactorModel model2 = dmodel.clone();
+        model2.getMeasurements().get(0).coeff[0] *= 1.1;
+        model.copy(model2);
+        assertTrue(processor.update(model, new TsInformationSet(s1)));
+        assertEquals(0, processor.getLastCheckpoint());
+        assertTrue(full.process(model2, new TsInformationSet(s1)));
+        fsrslts = full.getSmoothingResults();
+        srslts = processor.getSmoothingResults();
+        for (int t = 0; t < nc; ++t) {
+            assertTrue(maxDiff(srslts.A(t), fsrslts.A(t)) < 1e-9);
+        }
+    }
+
+    @Test
+    public void testCheckpoints() {
+        IMSsf ssf = dmodel.ssfRepresentation();
+        MultivariateSsfData data = new MultivariateSsfData(dd.subMatrix(), null);
+        MSmoother smoother = new MSmoother();
+        smoother.setCalcVariance(true);
+        MSmoothingResults srslts = new MSmoothingResults();
+        assertTrue(smoother.process(ssf, data, srslts));
+        MFilteringResults frslts = smoother.getFilteringResults();
+        MSmoother csmoother = new MSmoother();
+        csmoother.setCalcVariance(true);
+        csmoother.setCheckpointPeriod(7);
+        MSmoothingResults csrslts = new MSmoothingResults();
+        assertTrue(csmoother.process(ssf, data, csrslts));
+        MFilteringResults cfrslts = csmoother.getFilteringResults();
+        assertEquals(MFilteringResults.Storage.Checkpoints, cfrslts.getStorage());
+        assertEquals(frslts.getSsqErr(), cfrslts.getSsqErr(), 1e-9);
+        for (int t = 0; t < dd.getColumnsCount(); ++t) {
+            assertTrue(maxDiff(srslts.A(t), csrslts.A(t)) < 1e-9);
+            assertTrue(maxDiff(srslts.P(t).diagonal(), csrslts.P(t).diagonal()) < 1e-9);
+        }
+        double[] c = frslts.component(0), cc = cfrslts.component(0);
+        for (int t = 0; t < c.length; ++t) {
+            assertEquals(c[t], cc[t], 1e-9);
+        }
+        // the results of a block are not modified by the recomputation of
+        // another block
+        DataBlock a0 = cfrslts.A(0);
+        SubMatrix p0 = cfrslts.P(0);
+        cfrslts.A(dd.getColumnsCount() - 1);
+        assertTrue(maxDiff(a0, frslts.A(0)) < 1e-9);
+        assertTrue(maxDiff(p0.diagonal(), frslts.P(0).diagonal()) < 1e-9);
+        // likelihood only
+        MFilteringResults lrslts = new MFilteringResults(MFilteringResults.Storage.Likelihood);
+        new MFilter().process(ssf, data, lrslts);
+        assertEquals(frslts.getSsqErr(), lrslts.getSsqErr(), 1e-9);
+        assertEquals(frslts.getLogDeterminant(), lrslts.getLogDeterminant(), 1e-9);
+        assertTrue(lrslts.A(0) == null);
+    }
+
+    @Test
+    public void testAnalyticalGradient() {
+        DfmMapping mapping = new DfmMapping(dmodel);
+        DfmFunction fn = new DfmFunction(new MultivariateSsfData(dd.subMatrix(), null), mapping, new MSsfAlgorithm());
+        MSsfFunctionInstance<IMSsf> pt = fn.evaluate(mapping.map(dmodel));
+        IReadDataBlock ga = fn.getDerivatives((IFunctionInstance) pt).getGradient();
+        IReadDataBlock gn = new ParallelNumericalDerivatives<>(fn, pt, true).getGradient();
+        double nmax = 0;
+        for (int i = 0; i < gn.getLength(); ++i) {
+            nmax = Math.max(nmax, Math.abs(gn.get(i)));
+        }
+        for (int i = 0; i < gn.getLength(); ++i) {
+            assertEquals(gn.get(i), ga.get(i), 1e-4 * (1 + nmax));
+        }
+    }
+
+    @Test
+    public void testParallelDerivatives() {
+        DfmMapping mapping = new DfmMapping(dmodel, true, false);
+        MSsfFunction<IMSsf> fn = new MSsfFunction<>(new MultivariateSsfData(dd.subMatrix(), null), mapping, new MSsfAlgorithm());
+        MSsfFunctionInstance<IMSsf> pt = fn.evaluate(mapping.map(dmodel));
+        DataBlock g = new DataBlock(new ParallelNumericalDerivatives<>(fn, pt, false).getGradient());
+        DataBlock sg = new DataBlock(new ParallelSsqNumericalDerivatives<>(fn, pt, false).getGradient());
+        // derivatives used before the parallel implementation
+        DataBlock ng = new DataBlock(new NumericalDerivatives(fn, pt, false, true).getGradient());
+        DataBlock nsg = new DataBlock(new SsqNumericalDerivatives(fn, pt, false, true).getGradient());
+        assertTrue(g.distance(ng) <= 1e-6 * ng.nrm2());
+        assertTrue(sg.distance(nsg) <= 1e-6 * nsg.nrm2());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            fn.setExecutor(executor);
+            DataBlock pg = new DataBlock(new ParallelNumericalDerivatives<>(fn, pt, false).getGradient());
+            DataBlock psg = new DataBlock(new ParallelSsqNumericalDerivatives<>(fn, pt, false).getGradient());
+            for (int i = 0; i < g.getLength(); ++i) {
+                assertEquals(g.get(i), pg.get(i), 0);
+                assertEquals(sg.get(i), psg.get(i), 0);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCollapsed() {
+        IMSsf ssf = dmodel.ssfRepresentation();
+        for (Matrix m : new Matrix[]{dd, ddrnd}) {
+            MultivariateSsfData data = new MultivariateSsfData(m.subMatrix(), null);
+            MFilter filter = new MFilter();
+            MPredictionErrorDecomposition results = new MPredictionErrorDecomposition(true);
+            filter.process(ssf, data, results);
+            Likelihood ll = new Likelihood();
+            evaluate(results, ll);
+
+            CollapsedMFilter cfilter = new CollapsedMFilter();
+            assertTrue(cfilter.process(ssf, data));
+            Likelihood cll = new Likelihood();
+            cll.set(cfilter.getSsqErr(), cfilter.getLogDeterminant(), cfilter.getObsCount());
+            assertEquals(ll.getLogLikelihood(), cll.getLogLikelihood(), 1e-6 * Math.abs(ll.getLogLikelihood()));
+        }
+    }
+
     //@Test
     public void testVar2() {
         long q0 = System.currentTimeMillis();
@@ -477,6 +818,131 @@ public class DynamicFactorModelTest {
 //            System.out.println(component[i]);
     }
 
+    @Test
+    public void testLagCovariances() {
+        Matrix M = dd.transpose();
+        int last = M.getRowsCount() - 1;
+        int xc = dmodel.getBlockLength() + 20;
+        // reference: smoothing of the model with an extended block length
+        DynamicFactorModel modelex = dmodel.clone();
+        modelex.setBlockLength(xc);
+        IMSsf ssf = modelex.ssfRepresentation();
+        MultivariateSsfData data = new MultivariateSsfData(dd.subMatrix(), null);
+        MFilteringResults frslts = new MFilteringResults();
+        frslts.saveAll(last);
+        new MFilter().process(ssf, data, frslts);
+        MSmoother smoother = new MSmoother();
+        smoother.setStopPosition(last);
+        smoother.setCalcVariance(true);
+        MSmoothingResults srslts = new MSmoothingResults();
+        srslts.setSavingStart(last);
+        smoother.process(ssf, data, frslts, srslts);
+        Matrix V0 = new Matrix(srslts.P(last));
+
+        Matrix V1 = new DfmSmoothingCache().getLastStateCovariance(dmodel, xc, M);
+        assertTrue(V0.minus(V1).nrm2() < 1e-6 * V0.nrm2());
+    }
+
+    @Test
+    public void testSmoothingCache() {
+        Matrix M = dd.transpose();
+        int start = M.getRowsCount() - 12;
+        DfmSmoothingCache cache = new DfmSmoothingCache();
+        DynamicFactorModel model = dmodel.clone();
+        MSmoothingResults s0 = cache.getSmoothedStates(model, M, start);
+        assertNotNull(s0);
+        // same parameters, other instance
+        assertSame(s0, cache.getSmoothedStates(model.clone(), M, start));
+        // the model is modified after its use
+        model.getMeasurements().get(0).var *= 2;
+        MSmoothingResults s1 = cache.getSmoothedStates(model, M, start);
+        assertNotSame(s0, s1);
+        assertSame(s1, cache.getSmoothedStates(model, M, start));
+        model.getMeasurements().get(0).var /= 2;
+        assertSame(s0, cache.getSmoothedStates(model, M, start));
+    }
+
+    /**
+     * Covariance between the observations of two series, computed from the
+     * blocks of the covariance of the states of the extended model (per
+     * pair, without the projections in the extended state space)
+     */
+    private static double covariance(DfmNews news, int iseries, int istart, int jseries, int jstart) {
+        IMSsf ssf = news.getSsf();
+        Matrix mcov = news.getStateCovariance();
+        int c = news.getModel().getBlockLength(), nb = news.getModel().getFactorsCount();
+        int xc = mcov.getRowsCount() / nb, d = ssf.getStateDim();
+        Matrix V = new Matrix(d, d);
+        for (int r = 0; r < nb; ++r) {
+            for (int s = 0; s < nb; ++s) {
+                V.subMatrix(r * c, r * c + c, s * c, s * c + c).copy(
+                        mcov.subMatrix(r * xc + istart, r * xc + istart + c,
+                                s * xc + jstart, s * xc + jstart + c));
+            }
+        }
+        DataBlock tmp = new DataBlock(d);
+        DataBlockIterator vcols = V.columns();
+        DataBlock vcol = vcols.getData();
+        do {
+            tmp.set(vcols.getPosition(), ssf.ZX(0, iseries, vcol));
+        } while (vcols.next());
+        return ssf.ZX(0, jseries, tmp);
+    }
+
+    private static TsPeriod last(DfmNews news) {
+        return news.getRevisedInformationSet().getCurrentDomain()
+                .union(news.getNewInformationSet().getCurrentDomain()).getLast();
+    }
+
+    /**
+     * Covariance of the news (Z V Z' + H), computed pair by pair
+     */
+    private static Matrix newsCovariance(DfmNews news) {
+        List<TsInformationUpdates.Update> updates = news.newsDetails().news();
+        TsPeriod last = last(news);
+        TsFrequency freq = last.getFrequency();
+        int n = updates.size();
+        Matrix Q = new Matrix(n, n);
+        for (int i = 0; i < n; ++i) {
+            TsInformationUpdates.Update iupdate = updates.get(i);
+            int istart = last.minus(iupdate.period.lastPeriod(freq));
+            for (int j = 0; j <= i; ++j) {
+                TsInformationUpdates.Update jupdate = updates.get(j);
+                int jstart = last.minus(jupdate.period.lastPeriod(freq));
+                double q = covariance(news, iupdate.series, istart, jupdate.series, jstart);
+                if (i == j) {
+                    q += news.getModel().getMeasurements().get(iupdate.series).var;
+                }
+                Q.set(i, j, q);
+                Q.set(j, i, q);
+            }
+        }
+        return Q;
+    }
+
+    /**
+     * Weights of the news for a given target, computed from the covariances
+     * (pair by pair) between the target and the news:
+     * w = (Z V Z' + H)^-1 * Z_j V Z_target'
+     */
+    private static DataBlock newsWeights(DfmNews news, int series, TsPeriod p) {
+        List<TsInformationUpdates.Update> updates = news.newsDetails().news();
+        TsPeriod last = last(news);
+        TsFrequency freq = last.getFrequency();
+        int n = updates.size();
+        DataBlock a = new DataBlock(n);
+        int istart = last.minus(p);
+        for (int j = 0; j < n; ++j) {
+            TsInformationUpdates.Update jupdate = updates.get(j);
+            a.set(j, covariance(news, series, istart, jupdate.series, last.minus(jupdate.period.lastPeriod(freq))));
+        }
+        Matrix L = newsCovariance(news);
+        SymmetricMatrix.lcholesky(L, MFilter.Zero);
+        LowerTriangularMatrix.rsolve(L, a, MFilter.Zero);
+        LowerTriangularMatrix.lsolve(L, a, MFilter.Zero);
+        return a;
+    }
+
     @Test
     public void testNews() {
         long q0 = System.currentTimeMillis();
@@ -497,8 +963,35 @@ public class DynamicFactorModelTest {
         for (TsInformationUpdates.Update update : news.newsDetails().news()) {
             System.out.println(update);
         }
+        // W*V*W'+H = L*L' against the covariance computed pair by pair
+        Matrix Q = newsCovariance(news), L = news.getNewsCovarianceFactor();
+        int nn = Q.getRowsCount();
+        assertEquals(nn, L.getRowsCount());
+        for (int i = 0; i < nn; ++i) {
+            for (int j = 0; j <= i; ++j) {
+                double q = 0;
+                for (int k = 0; k <= j; ++k) {
+                    q += L.get(i, k) * L.get(j, k);
+                }
+                assertEquals(Q.get(i, j), q, 1e-9 * Math.max(1, Math.abs(Q.get(i, j))));
+            }
+        }
         DataBlock n = news.news();
         DataBlock w = news.weights(23, s[23].getLastPeriod());
+        TsPeriod[] periods = new TsPeriod[]{s[23].getLastPeriod(), s[23].getLastPeriod().minus(1)};
+        Matrix W = news.weights(new int[]{22, 23}, periods);
+        assertTrue(maxDiff(W.column(2), w) < 1e-9);
+        // against the weights computed from the covariances of the news
+        DataBlock w0 = newsWeights(news, 23, s[23].getLastPeriod());
+        assertTrue(maxDiff(w0, w) < 1e-9 * Math.max(1, w0.nrm2()));
+        DataBlock w1 = newsWeights(news, 22, periods[1]);
+        assertTrue(maxDiff(w1, W.column(1)) < 1e-9 * Math.max(1, w1.nrm2()));
+        // the smoothing passes are reused through the cache
+        DfmNews news2 = new DfmNews(dmodel);
+        news2.setSmoothingCache(news.getSmoothingCache());
+        news2.process(new TsInformationSet(os), new TsInformationSet(s));
+        assertTrue(news2.getOldSmoothingResults() == news.getOldSmoothingResults());
+        assertTrue(news2.getStateCovariance() == news.getStateCovariance());
           
         double e = n.dot(w);
         System.out.println("Test news");
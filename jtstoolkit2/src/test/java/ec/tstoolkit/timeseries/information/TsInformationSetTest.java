@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013-2014 National Bank of Belgium
+ * 
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be approved 
+ * by the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * http://ec.europa.eu/idabc/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and 
+ * limitations under the Licence.
+ */
+package ec.tstoolkit.timeseries.information;
+
+import ec.tstoolkit.maths.matrices.Matrix;
+import ec.tstoolkit.timeseries.simplets.TsData;
+import ec.tstoolkit.timeseries.simplets.TsDataTable;
+import ec.tstoolkit.timeseries.simplets.TsDataTableInfo;
+import ec.tstoolkit.timeseries.simplets.TsDomain;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TsInformationSetTest {
+
+    public TsInformationSetTest() {
+    }
+
+    @Test
+    public void testUpdates() {
+        TsData s = data.Data.P;
+        TsData o = s.drop(0, 12);
+        TsData n = s.clone();
+        n.set(10, n.get(10) + 1);
+        TsInformationSet oldSet = new TsInformationSet(new TsData[]{o, s});
+        TsInformationSet newSet = new TsInformationSet(new TsData[]{n, s});
+        TsInformationUpdates updates = oldSet.updates(newSet);
+        assertEquals(12, updates.news().size());
+        assertEquals(1, updates.revisions().size());
+        assertEquals(s.getStart().plus(10), updates.revisions().get(0).period);
+        TsInformationSet revised = oldSet.revisedData(newSet);
+        assertEquals(o.getLength(), revised.series(0).getLength());
+        assertEquals(n.get(10), revised.series(0).get(10), 0);
+        assertEquals(o.getLength() - 1, revised.getLastValidPosition(0));
+        assertTrue(oldSet.getFingerprint() != newSet.getFingerprint());
+        assertEquals(newSet.getFingerprint(), new TsInformationSet(new TsData[]{n.clone(), s}).getFingerprint());
+    }
+
+    @Test
+    public void testGenerateMatrix() {
+        TsData s = data.Data.P;
+        TsInformationSet info = new TsInformationSet(new TsData[]{s.drop(5, 12), s.drop(0, 3)});
+        TsDomain domain = s.getDomain().extend(-3, 6);
+        Matrix m = info.generateMatrix(domain);
+        TsDataTable table = new TsDataTable();
+        table.insert(-1, info.series(0));
+        table.insert(-1, info.series(1));
+        TsDomain tdomain = table.getDomain();
+        for (int i = 0; i < domain.getLength(); ++i) {
+            int k = domain.get(i).minus(tdomain.getStart());
+            for (int j = 0; j < 2; ++j) {
+                if (k >= 0 && k < tdomain.getLength() && table.getDataInfo(k, j) == TsDataTableInfo.Valid) {
+                    assertEquals(table.getData(k, j), m.get(i, j), 0);
+                } else {
+                    assertTrue(Double.isNaN(m.get(i, j)));
+                }
+            }
+        }
+    }
+}
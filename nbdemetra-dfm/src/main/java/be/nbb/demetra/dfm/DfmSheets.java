@@ -71,7 +71,9 @@ final class DfmSheets {
         "emSpec.version.display=Version",
         "emSpec.maxIter.display=Max iterations",
         "emSpec.maxNumIter.display=Max numerical iterations",
-        "emSpec.precision.display=Precision"
+        "emSpec.precision.display=Precision",
+        "emSpec.accelerated.display=Accelerated (SQUAREM)",
+        "emSpec.parallel.display=Parallel loadings"
     })
     private static void withEmSpec(EmSpec bean) {
         B.withBoolean()
@@ -98,6 +100,14 @@ final class DfmSheets {
                 .display(Bundle.emSpec_precision_display())
                 .min(0)
                 .add();
+        B.withBoolean()
+                .select(bean, "accelerated")
+                .display(Bundle.emSpec_accelerated_display())
+                .add();
+        B.withBoolean()
+                .select(bean, "parallel")
+                .display(Bundle.emSpec_parallel_display())
+                .add();
     }
 
     @NbBundle.Messages({
@@ -108,6 +118,9 @@ final class DfmSheets {
         "numericalProcessingSpec.independentShocks.display=Independent VAR shocks",
         "numericalProcessingSpec.blockIterations.display=Iterations by blocks",
         "numericalProcessingSpec.mixedEstimation.display=Mixed estimation",
+        "numericalProcessingSpec.collapsedFiltering.display=Collapsed filtering",
+        "numericalProcessingSpec.parallelDerivatives.display=Parallel derivatives",
+        "numericalProcessingSpec.analyticalGradient.display=Analytical gradient",
         "numericalProcessingSpec.method.display=Optimization method",
         "numericalProcessingSpec.precision.display=Precision"
     })
@@ -143,6 +156,18 @@ final class DfmSheets {
                 .select(bean, "mixedEstimation")
                 .display(Bundle.numericalProcessingSpec_mixedEstimation_display())
                 .add();
+        B.withBoolean()
+                .select(bean, "collapsedFiltering")
+                .display(Bundle.numericalProcessingSpec_collapsedFiltering_display())
+                .add();
+        B.withBoolean()
+                .select(bean, "parallelDerivatives")
+                .display(Bundle.numericalProcessingSpec_parallelDerivatives_display())
+                .add();
+        B.withBoolean()
+                .select(bean, "analyticalGradient")
+                .display(Bundle.numericalProcessingSpec_analyticalGradient_display())
+                .add();
         B.withEnum(NumericalProcessingSpec.Method.class)
                 .select(bean, "method")
                 .display(Bundle.numericalProcessingSpec_method_display())
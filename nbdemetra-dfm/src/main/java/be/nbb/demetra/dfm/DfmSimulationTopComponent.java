@@ -213,6 +213,7 @@ public class DfmSimulationTopComponent extends AbstractDfmDocumentTopComponent {
             last.move(last.getFrequency().intValue());
             Day horizon = last.lastday();
             simulation = new DfmSimulation(horizon);
+            simulation.setThreadsCount(Runtime.getRuntime().availableProcessors());
 
             simulation.addPropertyChangeListener((PropertyChangeEvent evt) -> {
                 if (evt.getPropertyName().equals(DfmSimulation.CALENDAR_RESULTS)) {
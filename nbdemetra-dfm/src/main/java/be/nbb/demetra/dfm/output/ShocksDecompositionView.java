@@ -317,15 +317,15 @@ final class ShocksDecompositionView extends javax.swing.JPanel {
         if (signalVisible) {
             result.quietAdd(TsFactory.instance.createTs("Signal", null, dfmResults.getSignal()[selectedIndex]));
         }
-        TsData[][] x = dfmResults.getShocksDecomposition();
+        TsData[] x = dfmResults.getShocksDecomposition(selectedIndex);
         for (int i = 0; i < x.length - 2; i++) {
-            result.quietAdd(TsFactory.instance.createTs("F" + (i+1), null, x[i][selectedIndex]));
+            result.quietAdd(TsFactory.instance.createTs("F" + (i+1), null, x[i]));
         }
         if (initialFactorVisible) {
-            result.quietAdd(TsFactory.instance.createTs("Initial factor", null, x[x.length - 2][selectedIndex]));
+            result.quietAdd(TsFactory.instance.createTs("Initial factor", null, x[x.length - 2]));
         }
         if (noiseVisible) {
-            result.quietAdd(TsFactory.instance.createTs("Noise", null, x[x.length - 1][selectedIndex]));
+            result.quietAdd(TsFactory.instance.createTs("Noise", null, x[x.length - 1]));
         }
 
         return result;
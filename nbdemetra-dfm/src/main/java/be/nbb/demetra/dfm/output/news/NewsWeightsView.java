@@ -479,6 +479,9 @@ public class NewsWeightsView extends JPanel {
             revsStart = doc.getRevisionsDomain().getStart();
         }
 
+        // computes the weights for all the forecasts in one pass (they are cached by the news)
+        doc.prefetchWeights(selected);
+
         for (int j = sNew.getLength() - 1; j >= 0; --j) {
             if (sNew.isMissing(j)) {
                 TsPeriod p = sNew.getDomain().get(j);